@@ -0,0 +1,209 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.codereading.core.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Region;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ashigeru.eclipse.codereading.core.benchmarks.SampleDocuments.DelimiterStyle;
+import com.ashigeru.eclipse.codereading.core.benchmarks.SampleDocuments.IndentStyle;
+import com.ashigeru.eclipse.codereading.core.benchmarks.SampleDocuments.StoreKind;
+import com.ashigeru.eclipse.codereading.core.utils.DocumentUtils;
+import com.ashigeru.eclipse.codereading.core.utils.LineNormalizer;
+import com.ashigeru.eclipse.codereading.core.utils.TextLines;
+
+/**
+ * Benchmarks for {@link DocumentUtils} and {@link LineNormalizer}.
+ * Run with {@code -prof gc} to see the allocation rate of each operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentUtilsBenchmark {
+
+    private static final int TAB_SIZE = 4;
+
+    /**
+     * The document size in characters.
+     */
+    @Param({ "1024", "65536", "1048576", "52428800" })
+    public int size;
+
+    /**
+     * The indentation style.
+     */
+    @Param({ "SPACES", "TABS", "MIXED" })
+    public IndentStyle indent;
+
+    /**
+     * The line delimiter style.
+     */
+    @Param({ "LF", "CRLF", "MIXED" })
+    public DelimiterStyle delimiter;
+
+    /**
+     * The text store kind.
+     */
+    @Param({ "GAP", "COPY_ON_WRITE" })
+    public StoreKind store;
+
+    private IDocument document;
+
+    private IRegion selection;
+
+    private IRegion block;
+
+    private List<String> lines;
+
+    private List<String> extracted;
+
+    private LineNormalizer normalizer;
+
+    private ExecutorService executor;
+
+    private LineNormalizer parallelNormalizer;
+
+    /**
+     * Prepares the target document.
+     * @throws BadLocationException if failed to prepare
+     */
+    @Setup
+    public void setup() throws BadLocationException {
+        String text = SampleDocuments.generate(size, indent, delimiter);
+        document = SampleDocuments.create(store, text);
+
+        // starts and ends at the middle of lines
+        selection = new Region(1, document.getLength() - 2);
+        block = DocumentUtils.toLines(document, selection);
+        lines = DocumentUtils.getLines(document, block);
+        extracted = DocumentUtils.extractHorizontalTabs(lines, TAB_SIZE);
+        normalizer = new LineNormalizer(TAB_SIZE);
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        parallelNormalizer = new LineNormalizer(TAB_SIZE, executor, 0);
+    }
+
+    /**
+     * Disposes the executor.
+     */
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * {@link DocumentUtils#toLines(IDocument, IRegion)}.
+     * @return the result
+     * @throws BadLocationException if failed
+     */
+    @Benchmark
+    public IRegion toLines() throws BadLocationException {
+        return DocumentUtils.toLines(document, selection);
+    }
+
+    /**
+     * {@link DocumentUtils#getLines(IDocument, IRegion)}.
+     * @return the result
+     * @throws BadLocationException if failed
+     */
+    @Benchmark
+    public List<String> getLines() throws BadLocationException {
+        return DocumentUtils.getLines(document, block);
+    }
+
+    /**
+     * {@link DocumentUtils#getLineViews(IDocument, IRegion)}.
+     * @return the result
+     * @throws BadLocationException if failed
+     */
+    @Benchmark
+    public TextLines getLineViews() throws BadLocationException {
+        return DocumentUtils.getLineViews(document, block);
+    }
+
+    /**
+     * {@link DocumentUtils#extractHorizontalTabs(List, int)}.
+     * @return the result
+     */
+    @Benchmark
+    public List<String> extractHorizontalTabs() {
+        return DocumentUtils.extractHorizontalTabs(lines, TAB_SIZE);
+    }
+
+    /**
+     * {@link DocumentUtils#trimLeadingWhitespaces(List)}.
+     * @return the result
+     */
+    @Benchmark
+    public List<String> trimLeadingWhitespaces() {
+        return DocumentUtils.trimLeadingWhitespaces(extracted);
+    }
+
+    /**
+     * The legacy capture pipeline, which builds intermediate lists.
+     * @return the result
+     * @throws BadLocationException if failed
+     */
+    @Benchmark
+    public List<String> pipeline() throws BadLocationException {
+        IRegion region = DocumentUtils.toLines(document, selection);
+        List<String> results = DocumentUtils.getLines(document, region);
+        results = DocumentUtils.extractHorizontalTabs(results, TAB_SIZE);
+        results = DocumentUtils.trimLeadingWhitespaces(results);
+        return results;
+    }
+
+    /**
+     * {@link LineNormalizer#normalize(IDocument, IRegion)}.
+     * @return the result
+     * @throws BadLocationException if failed
+     */
+    @Benchmark
+    public TextLines normalize() throws BadLocationException {
+        return normalizer.normalize(document, selection);
+    }
+
+    /**
+     * {@link LineNormalizer#normalize(IDocument, IRegion)} with parallel execution.
+     * @return the result
+     * @throws BadLocationException if failed
+     */
+    @Benchmark
+    public TextLines normalizeParallel() throws BadLocationException {
+        return parallelNormalizer.normalize(document, selection);
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.codereading.core.benchmarks;
+
+import java.util.Random;
+
+import org.eclipse.jface.text.AbstractDocument;
+import org.eclipse.jface.text.CopyOnWriteTextStore;
+import org.eclipse.jface.text.DefaultLineTracker;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.GapTextStore;
+import org.eclipse.jface.text.IDocument;
+
+/**
+ * Generates sample documents for benchmarks.
+ */
+public final class SampleDocuments {
+
+    private static final String[] TOKENS = {
+        "public", "static", "final", "int", "value", "=", "result", ";", "{", "}", "(", ")",
+        "<element", "name=\"id\"", "/>", "return", "this.field", "+", "1", "//", "comment",
+    };
+
+    /**
+     * Indentation styles.
+     */
+    public enum IndentStyle {
+
+        /**
+         * Indents only with spaces.
+         */
+        SPACES,
+
+        /**
+         * Indents only with horizontal tabs.
+         */
+        TABS,
+
+        /**
+         * Indents with both spaces and horizontal tabs.
+         */
+        MIXED,
+    }
+
+    /**
+     * Line delimiter styles.
+     */
+    public enum DelimiterStyle {
+
+        /**
+         * Only LF.
+         */
+        LF,
+
+        /**
+         * Only CR LF.
+         */
+        CRLF,
+
+        /**
+         * Mixes LF, CR LF, and CR.
+         */
+        MIXED,
+    }
+
+    /**
+     * Text store kinds.
+     */
+    public enum StoreKind {
+
+        /**
+         * {@link Document} (backed by {@link GapTextStore}).
+         */
+        GAP,
+
+        /**
+         * {@link CopyOnWriteTextStore}.
+         */
+        COPY_ON_WRITE,
+    }
+
+    /**
+     * Generates a source text.
+     * @param size the approximate text size in characters
+     * @param indent the indentation style
+     * @param delimiter the line delimiter style
+     * @return the generated text
+     */
+    static String generate(int size, IndentStyle indent, DelimiterStyle delimiter) {
+        Random random = new Random(6502);
+        StringBuilder buf = new StringBuilder(size + 256);
+        int depth = 2;
+        while (buf.length() < size) {
+            depth = Math.max(1, Math.min(12, depth + random.nextInt(3) - 1));
+            if (random.nextInt(10) != 0) {
+                appendIndent(buf, depth, indent, random);
+                int count = 1 + random.nextInt(10);
+                for (int i = 0; i < count; i++) {
+                    if (i > 0) {
+                        buf.append(' ');
+                    }
+                    buf.append(TOKENS[random.nextInt(TOKENS.length)]);
+                }
+            }
+            appendDelimiter(buf, delimiter, random);
+        }
+        return buf.toString();
+    }
+
+    private static void appendIndent(StringBuilder buf, int depth, IndentStyle style, Random random) {
+        for (int i = 0; i < depth; i++) {
+            IndentStyle current = style == IndentStyle.MIXED
+                    ? (random.nextBoolean() ? IndentStyle.SPACES : IndentStyle.TABS)
+                    : style;
+            if (current == IndentStyle.TABS) {
+                buf.append('\t');
+            } else {
+                buf.append("    ");
+            }
+        }
+    }
+
+    private static void appendDelimiter(StringBuilder buf, DelimiterStyle style, Random random) {
+        switch (style) {
+        case LF:
+            buf.append('\n');
+            break;
+        case CRLF:
+            buf.append("\r\n");
+            break;
+        case MIXED:
+            switch (random.nextInt(3)) {
+            case 0:
+                buf.append('\n');
+                break;
+            case 1:
+                buf.append("\r\n");
+                break;
+            default:
+                buf.append('\r');
+                break;
+            }
+            break;
+        default:
+            throw new AssertionError(style);
+        }
+    }
+
+    /**
+     * Creates a new document.
+     * @param kind the text store kind
+     * @param text the initial contents
+     * @return the created document
+     */
+    static IDocument create(StoreKind kind, String text) {
+        switch (kind) {
+        case GAP:
+            return new Document(text);
+        case COPY_ON_WRITE:
+            return new CopyOnWriteDocument(text);
+        default:
+            throw new AssertionError(kind);
+        }
+    }
+
+    private static final class CopyOnWriteDocument extends AbstractDocument {
+
+        CopyOnWriteDocument(String text) {
+            setTextStore(new CopyOnWriteTextStore(new GapTextStore()));
+            setLineTracker(new DefaultLineTracker());
+            completeInitialization();
+            getStore().set(text);
+            getTracker().set(text);
+        }
+    }
+
+    private SampleDocuments() {
+        return;
+    }
+}
@@ -0,0 +1,306 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.codereading.ui.benchmarks;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.IHandler;
+import org.eclipse.core.expressions.EvaluationContext;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.TextSelection;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.ui.ISources;
+import org.eclipse.ui.texteditor.ITextEditor;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.SynchronousBundleListener;
+
+/**
+ * Measures the startup cost of {@code Log Code Snippet}.
+ * This application runs without any workbench windows, but still requires a display for the log dialog.
+ * It loads {@code LogSnippetHandler}, which lazily activates the plug-ins under test,
+ * executes it against a {@link SyntheticEditor}, and closes the log dialog as soon as it is shown.
+ * Then it repeats the execution several times.
+ * The class loading log between {@value #MARKER_BEGIN} and {@value #MARKER_END} in the standard output
+ * covers the first invocation path.
+ * This exits with {@code 1} if the measured latencies exceed the following budgets (in milli-seconds):
+ * <ul>
+ * <li> {@code codereading.benchmark.budget.activation} - activating the plug-ins </li>
+ * <li> {@code codereading.benchmark.budget.first} - showing the dialog on the first invocation </li>
+ * <li> {@code codereading.benchmark.budget.next} - showing the dialog on the subsequent invocations (median) </li>
+ * </ul>
+ */
+public class StartupBenchmark implements IApplication {
+
+    static final String MARKER_BEGIN = "### begin first invocation";
+
+    static final String MARKER_END = "### end first invocation";
+
+    private static final String[] TARGET_BUNDLES = {
+        "com.ashigeru.eclipse.codereading.core",
+        "com.ashigeru.eclipse.codereading.ui",
+    };
+
+    private static final String HANDLER_CLASS =
+        "com.ashigeru.eclipse.internal.codereading.ui.handlers.LogSnippetHandler";
+
+    private static final String KEY_BUDGET_PREFIX = "codereading.benchmark.budget.";
+
+    private static final String KEY_ITERATIONS = "codereading.benchmark.iterations";
+
+    private static final int DOCUMENT_LINES = 5000;
+
+    private static final int SELECTION_START_LINE = 1000;
+
+    private static final int SELECTION_LINES = 200;
+
+    @Override
+    public Object start(IApplicationContext context) throws Exception {
+        context.applicationRunning();
+        Display display = new Display();
+        try {
+            return run(display) ? EXIT_OK : Integer.valueOf(1);
+        } finally {
+            display.dispose();
+        }
+    }
+
+    @Override
+    public void stop() {
+        return;
+    }
+
+    private boolean run(Display display) throws Exception {
+        Bundle target = Platform.getBundle(TARGET_BUNDLES[TARGET_BUNDLES.length - 1]);
+        if (target == null) {
+            throw new IllegalStateException(MessageFormat.format(
+                    "Missing bundle: {0}",
+                    TARGET_BUNDLES[TARGET_BUNDLES.length - 1]));
+        }
+        if (target.getState() == Bundle.ACTIVE) {
+            throw new IllegalStateException(MessageFormat.format(
+                    "Bundle has been already activated: {0}",
+                    target.getSymbolicName()));
+        }
+        ActivationRecorder activations = new ActivationRecorder();
+        FrameworkUtil.getBundle(getClass()).getBundleContext().addBundleListener(activations);
+        Shell shell = new Shell(display);
+        DialogCloser closer = new DialogCloser(display, shell);
+        display.addFilter(SWT.Show, closer);
+        ExecutionEvent event = createEvent(shell);
+        ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+        try {
+            long classesBefore = classLoading.getTotalLoadedClassCount();
+            System.out.println(MARKER_BEGIN);
+            closer.reset();
+            long start = System.nanoTime();
+            IHandler handler = (IHandler) target.loadClass(HANDLER_CLASS).newInstance();
+            handler.execute(event);
+            long finish = System.nanoTime();
+            System.out.println(MARKER_END);
+            if (closer.getShownAt() == 0) {
+                throw new IllegalStateException("Log dialog was not shown");
+            }
+            long firstClasses = classLoading.getTotalLoadedClassCount() - classesBefore;
+            long firstDialog = closer.getShownAt() - start;
+            long firstTotal = finish - start;
+            long activation = activations.getElapsed();
+
+            int iterations = Integer.getInteger(KEY_ITERATIONS, 20);
+            long[] nextDialogs = new long[iterations];
+            long classesBeforeNext = classLoading.getTotalLoadedClassCount();
+            for (int i = 0; i < iterations; i++) {
+                closer.reset();
+                long begin = System.nanoTime();
+                handler.execute(event);
+                if (closer.getShownAt() == 0) {
+                    throw new IllegalStateException("Log dialog was not shown");
+                }
+                nextDialogs[i] = closer.getShownAt() - begin;
+            }
+            long nextClasses = classLoading.getTotalLoadedClassCount() - classesBeforeNext;
+            Arrays.sort(nextDialogs);
+
+            System.out.println(MessageFormat.format(
+                    "activation: {0}ms",
+                    toMillis(activation)));
+            System.out.println(MessageFormat.format(
+                    "first invocation: dialog={0}ms, total={1}ms, loaded classes={2}",
+                    toMillis(firstDialog),
+                    toMillis(firstTotal),
+                    String.valueOf(firstClasses)));
+            System.out.println(MessageFormat.format(
+                    "subsequent invocations (x{0}): dialog min={1}ms, median={2}ms, max={3}ms, loaded classes={4}",
+                    iterations,
+                    toMillis(nextDialogs[0]),
+                    toMillis(nextDialogs[iterations / 2]),
+                    toMillis(nextDialogs[iterations - 1]),
+                    String.valueOf(nextClasses)));
+            boolean ok = true;
+            ok &= check("activation", activation);
+            ok &= check("first", firstDialog);
+            ok &= check("next", nextDialogs[iterations / 2]);
+            return ok;
+        } finally {
+            display.removeFilter(SWT.Show, closer);
+            shell.dispose();
+        }
+    }
+
+    private static ExecutionEvent createEvent(Shell shell) {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < DOCUMENT_LINES; i++) {
+            for (int depth = i % 5; depth >= 0; depth--) {
+                buf.append(i % 2 == 0 ? "\t" : "    ");
+            }
+            buf.append("int value").append(i).append(" = compute(").append(i).append(");\n");
+        }
+        IDocument document = new Document(buf.toString());
+        int start;
+        int end;
+        try {
+            start = document.getLineOffset(SELECTION_START_LINE);
+            end = document.getLineOffset(SELECTION_START_LINE + SELECTION_LINES);
+        } catch (BadLocationException e) {
+            throw new AssertionError(e);
+        }
+        ITextEditor editor = SyntheticEditor.create(
+                "benchmark/src/Example.java",
+                document,
+                new TextSelection(document, start, end - start));
+        EvaluationContext context = new EvaluationContext(null, new Object());
+        context.addVariable(ISources.ACTIVE_EDITOR_NAME, editor);
+        context.addVariable(ISources.ACTIVE_PART_NAME, editor);
+        context.addVariable(ISources.ACTIVE_SHELL_NAME, shell);
+        return new ExecutionEvent(null, Collections.emptyMap(), null, context);
+    }
+
+    private static boolean check(String name, long nanos) {
+        long budget = Long.getLong(KEY_BUDGET_PREFIX + name, Long.MAX_VALUE);
+        if (toMillis(nanos) > budget) {
+            System.out.println(MessageFormat.format(
+                    "FAILED: {0} exceeded its budget: {1}ms > {2}ms",
+                    name,
+                    toMillis(nanos),
+                    budget));
+            return false;
+        }
+        return true;
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos / 1000000;
+    }
+
+    /**
+     * Records the activation period of the target bundles.
+     */
+    private static final class ActivationRecorder implements SynchronousBundleListener {
+
+        private final Map<String, Long> starting = new HashMap<String, Long>();
+
+        private final Map<String, Long> started = new HashMap<String, Long>();
+
+        ActivationRecorder() {
+            return;
+        }
+
+        @Override
+        public synchronized void bundleChanged(BundleEvent event) {
+            String name = event.getBundle().getSymbolicName();
+            if (Arrays.asList(TARGET_BUNDLES).contains(name) == false) {
+                return;
+            }
+            if (event.getType() == BundleEvent.STARTING) {
+                starting.put(name, System.nanoTime());
+            } else if (event.getType() == BundleEvent.STARTED) {
+                started.put(name, System.nanoTime());
+            }
+        }
+
+        /**
+         * Returns the elapsed time from the first activation to the last one.
+         * @return the elapsed time in nano-seconds
+         */
+        synchronized long getElapsed() {
+            if (started.size() != TARGET_BUNDLES.length) {
+                throw new IllegalStateException(MessageFormat.format(
+                        "Some bundles were not activated: {0}",
+                        started.keySet()));
+            }
+            return Collections.max(started.values()) - Collections.min(starting.values());
+        }
+    }
+
+    /**
+     * Closes dialogs as soon as they are shown.
+     */
+    private static final class DialogCloser implements Listener {
+
+        private final Display display;
+
+        private final Shell parent;
+
+        private long shownAt;
+
+        DialogCloser(Display display, Shell parent) {
+            this.display = display;
+            this.parent = parent;
+        }
+
+        void reset() {
+            shownAt = 0;
+        }
+
+        long getShownAt() {
+            return shownAt;
+        }
+
+        @Override
+        public void handleEvent(Event event) {
+            if (event.widget instanceof Shell == false || event.widget == parent || shownAt != 0) {
+                return;
+            }
+            shownAt = System.nanoTime();
+            final Shell dialog = (Shell) event.widget;
+            display.asyncExec(new Runnable() {
+                @Override
+                public void run() {
+                    if (dialog.isDisposed() == false) {
+                        dialog.close();
+                    }
+                }
+            });
+        }
+    }
+}
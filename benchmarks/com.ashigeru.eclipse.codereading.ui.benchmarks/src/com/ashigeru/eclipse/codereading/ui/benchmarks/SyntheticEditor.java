@@ -0,0 +1,132 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.codereading.ui.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.ITextSelection;
+import org.eclipse.jface.viewers.ISelectionProvider;
+import org.eclipse.ui.IEditorInput;
+import org.eclipse.ui.IEditorSite;
+import org.eclipse.ui.texteditor.IDocumentProvider;
+import org.eclipse.ui.texteditor.ITextEditor;
+
+/**
+ * A synthetic text editor which only provides its document and selection.
+ * The editor, its input, site, selection provider, and document provider are all dynamic proxies,
+ * and the other operations just return default values.
+ */
+final class SyntheticEditor implements InvocationHandler {
+
+    private final IPath path;
+
+    private final IDocument document;
+
+    private final ITextSelection selection;
+
+    private final Object editor;
+
+    private final Object input;
+
+    private final Object site;
+
+    private final Object selectionProvider;
+
+    private final Object documentProvider;
+
+    private SyntheticEditor(IPath path, IDocument document, ITextSelection selection) {
+        this.path = path;
+        this.document = document;
+        this.selection = selection;
+        this.editor = newProxy(ITextEditor.class);
+        this.input = newProxy(IEditorInput.class);
+        this.site = newProxy(IEditorSite.class);
+        this.selectionProvider = newProxy(ISelectionProvider.class);
+        this.documentProvider = newProxy(IDocumentProvider.class);
+    }
+
+    /**
+     * Creates a new editor.
+     * @param path the path of the editing file
+     * @param document the editing document
+     * @param selection the current selection
+     * @return the created editor
+     */
+    static ITextEditor create(String path, IDocument document, ITextSelection selection) {
+        return (ITextEditor) new SyntheticEditor(Path.fromPortableString(path), document, selection).editor;
+    }
+
+    private Object newProxy(Class<?> type) {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if (name.equals("equals") && args != null && args.length == 1) {
+            return proxy == args[0];
+        } else if (name.equals("hashCode") && args == null) {
+            return System.identityHashCode(proxy);
+        } else if (name.equals("toString") && args == null) {
+            return path.toString();
+        } else if (name.equals("getEditorInput")) {
+            return input;
+        } else if (name.equals("getSite") || name.equals("getEditorSite")) {
+            return site;
+        } else if (name.equals("getSelectionProvider")) {
+            return selectionProvider;
+        } else if (name.equals("getSelection")) {
+            return selection;
+        } else if (name.equals("getDocumentProvider")) {
+            return documentProvider;
+        } else if (name.equals("getDocument")) {
+            return document;
+        } else if (name.equals("getName") || name.equals("getTitle") || name.equals("getToolTipText")) {
+            return path.lastSegment();
+        } else if (name.equals("exists")) {
+            return true;
+        } else if (name.equals("getAdapter") && args != null && args[0] == IPath.class) {
+            return path;
+        }
+        return getDefaultValue(method.getReturnType());
+    }
+
+    private static Object getDefaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return '\0';
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0f;
+        } else if (type == double.class) {
+            return 0d;
+        }
+        return null;
+    }
+}
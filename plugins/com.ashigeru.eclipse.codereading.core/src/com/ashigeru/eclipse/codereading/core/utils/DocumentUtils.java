@@ -36,7 +36,7 @@ public final class DocumentUtils {
      * @throws BadLocationException if the region is not valid
      */
     public static int getLineNumber(IDocument document, IRegion region) throws BadLocationException {
-        return document.getLineOfOffset(region.getOffset());
+        return getLineOfOffset(document, LineIndex.get(document), region.getOffset());
     }
 
     /**
@@ -47,21 +47,19 @@ public final class DocumentUtils {
      * @throws BadLocationException if the region is not valid
      */
     public static IRegion toLines(IDocument document, IRegion region) throws BadLocationException {
+        LineIndex index = LineIndex.get(document);
         int startChar = region.getOffset();
         int endChar = startChar + region.getLength();
-        IRegion startLine = document.getLineInformationOfOffset(startChar);
-        IRegion endLine = document.getLineInformationOfOffset(endChar);
-        if (startLine.getOffset() == endLine.getOffset()) {
-            return startLine;
-        }
+        int startLine = getLineOfOffset(document, index, startChar);
+        int endLine = getLineOfOffset(document, index, endChar);
 
         // end of region is on line head -> rewind a line
-        if (endLine.getOffset() == endChar) {
-            endLine = document.getLineInformationOfOffset(endChar - 1);
+        if (startLine != endLine && getLineStart(document, index, endLine) == endChar) {
+            endLine = getLineOfOffset(document, index, endChar - 1);
         }
 
-        int newStartChar = startLine.getOffset();
-        int newEndChar = endLine.getOffset() + endLine.getLength();
+        int newStartChar = getLineStart(document, index, startLine);
+        int newEndChar = getLineEnd(document, index, endLine);
         return new Region(newStartChar, newEndChar - newStartChar);
     }
 
@@ -73,104 +71,134 @@ public final class DocumentUtils {
      * @throws BadLocationException if the region is not valid
      */
     public static List<String> getLines(IDocument document, IRegion region) throws BadLocationException {
-        List<String> results = new ArrayList<String>();
-        int start = document.getLineOfOffset(region.getOffset());
-        int end = document.getLineOfOffset(region.getOffset() + region.getLength());
+        LineIndex index = LineIndex.get(document);
+        int start = getLineOfOffset(document, index, region.getOffset());
+        int end = getLineOfOffset(document, index, region.getOffset() + region.getLength());
+        List<String> results = new ArrayList<String>(end - start + 1);
         for (int lineAt = start; lineAt <= end; lineAt++) {
-            IRegion lineInfo = document.getLineInformation(lineAt);
-            String lineContent = document.get(lineInfo.getOffset(), lineInfo.getLength());
-            results.add(lineContent);
+            int lineStart = getLineStart(document, index, lineAt);
+            int lineEnd = getLineEnd(document, index, lineAt);
+            results.add(document.get(lineStart, lineEnd - lineStart));
         }
         return results;
     }
 
+    /**
+     * Returns views of line contents in the document.
+     * The resulting lines share a single snapshot of the target region.
+     * @param document the target document
+     * @param region the target region
+     * @return the line contents
+     * @throws BadLocationException if the region is not valid
+     */
+    public static TextLines getLineViews(IDocument document, IRegion region) throws BadLocationException {
+        LineIndex index = LineIndex.get(document);
+        int start = getLineOfOffset(document, index, region.getOffset());
+        int end = getLineOfOffset(document, index, region.getOffset() + region.getLength());
+        int base = getLineStart(document, index, start);
+        String text = document.get(base, getLineEnd(document, index, end) - base);
+        int[] bounds = new int[(end - start + 1) * 2];
+        for (int lineAt = start; lineAt <= end; lineAt++) {
+            int offset = (lineAt - start) * 2;
+            bounds[offset] = getLineStart(document, index, lineAt) - base;
+            bounds[offset + 1] = getLineEnd(document, index, lineAt) - base;
+        }
+        return new TextLines(text, bounds);
+    }
+
+    private static int getLineOfOffset(IDocument document, LineIndex index, int offset) throws BadLocationException {
+        if (index == null) {
+            return document.getLineOfOffset(offset);
+        }
+        return index.getLineOfOffset(offset);
+    }
+
+    private static int getLineStart(IDocument document, LineIndex index, int line) throws BadLocationException {
+        if (index == null) {
+            return document.getLineOffset(line);
+        }
+        return index.getLineStart(line);
+    }
+
+    private static int getLineEnd(IDocument document, LineIndex index, int line) throws BadLocationException {
+        if (index == null) {
+            IRegion lineInfo = document.getLineInformation(line);
+            return lineInfo.getOffset() + lineInfo.getLength();
+        }
+        return index.getLineEnd(document, line);
+    }
+
     /**
      * Extracts horizontal tabs in lines.
      * @param lines the source lines
      * @param tabSize the tab column size
      * @return the extracted lines
      */
-    public static List<String> extractHorizontalTabs(List<String> lines, int tabSize) {
-        List<String> results = new ArrayList<String>();
-        for (String line : lines) {
-            results.add(extractHorizontalTabs(line, tabSize));
+    public static List<String> extractHorizontalTabs(List<? extends CharSequence> lines, int tabSize) {
+        List<String> results = new ArrayList<String>(lines.size());
+        StringBuilder buf = new StringBuilder();
+        for (CharSequence line : lines) {
+            buf.setLength(0);
+            LineNormalizer.expand(line, 0, line.length(), tabSize, 0, buf);
+            results.add(buf.toString());
         }
         return results;
     }
 
-    private static String extractHorizontalTabs(String line, int tabSize) {
-        assert line != null;
-        StringBuilder buf = new StringBuilder();
-        int column = 0;
-        for (int i = 0, n = line.length(); i < n; i++) {
-            char c = line.charAt(i);
-            if (c == '\t') {
-                int count = tabSize - column % tabSize;
-                for (int j = 0; j < count; j++) {
-                    buf.append(' ');
-                }
-            } else {
-                buf.append(c);
-                column++;
-            }
-        }
-        return buf.toString();
+    /**
+     * Trims leading whitespaces.
+     * Horizontal tabs should be extracted before this operation, or each of them is regarded as a single column.
+     * @param lines the source lines
+     * @return the trimmed lines
+     * @see #extractHorizontalTabs(List, int)
+     */
+    public static List<String> trimLeadingWhitespaces(List<String> lines) {
+        return trimLeadingWhitespaces(lines, 1);
     }
 
     /**
      * Trims leading whitespaces.
+     * The common indentation is computed by display columns, so that lines can mix spaces and horizontal tabs.
      * @param lines the source lines
+     * @param tabSize the tab column size
      * @return the trimmed lines
      */
-    public static List<String> trimLeadingWhitespaces(List<String> lines) {
-        if (lines.isEmpty()) {
-            return lines;
-        }
-        String lead = null;
-        for (int i = 0, n = lines.size(); i < n; i++) {
-            String line = lines.get(i);
-            if (line.isEmpty() == false) {
-                if (lead == null) {
-                    lead = getLeadingWhitespaces(line);
-                } else {
-                    lead = getCommonPrefix(lead, getLeadingWhitespaces(line));
-                }
+    public static List<String> trimLeadingWhitespaces(List<String> lines, int tabSize) {
+        IndentAnalyzer analyzer = new IndentAnalyzer(tabSize);
+        for (String line : lines) {
+            if (analyzer.add(line, 0, line.length()) == false) {
+                return lines;
             }
         }
-        if (lead == null || lead.isEmpty()) {
+        int indent = analyzer.getIndent();
+        if (indent == 0) {
             return lines;
         }
-        List<String> results = new ArrayList<String>();
+        List<String> results = new ArrayList<String>(lines.size());
+        StringBuilder buf = new StringBuilder();
         for (String line : lines) {
-            if (line.length() >= lead.length()) {
-                results.add(line.substring(lead.length()));
-            }
+            buf.setLength(0);
+            analyzer.appendAfter(line, 0, line.length(), indent, buf);
+            results.add(buf.toString());
         }
         return results;
     }
 
-    private static String getLeadingWhitespaces(String string) {
-        StringBuilder buf = new StringBuilder();
-        for (int i = 0, n = string.length(); i < n; i++) {
-            char c = string.charAt(i);
-            if (Character.isWhitespace(c) == false) {
-                break;
-            }
-            buf.append(c);
-        }
-        return buf.toString();
-    }
-
-    private static String getCommonPrefix(String a, String b) {
-        StringBuilder common = new StringBuilder();
-        for (int i = 0, n = Math.min(a.length(), b.length()); i < n; i++) {
-            if (a.charAt(i) == b.charAt(i)) {
-                common.append(a.charAt(i));
-            } else {
-                break;
+    /**
+     * Trims leading whitespaces.
+     * Each resulting line is a view of the original buffer, and its contents are not copied.
+     * Horizontal tabs should be extracted before this operation, or each of them is regarded as a single column.
+     * @param lines the source lines
+     * @return the trimmed lines
+     */
+    public static TextLines trimLeadingWhitespaces(TextLines lines) {
+        IndentAnalyzer analyzer = new IndentAnalyzer(1);
+        for (int i = 0, n = lines.size(); i < n; i++) {
+            if (analyzer.add(lines.getText(i), lines.getStart(i), lines.getEnd(i)) == false) {
+                return lines;
             }
         }
-        return common.toString();
+        return lines.trim(analyzer.getIndent());
     }
 
     private DocumentUtils() {
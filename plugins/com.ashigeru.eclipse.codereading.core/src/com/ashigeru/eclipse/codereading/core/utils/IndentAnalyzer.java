@@ -0,0 +1,113 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.codereading.core.utils;
+
+/**
+ * Computes the common indentation of lines in display columns.
+ * Empty lines are ignored, and the analysis can be stopped as soon as the common indentation becomes zero.
+ */
+final class IndentAnalyzer {
+
+    private final int tabSize;
+
+    private int indent = -1;
+
+    /**
+     * Creates a new instance.
+     * @param tabSize the tab column size
+     */
+    IndentAnalyzer(int tabSize) {
+        assert tabSize > 0;
+        this.tabSize = tabSize;
+    }
+
+    /**
+     * Adds a line.
+     * @param text the text
+     * @param start the line start offset (inclusive)
+     * @param end the line end offset (exclusive)
+     * @return {@code true} if the common indentation can be still reduced, otherwise {@code false}
+     */
+    boolean add(CharSequence text, int start, int end) {
+        if (start < end) {
+            int limit = indent < 0 ? Integer.MAX_VALUE : indent;
+            int width = getWidth(text, start, end, limit);
+            if (width < limit) {
+                indent = width;
+            }
+        }
+        return indent != 0;
+    }
+
+    /**
+     * Adds all lines in the other analyzer.
+     * @param other the other analyzer, which must have the same tab size
+     * @return {@code true} if the common indentation can be still reduced, otherwise {@code false}
+     */
+    boolean add(IndentAnalyzer other) {
+        assert other.tabSize == tabSize;
+        if (other.indent >= 0 && (indent < 0 || other.indent < indent)) {
+            indent = other.indent;
+        }
+        return indent != 0;
+    }
+
+    /**
+     * Returns the common indentation of the added lines.
+     * @return the common indentation in display columns, or {@code 0} if there are no non-empty lines
+     */
+    int getIndent() {
+        return Math.max(indent, 0);
+    }
+
+    private int getWidth(CharSequence text, int start, int end, int limit) {
+        int column = 0;
+        for (int i = start; i < end && column < limit; i++) {
+            char c = text.charAt(i);
+            if (c == '\t') {
+                column += tabSize - column % tabSize;
+            } else if (Character.isWhitespace(c)) {
+                column++;
+            } else {
+                break;
+            }
+        }
+        return column;
+    }
+
+    /**
+     * Appends the line contents after the specified column.
+     * The horizontal tab which straddles the column is replaced with spaces,
+     * and the rest characters are appended as is.
+     * @param text the text
+     * @param start the line start offset (inclusive)
+     * @param end the line end offset (exclusive)
+     * @param column the number of leading columns to be skipped
+     * @param output the destination
+     */
+    void appendAfter(CharSequence text, int start, int end, int column, StringBuilder output) {
+        int current = 0;
+        int offset = start;
+        while (offset < end && current < column) {
+            char c = text.charAt(offset++);
+            current = c == '\t' ? current + tabSize - current % tabSize : current + 1;
+        }
+        for (int i = column; i < current; i++) {
+            output.append(' ');
+        }
+        output.append(text, offset, end);
+    }
+}
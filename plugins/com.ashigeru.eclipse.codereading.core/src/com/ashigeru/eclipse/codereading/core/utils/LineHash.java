@@ -0,0 +1,160 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.codereading.core.utils;
+
+import java.util.List;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.Region;
+
+/**
+ * Content hashes of text lines.
+ * Each line is hashed without its leading and trailing whitespaces,
+ * so that re-indented lines have the same hash value.
+ */
+public final class LineHash {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final long ROLLING_BASE = 1000003L;
+
+    /**
+     * Returns the hash value of a line.
+     * @param text the text
+     * @param start the line start offset (inclusive)
+     * @param end the line end offset (exclusive)
+     * @return the hash value
+     */
+    public static long hash(CharSequence text, int start, int end) {
+        if (text == null) {
+            throw new IllegalArgumentException("text must not be null"); //$NON-NLS-1$
+        }
+        int first = start;
+        int last = end;
+        while (first < last && Character.isWhitespace(text.charAt(first))) {
+            first++;
+        }
+        while (first < last && Character.isWhitespace(text.charAt(last - 1))) {
+            last--;
+        }
+        long result = FNV_OFFSET_BASIS;
+        for (int i = first; i < last; i++) {
+            result ^= text.charAt(i);
+            result *= FNV_PRIME;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the hash values of lines.
+     * @param lines the lines
+     * @return the hash values, one for each line
+     */
+    public static long[] hash(List<? extends CharSequence> lines) {
+        if (lines == null) {
+            throw new IllegalArgumentException("lines must not be null"); //$NON-NLS-1$
+        }
+        long[] results = new long[lines.size()];
+        int index = 0;
+        for (CharSequence line : lines) {
+            results[index++] = hash(line, 0, line.length());
+        }
+        return results;
+    }
+
+    /**
+     * Returns the hash values of all lines in the document.
+     * @param document the target document
+     * @return the hash values, one for each line
+     */
+    public static long[] hash(IDocument document) {
+        if (document == null) {
+            throw new IllegalArgumentException("document must not be null"); //$NON-NLS-1$
+        }
+        try {
+            TextLines lines = DocumentUtils.getLineViews(document, new Region(0, document.getLength()));
+            long[] results = new long[lines.size()];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = hash(lines.getText(i), lines.getStart(i), lines.getEnd(i));
+            }
+            return results;
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Finds the sequence of lines in the other lines.
+     * This compares rolling hashes of the line hash values, and then verifies each candidate.
+     * @param lines the hash values of the lines to be searched
+     * @param pattern the hash values of the lines to find
+     * @param hint the preferred line index
+     * @return the index of the first matched line which is the nearest to the hint,
+     *     or {@code -1} if the pattern is not found
+     */
+    public static int find(long[] lines, long[] pattern, int hint) {
+        if (lines == null) {
+            throw new IllegalArgumentException("lines must not be null"); //$NON-NLS-1$
+        }
+        if (pattern == null) {
+            throw new IllegalArgumentException("pattern must not be null"); //$NON-NLS-1$
+        }
+        int size = pattern.length;
+        if (size == 0 || size > lines.length) {
+            return -1;
+        }
+        long highest = 1;
+        long target = 0;
+        long current = 0;
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                highest *= ROLLING_BASE;
+            }
+            target = target * ROLLING_BASE + pattern[i];
+            current = current * ROLLING_BASE + lines[i];
+        }
+        int result = -1;
+        for (int i = 0, n = lines.length - size; i <= n; i++) {
+            if (i > 0) {
+                current = (current - lines[i - 1] * highest) * ROLLING_BASE + lines[i + size - 1];
+            }
+            if (current == target && matches(lines, i, pattern)) {
+                if (result < 0 || Math.abs(i - hint) < Math.abs(result - hint)) {
+                    result = i;
+                } else {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean matches(long[] lines, int offset, long[] pattern) {
+        for (int i = 0; i < pattern.length; i++) {
+            if (lines[offset + i] != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private LineHash() {
+        return;
+    }
+}
@@ -0,0 +1,278 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.codereading.core.utils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+import org.eclipse.jface.text.IDocumentListener;
+
+/**
+ * A cached index of line start offsets in a document.
+ * Each index is kept up to date by the document events, and is discarded with its document.
+ * This only supports the documents whose legal line delimiters are CR, LF, and CR LF.
+ */
+final class LineIndex implements IDocumentListener {
+
+    private static final long UNKNOWN_STAMP = IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+
+    private static final Map<IDocument, LineIndex> CACHE = new WeakHashMap<IDocument, LineIndex>();
+
+    private static final PhaseStatistics PHASE_REBUILD = PhaseStatistics.get("core/lineIndex/rebuild"); //$NON-NLS-1$
+
+    private static final PhaseStatistics PHASE_UPDATE = PhaseStatistics.get("core/lineIndex/update"); //$NON-NLS-1$
+
+    private int[] starts = new int[16];
+
+    private int count;
+
+    private int length;
+
+    private long stamp = UNKNOWN_STAMP;
+
+    private boolean valid;
+
+    private LineIndex() {
+        return;
+    }
+
+    /**
+     * Returns the line index of the document.
+     * @param document the target document
+     * @return the line index, or {@code null} if the document is not supported
+     */
+    static LineIndex get(IDocument document) {
+        LineIndex index;
+        synchronized (CACHE) {
+            index = CACHE.get(document);
+            if (index == null) {
+                if (isSupported(document) == false) {
+                    return null;
+                }
+                index = new LineIndex();
+                CACHE.put(document, index);
+                document.addDocumentListener(index);
+            }
+        }
+        synchronized (index) {
+            if (index.isValid(document) == false) {
+                PhaseStatistics.Sample sample = PHASE_REBUILD.begin();
+                try {
+                    index.rebuild(document);
+                } finally {
+                    PHASE_REBUILD.end(sample);
+                }
+            }
+        }
+        return index;
+    }
+
+    private static boolean isSupported(IDocument document) {
+        for (String delimiter : document.getLegalLineDelimiters()) {
+            if (delimiter.equals("\n") == false //$NON-NLS-1$
+                    && delimiter.equals("\r") == false //$NON-NLS-1$
+                    && delimiter.equals("\r\n") == false) { //$NON-NLS-1$
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isValid(IDocument document) {
+        if (valid == false || length != document.getLength()) {
+            return false;
+        }
+        if (document instanceof IDocumentExtension4) {
+            return stamp == ((IDocumentExtension4) document).getModificationStamp();
+        }
+        return true;
+    }
+
+    private void rebuild(IDocument document) {
+        valid = false;
+        try {
+            int lines = document.getNumberOfLines();
+            if (starts.length < lines) {
+                starts = new int[lines];
+            }
+            for (int i = 0; i < lines; i++) {
+                starts[i] = document.getLineOffset(i);
+            }
+            count = lines;
+            length = document.getLength();
+            stamp = getStamp(document);
+            valid = true;
+        } catch (BadLocationException e) {
+            // keep invalid
+        }
+    }
+
+    private static long getStamp(IDocument document) {
+        if (document instanceof IDocumentExtension4) {
+            return ((IDocumentExtension4) document).getModificationStamp();
+        }
+        return UNKNOWN_STAMP;
+    }
+
+    @Override
+    public void documentAboutToBeChanged(DocumentEvent event) {
+        return;
+    }
+
+    @Override
+    public synchronized void documentChanged(DocumentEvent event) {
+        if (valid == false) {
+            return;
+        }
+        valid = false;
+        IDocument document = event.getDocument();
+        PhaseStatistics.Sample sample = PHASE_UPDATE.begin();
+        try {
+            update(document, event.getOffset(), event.getLength(), event.getText());
+            valid = length == document.getLength();
+            stamp = document instanceof IDocumentExtension4 ? event.getModificationStamp() : UNKNOWN_STAMP;
+        } catch (BadLocationException e) {
+            // keep invalid
+        } finally {
+            PHASE_UPDATE.end(sample);
+        }
+    }
+
+    /*
+     * Recomputes the line starts only around the modified range:
+     * - starts before the line of (offset - 1) are kept as is
+     * - starts after (offset + oldLength) are kept, and are shifted by the length difference
+     * - the rest are scanned from the modified document
+     */
+    private void update(IDocument document, int offset, int oldLength, String text) throws BadLocationException {
+        int newLength = text == null ? 0 : text.length();
+        int delta = newLength - oldLength;
+        int first = find(Math.max(offset - 1, 0));
+        int rest = find(offset + oldLength) + 1;
+
+        int documentLength = document.getLength();
+        int scanStart = starts[first];
+        int scanEnd = offset + newLength;
+        int[] scanned = new int[4];
+        int scannedCount = 0;
+        for (int i = scanStart; i < scanEnd; i++) {
+            char c = document.getChar(i);
+            int next;
+            if (c == '\n') {
+                next = i + 1;
+            } else if (c == '\r') {
+                if (i + 1 < documentLength && document.getChar(i + 1) == '\n') {
+                    next = i + 2;
+                    i++;
+                } else {
+                    next = i + 1;
+                }
+            } else {
+                continue;
+            }
+            if (next > scanEnd) {
+                break;
+            }
+            if (scannedCount == scanned.length) {
+                scanned = Arrays.copyOf(scanned, scannedCount * 2);
+            }
+            scanned[scannedCount++] = next;
+        }
+
+        int restCount = count - rest;
+        int newCount = first + 1 + scannedCount + restCount;
+        int[] target = starts.length >= newCount ? starts : new int[Math.max(newCount, starts.length * 2)];
+        if (target != starts) {
+            System.arraycopy(starts, 0, target, 0, first + 1);
+        }
+        System.arraycopy(starts, rest, target, first + 1 + scannedCount, restCount);
+        System.arraycopy(scanned, 0, target, first + 1, scannedCount);
+        for (int i = first + 1 + scannedCount; i < newCount; i++) {
+            target[i] += delta;
+        }
+        starts = target;
+        count = newCount;
+        length = documentLength;
+    }
+
+    private int find(int offset) {
+        int index = Arrays.binarySearch(starts, 0, count, offset);
+        if (index >= 0) {
+            return index;
+        }
+        return -(index + 1) - 1;
+    }
+
+    /**
+     * Returns the number of lines.
+     * @return the number of lines
+     */
+    synchronized int getNumberOfLines() {
+        return count;
+    }
+
+    /**
+     * Returns the line number which contains the offset.
+     * @param offset the target offset
+     * @return the line number (0-origin)
+     * @throws BadLocationException if the offset is out of the document
+     */
+    synchronized int getLineOfOffset(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length) {
+            throw new BadLocationException();
+        }
+        return find(offset);
+    }
+
+    /**
+     * Returns the start offset of the line.
+     * @param line the line number (0-origin)
+     * @return the start offset
+     * @throws BadLocationException if the line does not exist
+     */
+    synchronized int getLineStart(int line) throws BadLocationException {
+        if (line < 0 || line >= count) {
+            throw new BadLocationException();
+        }
+        return starts[line];
+    }
+
+    /**
+     * Returns the end offset of the line contents, excluding its line delimiter.
+     * @param document the target document
+     * @param line the line number (0-origin)
+     * @return the end offset (exclusive)
+     * @throws BadLocationException if the line does not exist
+     */
+    synchronized int getLineEnd(IDocument document, int line) throws BadLocationException {
+        if (line < 0 || line >= count) {
+            throw new BadLocationException();
+        }
+        if (line == count - 1) {
+            return length;
+        }
+        int next = starts[line + 1];
+        if (document.getChar(next - 1) == '\n' && next - 2 >= starts[line] && document.getChar(next - 2) == '\r') {
+            return next - 2;
+        }
+        return next - 1;
+    }
+}
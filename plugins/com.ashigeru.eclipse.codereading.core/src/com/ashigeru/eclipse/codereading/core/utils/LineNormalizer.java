@@ -0,0 +1,359 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.codereading.core.utils;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+
+/**
+ * Normalizes lines in documents.
+ * This extends the selection to its lines, expands horizontal tabs, and removes the common indentation,
+ * without building any intermediate lists.
+ * @see DocumentUtils#toLines(IDocument, IRegion)
+ * @see DocumentUtils#extractHorizontalTabs(List, int)
+ * @see DocumentUtils#trimLeadingWhitespaces(List)
+ */
+public class LineNormalizer {
+
+    /**
+     * The default minimum number of lines to normalize them in parallel.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 100000;
+
+    private static final int MIN_CHUNK_LINES = 4096;
+
+    private static final int CHUNKS_PER_PROCESSOR = 4;
+
+    private static final PhaseStatistics PHASE_LINE_VIEWS = PhaseStatistics.get("core/normalize/lineViews"); //$NON-NLS-1$
+
+    private static final PhaseStatistics PHASE_EXPAND = PhaseStatistics.get("core/normalize/expand"); //$NON-NLS-1$
+
+    private final int tabSize;
+
+    private final ExecutorService executor;
+
+    private final int parallelThreshold;
+
+    /**
+     * Creates a new instance.
+     * @param tabSize the tab column size
+     * @throws IllegalArgumentException if the tab size is not positive
+     */
+    public LineNormalizer(int tabSize) {
+        this(tabSize, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a new instance.
+     * If the number of target lines reaches the threshold, this splits them into chunks
+     * and normalizes each chunk on the executor.
+     * The results are always same as the sequential ones.
+     * @param tabSize the tab column size
+     * @param executor the executor for normalizing large selections in parallel (nullable)
+     * @param parallelThreshold the minimum number of lines to normalize them in parallel
+     * @throws IllegalArgumentException if the tab size is not positive
+     */
+    public LineNormalizer(int tabSize, ExecutorService executor, int parallelThreshold) {
+        if (tabSize <= 0) {
+            throw new IllegalArgumentException("tabSize must be > 0"); //$NON-NLS-1$
+        }
+        this.tabSize = tabSize;
+        this.executor = executor;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Returns the tab column size.
+     * @return the tab column size
+     */
+    public int getTabSize() {
+        return tabSize;
+    }
+
+    /**
+     * Returns the normalized lines of the selection.
+     * The resulting lines share a single buffer.
+     * @param document the target document
+     * @param region the selection region
+     * @return the normalized lines
+     * @throws BadLocationException if the region is not valid
+     */
+    public TextLines normalize(IDocument document, IRegion region) throws BadLocationException {
+        PhaseStatistics.Sample sample = PHASE_LINE_VIEWS.begin();
+        TextLines source;
+        try {
+            source = DocumentUtils.getLineViews(document, DocumentUtils.toLines(document, region));
+        } finally {
+            PHASE_LINE_VIEWS.end(sample);
+        }
+        sample = PHASE_EXPAND.begin();
+        try {
+            if (executor != null && source.size() >= parallelThreshold) {
+                TextLines results = normalizeParallel(source);
+                if (results != null) {
+                    return results;
+                }
+            }
+            return normalizeSequential(source);
+        } finally {
+            PHASE_EXPAND.end(sample);
+        }
+    }
+
+    private TextLines normalizeSequential(TextLines source) {
+        int indent = computeIndent(source, tabSize);
+        StringBuilder buf = new StringBuilder();
+        int[] bounds = new int[source.size() * 2];
+        for (int i = 0, n = source.size(); i < n; i++) {
+            bounds[i * 2] = buf.length();
+            expand(source.getText(i), source.getStart(i), source.getEnd(i), tabSize, indent, buf);
+            bounds[i * 2 + 1] = buf.length();
+        }
+        return new TextLines(buf.toString(), bounds);
+    }
+
+    private TextLines normalizeParallel(TextLines source) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        if (processors <= 1) {
+            return null;
+        }
+        int lineCount = source.size();
+        int chunkCount = Math.min(
+                processors * CHUNKS_PER_PROCESSOR,
+                (lineCount + MIN_CHUNK_LINES - 1) / MIN_CHUNK_LINES);
+        if (chunkCount <= 1) {
+            return null;
+        }
+        List<Chunk> chunks = new ArrayList<Chunk>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            int first = (int) ((long) lineCount * i / chunkCount);
+            int last = (int) ((long) lineCount * (i + 1) / chunkCount);
+            chunks.add(new Chunk(source, first, last, tabSize));
+        }
+        try {
+            List<Callable<Void>> analyzers = new ArrayList<Callable<Void>>(chunkCount);
+            for (final Chunk chunk : chunks) {
+                analyzers.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        chunk.analyze();
+                        return null;
+                    }
+                });
+            }
+            invokeAll(analyzers);
+
+            IndentAnalyzer total = new IndentAnalyzer(tabSize);
+            for (Chunk chunk : chunks) {
+                total.add(chunk.analyzer);
+            }
+            final int indent = total.getIndent();
+            int size = 0;
+            for (Chunk chunk : chunks) {
+                chunk.outputOffset = size;
+                size += chunk.width - indent * chunk.nonEmptyLines;
+            }
+
+            final char[] buffer = new char[size];
+            final int[] bounds = new int[lineCount * 2];
+            List<Callable<Void>> emitters = new ArrayList<Callable<Void>>(chunkCount);
+            for (final Chunk chunk : chunks) {
+                emitters.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        chunk.emit(indent, buffer, bounds);
+                        return null;
+                    }
+                });
+            }
+            invokeAll(emitters);
+            return new TextLines(new String(buffer), bounds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    private void invokeAll(List<Callable<Void>> tasks) throws InterruptedException {
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    /**
+     * Writes the normalized lines of the selection into the output.
+     * @param document the target document
+     * @param region the selection region
+     * @param output the destination
+     * @param lineBreak the line break sequence, which is appended after each line
+     * @throws BadLocationException if the region is not valid
+     * @throws IOException if failed to write lines into the output
+     */
+    public void normalize(
+            IDocument document,
+            IRegion region,
+            Appendable output,
+            String lineBreak) throws BadLocationException, IOException {
+        TextLines source = DocumentUtils.getLineViews(document, DocumentUtils.toLines(document, region));
+        int indent = computeIndent(source, tabSize);
+        for (int i = 0, n = source.size(); i < n; i++) {
+            expand(source.getText(i), source.getStart(i), source.getEnd(i), tabSize, indent, output);
+            output.append(lineBreak);
+        }
+    }
+
+    private static int computeIndent(TextLines lines, int tabSize) {
+        IndentAnalyzer analyzer = new IndentAnalyzer(tabSize);
+        for (int i = 0, n = lines.size(); i < n; i++) {
+            if (analyzer.add(lines.getText(i), lines.getStart(i), lines.getEnd(i)) == false) {
+                break;
+            }
+        }
+        return analyzer.getIndent();
+    }
+
+    static int getWidth(CharSequence text, int start, int end, int tabSize) {
+        int column = 0;
+        for (int i = start; i < end; i++) {
+            column = text.charAt(i) == '\t' ? column + tabSize - column % tabSize : column + 1;
+        }
+        return column;
+    }
+
+    /**
+     * Appends a line with expanding horizontal tabs.
+     * @param text the text
+     * @param start the line start offset (inclusive)
+     * @param end the line end offset (exclusive)
+     * @param tabSize the tab column size
+     * @param skip the number of leading columns to be skipped
+     * @param output the destination
+     * @throws IOException if failed to append the line
+     */
+    static void expand(
+            CharSequence text, int start, int end,
+            int tabSize, int skip,
+            Appendable output) throws IOException {
+        int column = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            int next = c == '\t' ? column + tabSize - column % tabSize : column + 1;
+            if (next > skip) {
+                if (c == '\t') {
+                    for (int j = Math.max(column, skip); j < next; j++) {
+                        output.append(' ');
+                    }
+                } else {
+                    output.append(c);
+                }
+            }
+            column = next;
+        }
+    }
+
+    static void expand(
+            CharSequence text, int start, int end,
+            int tabSize, int skip,
+            StringBuilder output) {
+        try {
+            expand(text, start, end, tabSize, skip, (Appendable) output);
+        } catch (IOException e) {
+            // never occur
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * A range of lines to be normalized in parallel.
+     */
+    private static final class Chunk {
+
+        private final TextLines source;
+
+        private final int first;
+
+        private final int last;
+
+        private final int tabSize;
+
+        final IndentAnalyzer analyzer;
+
+        int width;
+
+        int nonEmptyLines;
+
+        int outputOffset;
+
+        Chunk(TextLines source, int first, int last, int tabSize) {
+            this.source = source;
+            this.first = first;
+            this.last = last;
+            this.tabSize = tabSize;
+            this.analyzer = new IndentAnalyzer(tabSize);
+        }
+
+        void analyze() {
+            for (int i = first; i < last; i++) {
+                String text = source.getText(i);
+                int start = source.getStart(i);
+                int end = source.getEnd(i);
+                if (start < end) {
+                    analyzer.add(text, start, end);
+                    width += getWidth(text, start, end, tabSize);
+                    nonEmptyLines++;
+                }
+            }
+        }
+
+        void emit(int indent, char[] buffer, int[] bounds) {
+            CharBuffer output = CharBuffer.wrap(buffer);
+            output.position(outputOffset);
+            for (int i = first; i < last; i++) {
+                bounds[i * 2] = output.position();
+                try {
+                    expand(source.getText(i), source.getStart(i), source.getEnd(i), tabSize, indent, output);
+                } catch (IOException e) {
+                    // never occur
+                    throw new AssertionError(e);
+                }
+                bounds[i * 2 + 1] = output.position();
+            }
+        }
+    }
+}
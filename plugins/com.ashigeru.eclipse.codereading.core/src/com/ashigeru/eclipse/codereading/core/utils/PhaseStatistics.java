@@ -0,0 +1,333 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.codereading.core.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histograms of individual processing phases.
+ * Phases are measured only while tracing is enabled, and otherwise {@link #begin()} costs a single volatile read.
+ * Clients should measure a phase as following:
+<pre><code>
+PhaseStatistics.Sample sample = PHASE.begin();
+try {
+    ...
+} finally {
+    PHASE.end(sample);
+}
+</code></pre>
+ * The allocated bytes are counted only on the current thread, and only if the running VM supports it.
+ */
+public final class PhaseStatistics {
+
+    // bucket i holds the latencies in [2^(i-1), 2^i) nano-seconds
+    private static final int BUCKETS = 64;
+
+    private static final ConcurrentMap<String, PhaseStatistics> PHASES =
+        new ConcurrentHashMap<String, PhaseStatistics>();
+
+    private static volatile boolean enabled;
+
+    private final String name;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    private PhaseStatistics(String name) {
+        assert name != null;
+        this.name = name;
+    }
+
+    /**
+     * Returns the statistics of the phase.
+     * @param name the phase name
+     * @return the statistics, which is shared between the clients of the same phase
+     */
+    public static PhaseStatistics get(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name must not be null"); //$NON-NLS-1$
+        }
+        PhaseStatistics result = PHASES.get(name);
+        if (result == null) {
+            PhaseStatistics created = new PhaseStatistics(name);
+            result = PHASES.putIfAbsent(name, created);
+            if (result == null) {
+                result = created;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the statistics of all phases, ordered by their names.
+     * @return the statistics
+     */
+    public static List<PhaseStatistics> getAll() {
+        List<PhaseStatistics> results = new ArrayList<PhaseStatistics>(PHASES.values());
+        Collections.sort(results, new Comparator<PhaseStatistics>() {
+            @Override
+            public int compare(PhaseStatistics o1, PhaseStatistics o2) {
+                return o1.name.compareTo(o2.name);
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Returns whether phases are measured or not.
+     * @return {@code true} if they are measured, otherwise {@code false}
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets whether phases are measured or not.
+     * @param value {@code true} to measure phases, otherwise {@code false}
+     */
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    /**
+     * Returns the phase name.
+     * @return the phase name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Starts measuring this phase.
+     * @return the started sample, or {@code null} if tracing is disabled
+     * @see #end(Sample)
+     */
+    public Sample begin() {
+        if (enabled == false) {
+            return null;
+        }
+        return new Sample(System.nanoTime(), AllocationCounter.get());
+    }
+
+    /**
+     * Finishes measuring this phase.
+     * @param sample the sample which was returned from {@link #begin()}, may be {@code null}
+     */
+    public void end(Sample sample) {
+        if (sample == null) {
+            return;
+        }
+        long bytes = AllocationCounter.get();
+        long nanos = Math.max(System.nanoTime() - sample.nanos, 0);
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        if (bytes >= 0 && sample.bytes >= 0) {
+            allocatedBytes.addAndGet(Math.max(bytes - sample.bytes - AllocationCounter.OVERHEAD, 0));
+        }
+        while (true) {
+            long max = maxNanos.get();
+            if (nanos <= max || maxNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of measured samples.
+     * @return the number of samples
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the mean latency.
+     * @return the mean latency in nano-seconds, or {@code 0} if there are no samples
+     */
+    public long getMeanNanos() {
+        long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / n;
+    }
+
+    /**
+     * Returns the max latency.
+     * @return the max latency in nano-seconds
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Returns the upper bound of the latency percentile.
+     * @param percentile the percentile in {@code (0, 100]}
+     * @return the upper bound in nano-seconds, or {@code 0} if there are no samples
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in (0, 100]"); //$NON-NLS-1$
+        }
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long current = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            current += snapshot[i];
+            if (current >= rank && current > 0) {
+                return Math.min((1L << i) - 1, maxNanos.get());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the mean allocated bytes.
+     * @return the mean allocated bytes, or {@code 0} if there are no samples or it is not supported
+     */
+    public long getMeanAllocatedBytes() {
+        long n = count.get();
+        return n == 0 ? 0 : allocatedBytes.get() / n;
+    }
+
+    /**
+     * Discards the measured samples.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+        allocatedBytes.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return MessageFormat.format(
+                "{0}: count={1}, mean={2}us, p50<={3}us, p90<={4}us, p99<={5}us, max={6}us, alloc={7}B/op", //$NON-NLS-1$
+                name,
+                String.valueOf(getCount()),
+                toMicros(getMeanNanos()),
+                toMicros(getPercentileNanos(50)),
+                toMicros(getPercentileNanos(90)),
+                toMicros(getPercentileNanos(99)),
+                toMicros(getMaxNanos()),
+                String.valueOf(getMeanAllocatedBytes()));
+    }
+
+    private static String toMicros(long nanos) {
+        return String.valueOf(nanos / 1000);
+    }
+
+    /**
+     * A started sample of {@link PhaseStatistics}.
+     */
+    public static final class Sample {
+
+        final long nanos;
+
+        final long bytes;
+
+        Sample(long nanos, long bytes) {
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+    }
+
+    /*
+     * Reads com.sun.management.ThreadMXBean.getThreadAllocatedBytes(long) reflectively,
+     * because it is not a part of the standard API.
+     */
+    private static final class AllocationCounter {
+
+        private static final Object BEAN;
+
+        private static final Method METHOD;
+
+        static final long OVERHEAD;
+
+        static {
+            Object bean = null;
+            Method method = null;
+            try {
+                Class<?> type = Class.forName("com.sun.management.ThreadMXBean"); //$NON-NLS-1$
+                Object candidate = ManagementFactory.getThreadMXBean();
+                if (type.isInstance(candidate)) {
+                    Method supported = type.getMethod("isThreadAllocatedMemorySupported"); //$NON-NLS-1$
+                    Method enabledMethod = type.getMethod("isThreadAllocatedMemoryEnabled"); //$NON-NLS-1$
+                    if (Boolean.TRUE.equals(supported.invoke(candidate))
+                            && Boolean.TRUE.equals(enabledMethod.invoke(candidate))) {
+                        bean = candidate;
+                        method = type.getMethod("getThreadAllocatedBytes", long.class); //$NON-NLS-1$
+                    }
+                }
+            } catch (Exception e) {
+                // not supported
+                bean = null;
+                method = null;
+            }
+            BEAN = bean;
+            METHOD = method;
+            OVERHEAD = computeOverhead();
+        }
+
+        private static long computeOverhead() {
+            long first = get();
+            long second = get();
+            if (first < 0 || second < 0) {
+                return 0;
+            }
+            return Math.max(second - first, 0);
+        }
+
+        private AllocationCounter() {
+            return;
+        }
+
+        static long get() {
+            if (METHOD == null) {
+                return -1;
+            }
+            try {
+                return (Long) METHOD.invoke(BEAN, Thread.currentThread().getId());
+            } catch (Exception e) {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.codereading.core.utils;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.ILog;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+
+/**
+ * Writes statuses into {@link ILog} on a background thread.
+ * Statuses are kept in a bounded ring buffer, and the overflowed ones are dropped and counted.
+ * The duplicate statuses within the time window are coalesced into a single "repeated" record,
+ * which is written after the window has passed.
+ * After {@link #close()} is called, statuses are written synchronously.
+ */
+public final class StatusSink {
+
+    private final ILog log;
+
+    private final IStatus[] buffer;
+
+    private final long window;
+
+    private final Map<Key, Repeat> recent = new HashMap<Key, Repeat>();
+
+    private int head;
+
+    private int size;
+
+    private int dropped;
+
+    private String droppedPluginId;
+
+    private Thread drainer;
+
+    private boolean closed;
+
+    /**
+     * Creates a new instance.
+     * @param log the destination log
+     * @param capacity the max number of pending statuses
+     * @param window the time window to coalesce duplicate statuses in milliseconds
+     * @throws IllegalArgumentException if some parameters are not valid
+     */
+    public StatusSink(ILog log, int capacity, long window) {
+        if (log == null) {
+            throw new IllegalArgumentException("log must not be null"); //$NON-NLS-1$
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive"); //$NON-NLS-1$
+        }
+        if (window < 0) {
+            throw new IllegalArgumentException("window must not be negative"); //$NON-NLS-1$
+        }
+        this.log = log;
+        this.buffer = new IStatus[capacity];
+        this.window = window;
+    }
+
+    /**
+     * Adds a status to be written.
+     * This never blocks on the destination log unless this sink has been closed.
+     * @param status the status
+     */
+    public void log(IStatus status) {
+        if (status == null) {
+            throw new IllegalArgumentException("status must not be null"); //$NON-NLS-1$
+        }
+        synchronized (this) {
+            if (closed == false) {
+                offer(status, System.currentTimeMillis());
+                return;
+            }
+        }
+        write(status);
+    }
+
+    private void offer(IStatus status, long now) {
+        assert Thread.holdsLock(this);
+        Key key = new Key(status);
+        Repeat repeat = recent.get(key);
+        if (repeat != null) {
+            if (now - repeat.since < window) {
+                repeat.count++;
+                return;
+            }
+            // flushes the previous window before starting the new one
+            recent.remove(key);
+            if (repeat.count > 0) {
+                push(repeat.toStatus());
+            }
+        }
+        if (push(status)) {
+            recent.put(key, new Repeat(status, now));
+        }
+        if (drainer == null) {
+            drainer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            }, "Code Reading Status Logger"); //$NON-NLS-1$
+            drainer.setDaemon(true);
+            drainer.start();
+        }
+        notifyAll();
+    }
+
+    private boolean push(IStatus status) {
+        assert Thread.holdsLock(this);
+        if (size == buffer.length) {
+            if (dropped++ == 0) {
+                droppedPluginId = status.getPlugin();
+            }
+            return false;
+        }
+        buffer[(head + size) % buffer.length] = status;
+        size++;
+        return true;
+    }
+
+    private void drain() {
+        while (true) {
+            List<IStatus> statuses;
+            boolean last;
+            synchronized (this) {
+                while (closed == false && size == 0 && recent.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // continues until closed
+                    }
+                }
+                if (closed == false && size == 0) {
+                    try {
+                        wait(window);
+                    } catch (InterruptedException e) {
+                        // continues until closed
+                    }
+                }
+                last = closed;
+                statuses = take(last ? Long.MAX_VALUE : System.currentTimeMillis());
+            }
+            for (IStatus status : statuses) {
+                write(status);
+            }
+            if (last) {
+                return;
+            }
+        }
+    }
+
+    /*
+     * Takes the pending statuses, and the summaries of the windows which have passed.
+     */
+    private List<IStatus> take(long now) {
+        assert Thread.holdsLock(this);
+        List<IStatus> results = new ArrayList<IStatus>(size + 1);
+        while (size > 0) {
+            results.add(buffer[head]);
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+            size--;
+        }
+        for (Iterator<Repeat> iter = recent.values().iterator(); iter.hasNext();) {
+            Repeat repeat = iter.next();
+            if (now == Long.MAX_VALUE || now - repeat.since >= window) {
+                if (repeat.count > 0) {
+                    results.add(repeat.toStatus());
+                }
+                iter.remove();
+            }
+        }
+        if (dropped > 0) {
+            results.add(new Status(IStatus.WARNING, droppedPluginId, MessageFormat.format(
+                    "{0} log records were dropped",
+                    dropped)));
+            dropped = 0;
+            droppedPluginId = null;
+        }
+        return results;
+    }
+
+    private void write(IStatus status) {
+        try {
+            log.log(status);
+        } catch (RuntimeException e) {
+            // the destination log is broken: reports it as dropped together with the next records
+            synchronized (this) {
+                if (dropped++ == 0) {
+                    droppedPluginId = status.getPlugin();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes all pending statuses, and then makes the subsequent statuses be written synchronously.
+     * This blocks until the background thread is finished.
+     */
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            thread = drainer;
+            notifyAll();
+        }
+        if (thread != null) {
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<IStatus> rest;
+        synchronized (this) {
+            rest = take(Long.MAX_VALUE);
+        }
+        for (IStatus status : rest) {
+            write(status);
+        }
+    }
+
+    private static final class Key {
+
+        private final int severity;
+
+        private final String pluginId;
+
+        private final int code;
+
+        private final String message;
+
+        private final Class<?> exceptionClass;
+
+        Key(IStatus status) {
+            this.severity = status.getSeverity();
+            this.pluginId = status.getPlugin();
+            this.code = status.getCode();
+            this.message = status.getMessage();
+            Throwable exception = status.getException();
+            this.exceptionClass = exception == null ? null : exception.getClass();
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + severity;
+            result = prime * result + (pluginId == null ? 0 : pluginId.hashCode());
+            result = prime * result + code;
+            result = prime * result + (message == null ? 0 : message.hashCode());
+            result = prime * result + (exceptionClass == null ? 0 : exceptionClass.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return severity == other.severity
+                && code == other.code
+                && exceptionClass == other.exceptionClass
+                && (pluginId == null ? other.pluginId == null : pluginId.equals(other.pluginId))
+                && (message == null ? other.message == null : message.equals(other.message));
+        }
+    }
+
+    private static final class Repeat {
+
+        final IStatus status;
+
+        final long since;
+
+        int count;
+
+        Repeat(IStatus status, long since) {
+            this.status = status;
+            this.since = since;
+        }
+
+        IStatus toStatus() {
+            return new Status(status.getSeverity(), status.getPlugin(), status.getCode(), MessageFormat.format(
+                    "The previous message was repeated {0} more times: {1}",
+                    count,
+                    status.getMessage()), null);
+        }
+    }
+}
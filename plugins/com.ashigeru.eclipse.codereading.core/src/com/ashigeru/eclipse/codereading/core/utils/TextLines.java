@@ -0,0 +1,376 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.codereading.core.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list of lines which share text buffers.
+ * Each element is a lightweight view of the buffer, so that clients can scan or write lines without copying them.
+ * Usually all lines share a single buffer, and the lines joined by {@link #concat(List)} refer their original ones.
+ */
+public final class TextLines extends AbstractList<CharSequence> implements RandomAccess {
+
+    private final String[] texts;
+
+    private final int[] bounds;
+
+    private final int[] owners;
+
+    /**
+     * Creates a new instance.
+     * @param text the shared text buffer
+     * @param bounds the pairs of start (inclusive) and end (exclusive) offsets of individual lines
+     */
+    TextLines(String text, int[] bounds) {
+        this(new String[] { text }, bounds, null);
+    }
+
+    private TextLines(String[] texts, int[] bounds, int[] owners) {
+        assert texts != null;
+        assert bounds != null;
+        assert bounds.length % 2 == 0;
+        assert owners == null || owners.length * 2 == bounds.length;
+        this.texts = texts;
+        this.bounds = bounds;
+        this.owners = owners;
+    }
+
+    /**
+     * Creates a new instance which contains copies of the lines.
+     * @param lines the source lines
+     * @return the created instance
+     */
+    public static TextLines of(List<? extends CharSequence> lines) {
+        if (lines == null) {
+            throw new IllegalArgumentException("lines must not be null"); //$NON-NLS-1$
+        }
+        if (lines instanceof TextLines) {
+            return (TextLines) lines;
+        }
+        StringBuilder buf = new StringBuilder();
+        int[] bounds = new int[lines.size() * 2];
+        int index = 0;
+        for (CharSequence line : lines) {
+            bounds[index++] = buf.length();
+            buf.append(line);
+            bounds[index++] = buf.length();
+        }
+        return new TextLines(buf.toString(), bounds);
+    }
+
+    /**
+     * Creates a new instance which contains all lines of the sources in order.
+     * The result refers the text buffers of the sources, and does not copy their contents.
+     * @param sources the source lines
+     * @return the created instance
+     */
+    public static TextLines concat(List<TextLines> sources) {
+        if (sources == null) {
+            throw new IllegalArgumentException("sources must not be null"); //$NON-NLS-1$
+        }
+        if (sources.size() == 1) {
+            return sources.get(0);
+        }
+        List<String> texts = new ArrayList<String>();
+        int size = 0;
+        for (TextLines source : sources) {
+            size += source.size();
+        }
+        int[] bounds = new int[size * 2];
+        int[] owners = new int[size];
+        int index = 0;
+        for (TextLines source : sources) {
+            for (int i = 0, n = source.size(); i < n; i++) {
+                owners[index] = getOwner(texts, source.getText(i));
+                bounds[index * 2] = source.getStart(i);
+                bounds[index * 2 + 1] = source.getEnd(i);
+                index++;
+            }
+        }
+        if (texts.size() <= 1) {
+            return new TextLines(texts.isEmpty() ? "" : texts.get(0), bounds); //$NON-NLS-1$
+        }
+        return new TextLines(texts.toArray(new String[texts.size()]), bounds, owners);
+    }
+
+    private static int getOwner(List<String> texts, String text) {
+        // the most recent one is the most likely, and the buffers are only a few
+        for (int i = texts.size() - 1; i >= 0; i--) {
+            if (texts.get(i) == text) {
+                return i;
+            }
+        }
+        texts.add(text);
+        return texts.size() - 1;
+    }
+
+    @Override
+    public int size() {
+        return bounds.length / 2;
+    }
+
+    @Override
+    public CharSequence get(int index) {
+        checkIndex(index);
+        return new Line(getText(index), getStart(index), getEnd(index));
+    }
+
+    /**
+     * Returns a view of the range, which shares the text buffers with this.
+     * @param fromIndex the start line index (inclusive)
+     * @param toIndex the end line index (exclusive)
+     * @return the view
+     */
+    @Override
+    public TextLines subList(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || fromIndex > toIndex || toIndex > size()) {
+            throw new IndexOutOfBoundsException();
+        }
+        int[] results = Arrays.copyOfRange(bounds, fromIndex * 2, toIndex * 2);
+        if (owners == null) {
+            return new TextLines(texts, results, null);
+        }
+        return new TextLines(texts, results, Arrays.copyOfRange(owners, fromIndex, toIndex));
+    }
+
+    /**
+     * Returns the length of the line.
+     * @param index the line index
+     * @return the line length
+     */
+    public int getLength(int index) {
+        checkIndex(index);
+        return getEnd(index) - getStart(index);
+    }
+
+    /**
+     * Copies a range of characters in the line into the destination array.
+     * @param index the line index
+     * @param start the start offset in the line (inclusive)
+     * @param end the end offset in the line (exclusive)
+     * @param destination the destination array
+     * @param offset the start offset in the destination array
+     */
+    public void getChars(int index, int start, int end, char[] destination, int offset) {
+        checkIndex(index);
+        int base = getStart(index);
+        if (start < 0 || start > end || base + end > getEnd(index)) {
+            throw new IndexOutOfBoundsException();
+        }
+        getText(index).getChars(base + start, base + end, destination, offset);
+    }
+
+    /**
+     * Appends the line into the output without copying it.
+     * @param index the line index
+     * @param output the destination
+     * @throws IOException if failed to append the line
+     */
+    public void appendTo(int index, Appendable output) throws IOException {
+        checkIndex(index);
+        String text = getText(index);
+        int start = getStart(index);
+        int end = getEnd(index);
+        if (output instanceof Writer) {
+            ((Writer) output).write(text, start, end - start);
+        } else {
+            output.append(text, start, end);
+        }
+    }
+
+    /**
+     * Writes all lines into the output.
+     * @param output the destination
+     * @param lineBreak the line break sequence, which is appended after each line
+     * @throws IOException if failed to write lines
+     */
+    public void writeTo(Appendable output, String lineBreak) throws IOException {
+        for (int i = 0, n = size(); i < n; i++) {
+            appendTo(i, output);
+            output.append(lineBreak);
+        }
+    }
+
+    String getText(int index) {
+        return owners == null ? texts[0] : texts[owners[index]];
+    }
+
+    int getStart(int index) {
+        return bounds[index * 2];
+    }
+
+    int getEnd(int index) {
+        return bounds[index * 2 + 1];
+    }
+
+    /**
+     * Returns a view which drops the leading characters from each line.
+     * @param count the number of characters to drop
+     * @return the trimmed view
+     */
+    TextLines trim(int count) {
+        if (count == 0) {
+            return this;
+        }
+        int[] results = new int[bounds.length];
+        for (int i = 0; i < bounds.length; i += 2) {
+            results[i] = Math.min(bounds[i] + count, bounds[i + 1]);
+            results[i + 1] = bounds[i + 1];
+        }
+        return new TextLines(texts, results, owners);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+    }
+
+    /**
+     * Builds {@link TextLines} into a single text buffer.
+     * The builder always has a current line, which is initially empty.
+     */
+    public static final class Builder {
+
+        private final StringBuilder buffer = new StringBuilder();
+
+        private int[] bounds = new int[32];
+
+        private int count;
+
+        private int lineStart;
+
+        /**
+         * Appends characters into the current line.
+         * Line breaks in the characters are not interpreted.
+         * @param chars the characters
+         * @return this
+         */
+        public Builder append(CharSequence chars) {
+            buffer.append(chars);
+            return this;
+        }
+
+        /**
+         * Appends characters into the current line.
+         * Line breaks in the characters are not interpreted.
+         * @param chars the characters
+         * @param start the start offset (inclusive)
+         * @param end the end offset (exclusive)
+         * @return this
+         */
+        public Builder append(CharSequence chars, int start, int end) {
+            buffer.append(chars, start, end);
+            return this;
+        }
+
+        /**
+         * Appends a number into the current line.
+         * @param value the number
+         * @return this
+         */
+        public Builder append(int value) {
+            buffer.append(value);
+            return this;
+        }
+
+        /**
+         * Appends the line into the current line.
+         * @param lines the source lines
+         * @param index the line index
+         * @return this
+         */
+        public Builder append(TextLines lines, int index) {
+            lines.checkIndex(index);
+            buffer.append(lines.getText(index), lines.getStart(index), lines.getEnd(index));
+            return this;
+        }
+
+        /**
+         * Terminates the current line, and starts a new line.
+         * @return this
+         */
+        public Builder newLine() {
+            if (count * 2 == bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[count * 2] = lineStart;
+            bounds[count * 2 + 1] = buffer.length();
+            count++;
+            lineStart = buffer.length();
+            return this;
+        }
+
+        /**
+         * Returns the built lines, including the current line.
+         * @return the built lines
+         */
+        public TextLines build() {
+            int[] results = Arrays.copyOf(bounds, count * 2 + 2);
+            results[count * 2] = lineStart;
+            results[count * 2 + 1] = buffer.length();
+            return new TextLines(buffer.toString(), results);
+        }
+    }
+
+    private static final class Line implements CharSequence {
+
+        private final String text;
+
+        private final int start;
+
+        private final int end;
+
+        Line(String text, int start, int end) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length()) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return text.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            if (from < 0 || from > to || to > length()) {
+                throw new IndexOutOfBoundsException();
+            }
+            return new Line(text, start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            return text.substring(start, end);
+        }
+    }
+}
@@ -15,8 +15,16 @@
  */
 package com.ashigeru.eclipse.internal.codereading.core;
 
+import java.util.Hashtable;
+
 import org.eclipse.core.runtime.Plugin;
+import org.eclipse.osgi.service.debug.DebugOptions;
+import org.eclipse.osgi.service.debug.DebugOptionsListener;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+import com.ashigeru.eclipse.codereading.core.utils.PhaseStatistics;
+import com.ashigeru.eclipse.codereading.core.utils.StatusSink;
 
 /**
  * The activator class controls the plug-in life cycle.
@@ -33,20 +41,70 @@ public class Activator extends Plugin {
      */
     public static final String EXTENSION_PREFIX = PLUGIN_ID + '.';
 
+    /**
+     * The debug option which enables {@link PhaseStatistics}.
+     */
+    public static final String OPTION_LATENCY = PLUGIN_ID + "/debug/latency"; //$NON-NLS-1$
+
+    private static final String OPTION_DEBUG = PLUGIN_ID + "/debug"; //$NON-NLS-1$
+
+    private static final int STATUS_CAPACITY = 256;
+
+    private static final long STATUS_WINDOW = 5000;
+
     private static Activator plugin;
 
+    private StatusSink statusSink;
+
+    private ServiceRegistration<?> debugOptionsRegistration;
+
     @Override
     public void start(BundleContext context) throws Exception {
         super.start(context);
+        statusSink = new StatusSink(getLog(), STATUS_CAPACITY, STATUS_WINDOW);
         plugin = this;
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put(DebugOptions.LISTENER_SYMBOLICNAME, PLUGIN_ID);
+        debugOptionsRegistration = context.registerService(
+                DebugOptionsListener.class.getName(),
+                new DebugOptionsListener() {
+                    @Override
+                    public void optionsChanged(DebugOptions options) {
+                        boolean enabled = options.getBooleanOption(OPTION_DEBUG, false)
+                            && options.getBooleanOption(OPTION_LATENCY, false);
+                        if (enabled == false && PhaseStatistics.isEnabled()) {
+                            dumpStatistics();
+                        }
+                        PhaseStatistics.setEnabled(enabled);
+                    }
+                },
+                properties);
     }
 
     @Override
     public void stop(BundleContext context) throws Exception {
+        if (debugOptionsRegistration != null) {
+            debugOptionsRegistration.unregister();
+            debugOptionsRegistration = null;
+        }
+        if (PhaseStatistics.isEnabled()) {
+            PhaseStatistics.setEnabled(false);
+            dumpStatistics();
+        }
+        // the subsequent records are written synchronously
+        statusSink.close();
         plugin = null;
         super.stop(context);
     }
 
+    private static void dumpStatistics() {
+        for (PhaseStatistics phase : PhaseStatistics.getAll()) {
+            if (phase.getCount() > 0) {
+                LogUtil.debug("{0}", phase); //$NON-NLS-1$
+            }
+        }
+    }
+
     /**
      * Returns the shared instance.
      * @return the shared instance
@@ -54,4 +112,12 @@ public class Activator extends Plugin {
     public static Activator getDefault() {
         return plugin;
     }
+
+    /**
+     * Returns the status sink of this plug-in.
+     * @return the status sink
+     */
+    StatusSink getStatusSink() {
+        return statusSink;
+    }
 }
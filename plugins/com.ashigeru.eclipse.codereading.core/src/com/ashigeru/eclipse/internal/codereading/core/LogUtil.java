@@ -20,8 +20,11 @@ import java.text.MessageFormat;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 
+import com.ashigeru.eclipse.codereading.core.utils.StatusSink;
+
 /**
  * Utilities for logging.
+ * Log records are written asynchronously through {@link StatusSink}.
  */
 public class LogUtil {
 
@@ -93,7 +96,7 @@ public class LogUtil {
     }
 
     private static void log0(IStatus status) {
-        Activator.getDefault().getLog().log(status);
+        Activator.getDefault().getStatusSink().log(status);
     }
 
     private LogUtil() {
@@ -15,11 +15,31 @@
  */
 package com.ashigeru.eclipse.internal.codereading.ui;
 
+import java.io.File;
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.jface.dialogs.IDialogSettings;
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.util.IPropertyChangeListener;
+import org.eclipse.jface.util.PropertyChangeEvent;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
 
+import com.ashigeru.eclipse.codereading.core.utils.StatusSink;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.LogAppender;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.SegmentPeriod;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.SyncPolicy;
+import com.ashigeru.eclipse.internal.codereading.ui.preferences.PreferenceConstants;
+import com.ashigeru.eclipse.internal.codereading.ui.templates.LanguageResolver;
+import com.ashigeru.eclipse.internal.codereading.ui.templates.LogTemplate;
+
 /**
  * The activator class controls the plug-in life cycle.
  */
@@ -35,20 +55,88 @@ public class Activator extends AbstractUIPlugin {
      */
     public static final String EXTENSION_PREFIX = PLUGIN_ID + '.';
 
+    private static final String JOURNAL_DIRECTORY = "journal"; //$NON-NLS-1$
+
+    private static final int STATUS_CAPACITY = 256;
+
+    private static final long STATUS_WINDOW = 5000;
+
     private static Activator plugin;
 
+    private StatusSink statusSink;
+
+    private ExecutorService executor;
+
+    private LogAppender appender;
+
+    private IPropertyChangeListener appenderConfigurator;
+
+    private LogTemplate logTemplate;
+
+    private LanguageResolver languageResolver;
+
+    private IPropertyChangeListener templateInvalidator;
+
     @Override
     public void start(BundleContext context) throws Exception {
         super.start(context);
+        statusSink = new StatusSink(getLog(), STATUS_CAPACITY, STATUS_WINDOW);
         plugin = this;
+        if (LogAppender.hasJournal(getJournalDirectory())) {
+            // replays the log entries which were not written in the previous session
+            getLogAppender();
+        }
     }
 
     @Override
     public void stop(BundleContext context) throws Exception {
+        synchronized (this) {
+            if (appender != null) {
+                getPreferenceStore().removePropertyChangeListener(appenderConfigurator);
+                appender.close();
+                appender = null;
+                appenderConfigurator = null;
+            }
+            if (templateInvalidator != null) {
+                getPreferenceStore().removePropertyChangeListener(templateInvalidator);
+                templateInvalidator = null;
+                logTemplate = null;
+                languageResolver = null;
+            }
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
+        // the subsequent records are written synchronously
+        statusSink.close();
         plugin = null;
         super.stop(context);
     }
 
+    /**
+     * Returns the shared executor for CPU bound tasks.
+     * @return the shared executor
+     */
+    public synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final AtomicInteger counter = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, MessageFormat.format(
+                                    "Code Reading Worker-{0}", //$NON-NLS-1$
+                                    counter.incrementAndGet()));
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return executor;
+    }
+
     /**
      * Returns the shared instance.
      * @return the shared instance
@@ -57,6 +145,140 @@ public class Activator extends AbstractUIPlugin {
         return plugin;
     }
 
+    /**
+     * Returns the status sink of this plug-in.
+     * @return the status sink
+     */
+    StatusSink getStatusSink() {
+        return statusSink;
+    }
+
+    /**
+     * Returns the shared log appender.
+     * @return the shared log appender
+     */
+    public synchronized LogAppender getLogAppender() {
+        if (appender == null) {
+            appender = new LogAppender(getJournalDirectory());
+            configure(appender);
+            appenderConfigurator = new IPropertyChangeListener() {
+                @Override
+                public void propertyChange(PropertyChangeEvent event) {
+                    String property = event.getProperty();
+                    if (property.equals(PreferenceConstants.KEY_SYNC_POLICY)
+                            || property.equals(PreferenceConstants.KEY_SYNC_INTERVAL)
+                            || property.equals(PreferenceConstants.KEY_IDLE_TIMEOUT)
+                            || property.equals(PreferenceConstants.KEY_SEGMENT_SIZE)
+                            || property.equals(PreferenceConstants.KEY_SEGMENT_PERIOD)
+                            || property.equals(PreferenceConstants.KEY_DEDUPLICATE_SNIPPETS)) {
+                        configure(getLogAppender());
+                    }
+                }
+            };
+            getPreferenceStore().addPropertyChangeListener(appenderConfigurator);
+        }
+        return appender;
+    }
+
+    private File getJournalDirectory() {
+        return getStateLocation().append(JOURNAL_DIRECTORY).toFile();
+    }
+
+    private void configure(LogAppender target) {
+        IPreferenceStore store = getPreferenceStore();
+        SyncPolicy policy;
+        try {
+            policy = SyncPolicy.valueOf(store.getString(PreferenceConstants.KEY_SYNC_POLICY));
+        } catch (IllegalArgumentException e) {
+            LogUtil.log(IStatus.WARNING, e, MessageFormat.format(
+                    "Invalid sync policy: {0}",
+                    store.getString(PreferenceConstants.KEY_SYNC_POLICY)));
+            policy = SyncPolicy.valueOf(PreferenceConstants.DEFAULT_SYNC_POLICY);
+        }
+        target.configure(
+                policy,
+                store.getInt(PreferenceConstants.KEY_SYNC_INTERVAL),
+                store.getInt(PreferenceConstants.KEY_IDLE_TIMEOUT));
+        SegmentPeriod period;
+        try {
+            period = SegmentPeriod.valueOf(store.getString(PreferenceConstants.KEY_SEGMENT_PERIOD));
+        } catch (IllegalArgumentException e) {
+            LogUtil.log(IStatus.WARNING, e, MessageFormat.format(
+                    "Invalid segment period: {0}",
+                    store.getString(PreferenceConstants.KEY_SEGMENT_PERIOD)));
+            period = SegmentPeriod.valueOf(PreferenceConstants.DEFAULT_SEGMENT_PERIOD);
+        }
+        target.configureSegments(store.getInt(PreferenceConstants.KEY_SEGMENT_SIZE) * 1024L, period);
+        target.setDeduplicate(store.getBoolean(PreferenceConstants.KEY_DEDUPLICATE_SNIPPETS));
+    }
+
+    /**
+     * Returns the compiled log entry template.
+     * The template is compiled only once, and is recompiled after its preference is changed.
+     * @return the compiled template
+     */
+    public synchronized LogTemplate getLogTemplate() {
+        registerTemplateInvalidator();
+        if (logTemplate == null) {
+            String source = getPreferenceStore().getString(PreferenceConstants.KEY_LOG_TEMPLATE);
+            try {
+                logTemplate = LogTemplate.compile(source);
+            } catch (ParseException e) {
+                LogUtil.log(IStatus.WARNING, e, MessageFormat.format(
+                        "Invalid log template: {0}",
+                        e.getMessage()));
+                logTemplate = LogTemplate.getDefault();
+            }
+        }
+        return logTemplate;
+    }
+
+    /**
+     * Returns the fence language resolver.
+     * The resolver and its cache are discarded after its preference is changed.
+     * @return the language resolver
+     */
+    public synchronized LanguageResolver getLanguageResolver() {
+        registerTemplateInvalidator();
+        if (languageResolver == null) {
+            String mappings = getPreferenceStore().getString(PreferenceConstants.KEY_LANGUAGE_MAPPINGS);
+            try {
+                languageResolver = LanguageResolver.parse(mappings);
+            } catch (ParseException e) {
+                LogUtil.log(IStatus.WARNING, e, MessageFormat.format(
+                        "Invalid language mappings: {0}",
+                        e.getMessage()));
+                try {
+                    languageResolver = LanguageResolver.parse(LanguageResolver.DEFAULT_MAPPINGS);
+                } catch (ParseException inner) {
+                    throw new AssertionError(inner);
+                }
+            }
+        }
+        return languageResolver;
+    }
+
+    private void registerTemplateInvalidator() {
+        assert Thread.holdsLock(this);
+        if (templateInvalidator != null) {
+            return;
+        }
+        templateInvalidator = new IPropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent event) {
+                String property = event.getProperty();
+                synchronized (Activator.this) {
+                    if (property.equals(PreferenceConstants.KEY_LOG_TEMPLATE)) {
+                        logTemplate = null;
+                    } else if (property.equals(PreferenceConstants.KEY_LANGUAGE_MAPPINGS)) {
+                        languageResolver = null;
+                    }
+                }
+            }
+        };
+        getPreferenceStore().addPropertyChangeListener(templateInvalidator);
+    }
+
     /**
      * Returns the current standard display.
      * @return the current standard display
@@ -44,6 +44,8 @@ import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.Text;
 
 import com.ashigeru.eclipse.codereading.core.utils.DocumentUtils;
+import com.ashigeru.eclipse.codereading.core.utils.TextLines;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.LogSegments;
 
 /**
  * Dialog for input log contents.
@@ -56,6 +58,14 @@ public class LogEditDialog extends Dialog {
     private static final FieldDecoration DECORATION_ERROR =
             FieldDecorationRegistry.getDefault().getFieldDecoration(FieldDecorationRegistry.DEC_ERROR);
 
+    private static final FieldDecoration DECORATION_WARNING =
+            FieldDecorationRegistry.getDefault().getFieldDecoration(FieldDecorationRegistry.DEC_WARNING);
+
+    private static final FieldDecoration DECORATION_INFORMATION =
+            FieldDecorationRegistry.getDefault().getFieldDecoration(FieldDecorationRegistry.DEC_INFORMATION);
+
+    private static final String MESSAGE_REQUIRED = "Log file must be specified.";
+
     private final File defaultLogFile;
 
     private final IDocument document;
@@ -64,10 +74,19 @@ public class LogEditDialog extends Dialog {
 
     private ControlDecoration decorationLogFile;
 
+    private Button fieldSegmented;
+
+    private LogFileValidator validator;
+
+    // the validation result of the current log file path, or null if it is not validated yet
+    private LogFileValidator.Result validated;
+
     private TextViewer fieldLogContents;
 
     private File resultFile;
 
+    private boolean resultSegmented;
+
     /**
      * Creates a new instance.
      * @param parentShell the parent shell
@@ -77,7 +96,7 @@ public class LogEditDialog extends Dialog {
     public LogEditDialog(
             Shell parentShell,
             File defaultLogFile,
-            List<String> initialContents) {
+            List<? extends CharSequence> initialContents) {
         super(parentShell);
         this.defaultLogFile = defaultLogFile;
         this.document = linesToDocument(initialContents);
@@ -119,7 +138,13 @@ public class LogEditDialog extends Dialog {
             .applyTo(fieldLogFile);
 
         this.decorationLogFile = new ControlDecoration(fieldLogFile, SWT.LEFT | SWT.TOP);
-        decorationLogFile.setDescriptionText("Log file must be specified.");
+        decorationLogFile.setDescriptionText(MESSAGE_REQUIRED);
+        this.validator = new LogFileValidator(new LogFileValidator.Listener() {
+            @Override
+            public void validated(String path, LogFileValidator.Result result) {
+                onValidateLogFile(path, result);
+            }
+        });
 
         Button browse = new Button(pane, SWT.PUSH);
         browse.setText("Browse");
@@ -140,6 +165,16 @@ public class LogEditDialog extends Dialog {
                 onSelectLogFile();
             }
         });
+
+        this.fieldSegmented = new Button(pane, SWT.CHECK);
+        fieldSegmented.setText("Roll into compressed segments");
+        fieldSegmented.setToolTipText("Closed segments are compressed, and new entries are appended only to the active one.");
+        GridDataFactory.swtDefaults()
+            .span(2, 1)
+            .indent(FieldDecorationRegistry.getDefault().getMaximumDecorationWidth(), 0)
+            .align(SWT.FILL, SWT.CENTER)
+            .grab(true, false)
+            .applyTo(fieldSegmented);
     }
 
     private void createLogContentsSection(Composite pane) {
@@ -183,12 +218,49 @@ public class LogEditDialog extends Dialog {
 
     void onModifyLogFle() {
         String text = fieldLogFile.getText();
+
+        // the dialog cannot be completed until the path is validated in background
+        validated = null;
+        setCompleted(false);
         if (text.trim().isEmpty()) {
-            decorationLogFile.setImage(DECORATION_ERROR.getImage());
-            setCompleted(false);
+            setDecoration(DECORATION_ERROR, MESSAGE_REQUIRED);
         } else {
-            decorationLogFile.setImage(DECORATION_REQUIRED.getImage());
-            setCompleted(true);
+            setDecoration(DECORATION_REQUIRED, MESSAGE_REQUIRED);
+            validator.validate(text);
+        }
+    }
+
+    void onValidateLogFile(String path, LogFileValidator.Result result) {
+        if (fieldLogFile.isDisposed() || path.equals(fieldLogFile.getText()) == false) {
+            return;
+        }
+        validated = result;
+        updateSegmented(result.segmented);
+        if (result.error != null) {
+            setDecoration(DECORATION_ERROR, result.error);
+        } else if (result.warning != null) {
+            setDecoration(DECORATION_WARNING, result.warning);
+        } else if (result.exists == false) {
+            setDecoration(DECORATION_INFORMATION, "Log file will be created.");
+        } else {
+            setDecoration(DECORATION_REQUIRED, MESSAGE_REQUIRED);
+        }
+        setCompleted(result.error == null);
+    }
+
+    private void setDecoration(FieldDecoration decoration, String description) {
+        decorationLogFile.setImage(decoration.getImage());
+        decorationLogFile.setDescriptionText(description);
+    }
+
+    private void updateSegmented(boolean segmented) {
+        if (segmented) {
+            // segmented log files cannot be merged again
+            fieldSegmented.setSelection(true);
+            fieldSegmented.setEnabled(false);
+        } else if (fieldSegmented.isEnabled() == false) {
+            fieldSegmented.setSelection(false);
+            fieldSegmented.setEnabled(true);
         }
     }
 
@@ -202,15 +274,18 @@ public class LogEditDialog extends Dialog {
     @Override
     protected void createButtonsForButtonBar(Composite parent) {
         super.createButtonsForButtonBar(parent);
-        setCompleted(fieldLogFile.getText().isEmpty() == false);
-        decorationLogFile.setImage(DECORATION_REQUIRED.getImage());
+        onModifyLogFle();
         fieldLogContents.getTextWidget().setFocus();
     }
 
     @Override
     protected void okPressed() {
+        if (validated == null || validated.error != null) {
+            return;
+        }
         this.resultFile = new File(fieldLogFile.getText());
-        if (resultFile.exists() == false) {
+        this.resultSegmented = fieldSegmented.getSelection();
+        if (validated.exists == false) {
             boolean create = MessageDialog.openConfirm(
                     getShell(),
                     "New Log File",
@@ -223,10 +298,10 @@ public class LogEditDialog extends Dialog {
     }
 
     /**
-     * Returns the contents of
-     * @return the resultContents
+     * Returns the contents of the log entry.
+     * @return the log contents
      */
-    public List<String> getResultContents() {
+    public TextLines getResultContents() {
         return documentToLines(document);
     }
 
@@ -238,6 +313,15 @@ public class LogEditDialog extends Dialog {
         return resultFile;
     }
 
+    /**
+     * Returns whether the target log file should be segmented.
+     * @return {@code true} if it should be segmented, otherwise {@code false}
+     * @see LogSegments
+     */
+    public boolean isResultSegmented() {
+        return resultSegmented;
+    }
+
     @Override
     protected boolean isResizable() {
         return true;
@@ -249,19 +333,20 @@ public class LogEditDialog extends Dialog {
         newShell.setText("Code Reading");
     }
 
-    private List<String> documentToLines(IDocument doc) {
+    private TextLines documentToLines(IDocument doc) {
         try {
-            return DocumentUtils.getLines(doc, new Region(0, doc.getLength()));
+            return DocumentUtils.getLineViews(doc, new Region(0, doc.getLength()));
         } catch (BadLocationException e) {
             throw new IllegalStateException(e);
         }
     }
 
-    private static IDocument linesToDocument(List<String> lines) {
+    private static IDocument linesToDocument(List<? extends CharSequence> lines) {
+        String lineBreak = String.format("%n"); //$NON-NLS-1$
         StringBuilder buf = new StringBuilder();
         for (int i = 0, n = lines.size(); i < n; i++) {
             if (i != 0) {
-                buf.append(String.format("%n")); //$NON-NLS-1$
+                buf.append(lineBreak);
             }
             buf.append(lines.get(i));
         }
@@ -278,6 +363,9 @@ public class LogEditDialog extends Dialog {
     }
 
     private void dispose() {
+        if (validator != null) {
+            validator.dispose();
+        }
         if (decorationLogFile != null) {
             decorationLogFile.dispose();
         }
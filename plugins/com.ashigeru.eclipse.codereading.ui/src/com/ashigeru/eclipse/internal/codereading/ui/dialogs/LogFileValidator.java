@@ -0,0 +1,203 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.dialogs;
+
+import java.io.File;
+import java.text.MessageFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import com.ashigeru.eclipse.internal.codereading.ui.Activator;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.LogSegments;
+
+/**
+ * Validates log file paths in background.
+ * File systems may be slow (e.g. network drives), so that the paths are never probed on the UI thread.
+ * Each request is debounced, and the recent probe results are shared for a short time.
+ */
+final class LogFileValidator {
+
+    private static final long DEBOUNCE_DELAY = 150;
+
+    private static final long CACHE_TTL = 2000;
+
+    private static final int CACHE_SIZE = 64;
+
+    private static final long MINIMUM_FREE_SPACE = 1024 * 1024;
+
+    private static final Map<File, Result> CACHE = new LinkedHashMap<File, Result>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, Result> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final Listener listener;
+
+    private final Job job;
+
+    private volatile String pending;
+
+    private volatile boolean disposed;
+
+    /**
+     * Creates a new instance.
+     * @param listener the listener which receives the results on the UI thread
+     */
+    LogFileValidator(Listener listener) {
+        assert listener != null;
+        this.listener = listener;
+        this.job = new Job("Validating Log File") {
+            @Override
+            protected IStatus run(IProgressMonitor monitor) {
+                String path = pending;
+                if (path != null) {
+                    publish(path, probe(new File(path)));
+                }
+                return Status.OK_STATUS;
+            }
+        };
+        job.setSystem(true);
+    }
+
+    /**
+     * Requests to validate the path.
+     * The former requests which have not been started yet are discarded.
+     * @param path the log file path
+     */
+    void validate(String path) {
+        assert path != null;
+        pending = path;
+        job.cancel();
+        job.schedule(DEBOUNCE_DELAY);
+    }
+
+    /**
+     * Cancels the pending requests, and never notifies the results after this.
+     */
+    void dispose() {
+        disposed = true;
+        job.cancel();
+    }
+
+    private void publish(final String path, final Result result) {
+        if (disposed) {
+            return;
+        }
+        Activator.getDisplay().asyncExec(new Runnable() {
+            @Override
+            public void run() {
+                if (disposed == false) {
+                    listener.validated(path, result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Probes the log file, or returns the recent result of it.
+     * @param file the log file
+     * @return the probe result
+     */
+    static Result probe(File file) {
+        long now = System.currentTimeMillis();
+        synchronized (CACHE) {
+            Result cached = CACHE.get(file);
+            if (cached != null && now - cached.timestamp < CACHE_TTL) {
+                return cached;
+            }
+        }
+        Result result = probe0(file, now);
+        synchronized (CACHE) {
+            CACHE.put(file, result);
+        }
+        return result;
+    }
+
+    private static Result probe0(File file, long timestamp) {
+        File target = file.getAbsoluteFile();
+        if (target.isDirectory()) {
+            return new Result(timestamp, true, false, "Log file must not be a directory.", null);
+        }
+        boolean exists = target.isFile();
+        boolean segmented = LogSegments.isSegmented(target);
+        if (exists && target.canWrite() == false) {
+            return new Result(timestamp, exists, segmented, "Log file is not writable.", null);
+        }
+        // the nearest existing directory, where the missing directories will be created
+        File directory = target.getParentFile();
+        while (directory != null && directory.exists() == false) {
+            directory = directory.getParentFile();
+        }
+        if (directory == null || directory.isDirectory() == false || directory.canWrite() == false) {
+            return new Result(timestamp, exists, segmented, MessageFormat.format(
+                    "Directory for log file cannot be created in: {0}",
+                    directory == null ? target : directory), null);
+        }
+        long space = directory.getUsableSpace();
+        if (space < MINIMUM_FREE_SPACE) {
+            return new Result(timestamp, exists, segmented, null, MessageFormat.format(
+                    "Only {0} KB left on the device.",
+                    space / 1024));
+        }
+        return new Result(timestamp, exists, segmented, null, null);
+    }
+
+    /**
+     * Receives validation results.
+     */
+    interface Listener {
+
+        /**
+         * Notified when a log file path was validated.
+         * @param path the validated path
+         * @param result the validation result
+         */
+        void validated(String path, Result result);
+    }
+
+    /**
+     * Validation result of a log file.
+     */
+    static final class Result {
+
+        final long timestamp;
+
+        final boolean exists;
+
+        final boolean segmented;
+
+        final String error;
+
+        final String warning;
+
+        Result(long timestamp, boolean exists, boolean segmented, String error, String warning) {
+            this.timestamp = timestamp;
+            this.exists = exists;
+            this.segmented = segmented;
+            this.error = error;
+            this.warning = warning;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.handlers;
+
+import java.io.File;
+import java.net.URI;
+
+import org.eclipse.core.expressions.PropertyTester;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.ui.IEditorInput;
+import org.eclipse.ui.IPathEditorInput;
+import org.eclipse.ui.IURIEditorInput;
+
+import com.ashigeru.eclipse.internal.codereading.ui.logs.LogIndex;
+
+/**
+ * Tests whether editor inputs are log files, that is, they have their log index.
+ */
+public class LogFilePropertyTester extends PropertyTester {
+
+    private static final String PROPERTY_LOG_FILE = "logFile"; //$NON-NLS-1$
+
+    @Override
+    public boolean test(Object receiver, String property, Object[] args, Object expectedValue) {
+        if (PROPERTY_LOG_FILE.equals(property) && receiver instanceof IEditorInput) {
+            File file = getFile((IEditorInput) receiver);
+            return file != null && LogIndex.getIndexFile(file).isFile();
+        }
+        return false;
+    }
+
+    /**
+     * Returns the local file of the editor input.
+     * @param input the editor input
+     * @return the local file, or {@code null} if the input is not a local file
+     */
+    static File getFile(IEditorInput input) {
+        IFile file = (IFile) input.getAdapter(IFile.class);
+        if (file != null) {
+            IPath location = file.getLocation();
+            return location == null ? null : location.toFile();
+        }
+        if (input instanceof IPathEditorInput) {
+            return ((IPathEditorInput) input).getPath().toFile();
+        }
+        if (input instanceof IURIEditorInput) {
+            URI uri = ((IURIEditorInput) input).getURI();
+            if (uri != null && "file".equals(uri.getScheme())) { //$NON-NLS-1$
+                return new File(uri);
+            }
+        }
+        return null;
+    }
+}
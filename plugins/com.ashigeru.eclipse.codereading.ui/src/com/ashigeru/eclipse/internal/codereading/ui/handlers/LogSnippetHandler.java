@@ -15,30 +15,13 @@
  */
 package com.ashigeru.eclipse.internal.codereading.ui.handlers;
 
-import java.io.BufferedWriter;
-import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.nio.charset.Charset;
-import java.text.MessageFormat;
-import java.util.ArrayList;
-import java.util.List;
 
 import org.eclipse.core.commands.AbstractHandler;
 import org.eclipse.core.commands.ExecutionEvent;
 import org.eclipse.core.commands.ExecutionException;
-import org.eclipse.core.resources.IFile;
-import org.eclipse.core.resources.IProject;
 import org.eclipse.core.runtime.IPath;
-import org.eclipse.core.runtime.IStatus;
-import org.eclipse.core.runtime.Path;
 import org.eclipse.jface.dialogs.IDialogSettings;
-import org.eclipse.jface.dialogs.MessageDialog;
-import org.eclipse.jface.preference.IPreferenceStore;
-import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.ITextSelection;
@@ -46,27 +29,36 @@ import org.eclipse.jface.text.Region;
 import org.eclipse.jface.viewers.ISelection;
 import org.eclipse.jface.viewers.ISelectionProvider;
 import org.eclipse.jface.window.Window;
-import org.eclipse.ui.IEditorInput;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.Shell;
 import org.eclipse.ui.IEditorPart;
-import org.eclipse.ui.editors.text.EditorsUI;
 import org.eclipse.ui.handlers.HandlerUtil;
-import org.eclipse.ui.part.AbstractMultiEditor;
-import org.eclipse.ui.part.MultiPageEditorPart;
-import org.eclipse.ui.texteditor.AbstractDecoratedTextEditorPreferenceConstants;
-import org.eclipse.ui.texteditor.IDocumentProvider;
-import org.eclipse.ui.texteditor.ITextEditor;
 
-import com.ashigeru.eclipse.codereading.core.utils.DocumentUtils;
+import com.ashigeru.eclipse.codereading.core.utils.PhaseStatistics;
+import com.ashigeru.eclipse.codereading.core.utils.TextLines;
 import com.ashigeru.eclipse.internal.codereading.ui.Activator;
-import com.ashigeru.eclipse.internal.codereading.ui.LogUtil;
 import com.ashigeru.eclipse.internal.codereading.ui.dialogs.LogEditDialog;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.LogAppender;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.LogEntry;
 
 /**
  * Appends source code snippet into log.
  */
 public class LogSnippetHandler extends AbstractHandler {
 
-    static final String DIALOG_KEY_LOG_FILE = "logfile"; //$NON-NLS-1$
+    /**
+     * The dialog settings key of the last log file.
+     */
+    public static final String DIALOG_KEY_LOG_FILE = "logfile"; //$NON-NLS-1$
+
+    // measures each phase except while the dialog waits for the user
+    private static final PhaseStatistics PHASE_PREPARE = PhaseStatistics.get("ui/snippet/prepare"); //$NON-NLS-1$
+
+    private static final PhaseStatistics PHASE_DIALOG = PhaseStatistics.get("ui/snippet/dialog"); //$NON-NLS-1$
+
+    private static final PhaseStatistics PHASE_ENQUEUE = PhaseStatistics.get("ui/snippet/enqueue"); //$NON-NLS-1$
 
     @Override
     public Object execute(ExecutionEvent event) throws ExecutionException {
@@ -74,32 +66,79 @@ public class LogSnippetHandler extends AbstractHandler {
         if (editor == null) {
             return null;
         }
-        File lastLogFile = loadLogFile();
-        List<String> template = getTemplate(editor);
-        if (template == null) {
-            return null;
+        PhaseStatistics.Sample sample = PHASE_PREPARE.begin();
+        Snippet snippet;
+        SnippetTemplate template;
+        TextLines contents;
+        try {
+            IPath path = Snippet.getPath(editor);
+            IDocument document = Snippet.getDocument(editor);
+            IRegion region = getRegion(editor);
+            snippet = new Snippet(Snippet.getFile(editor), path, document, region);
+            template = new SnippetTemplate();
+            contents = template.build(snippet);
+        } finally {
+            PHASE_PREPARE.end(sample);
         }
+        log(HandlerUtil.getActiveShellChecked(event), template, contents, snippet);
+        return null;
+    }
 
-        LogEditDialog dialog = new LogEditDialog(HandlerUtil.getActiveShellChecked(event), lastLogFile, template);
+    /**
+     * Edits the log template, and then appends it into the log file.
+     * @param shell the parent shell
+     * @param template the template builder
+     * @param contents the built template contents
+     * @param head the snippet which identifies the log entry
+     */
+    static void log(
+            Shell shell,
+            SnippetTemplate template,
+            TextLines contents,
+            Snippet head) {
+        LogEditDialog dialog = createDialog(shell, contents);
         if (dialog.open() != Window.OK) {
-            return null;
+            return;
         }
 
-        File resultFile = dialog.getResultFile();
-        List<String> resultContents = dialog.getResultContents();
+        PhaseStatistics.Sample sample = PHASE_ENQUEUE.begin();
         try {
-            appendLog(resultFile, resultContents);
-        } catch (IOException e) {
-            IStatus status = LogUtil.log(IStatus.ERROR, e, MessageFormat.format(
-                    "Failed to append to log file: {0}",
-                    resultFile));
-            MessageDialog.openError(
-                    HandlerUtil.getActiveShellChecked(event),
-                    "Error",
-                    status.getMessage());
+            File resultFile = dialog.getResultFile();
+            LogAppender appender = Activator.getDefault().getLogAppender();
+            if (dialog.isResultSegmented()) {
+                appender.enableSegments(resultFile);
+            }
+            TextLines resultContents = template.expand(dialog.getResultContents());
+            IPath path = head.getPath();
+            appender.append(new LogEntry(
+                    resultFile,
+                    resultContents,
+                    path == null ? null : path.toPortableString(),
+                    head.getLineNumber(),
+                    System.currentTimeMillis()));
+            saveLogFile(resultFile);
+        } finally {
+            PHASE_ENQUEUE.end(sample);
+        }
+    }
+
+    private static LogEditDialog createDialog(Shell shell, TextLines contents) {
+        assert shell != null;
+        assert contents != null;
+        final PhaseStatistics.Sample sample = PHASE_DIALOG.begin();
+        LogEditDialog dialog = new LogEditDialog(shell, loadLogFile(), contents);
+        dialog.create();
+        if (sample != null) {
+            // the phase ends when the dialog is shown, and then the user takes over
+            dialog.getShell().addListener(SWT.Show, new Listener() {
+                @Override
+                public void handleEvent(Event event) {
+                    event.widget.removeListener(SWT.Show, this);
+                    PHASE_DIALOG.end(sample);
+                }
+            });
         }
-        saveLogFile(resultFile);
-        return null;
+        return dialog;
     }
 
     private IEditorPart getEditor(ExecutionEvent event) {
@@ -107,84 +146,12 @@ public class LogSnippetHandler extends AbstractHandler {
         return HandlerUtil.getActiveEditor(event);
     }
 
-    private List<String> getTemplate(IEditorPart editor) {
-        assert editor != null;
-        IPath path = getPath(editor);
-        IDocument document = getDocument(editor);
-        IRegion region = getRegion(editor);
-        String location = getLocation(path, document, region);
-        List<String> lines = getContents(document, region);
-        String language = getLanguageKind(path, document, region);
-
-        // FIXME meta-template
-        List<String> results = new ArrayList<String>();
-        results.add(""); //$NON-NLS-1$
-        if (location != null || lines != null) {
-            results.add(""); //$NON-NLS-1$
-            if (language == null) {
-                results.add("```"); //$NON-NLS-1$
-            } else {
-                results.add(String.format("```%s", language)); //$NON-NLS-1$
-            }
-            if (location != null) {
-                results.add(String.format("// %s", location)); //$NON-NLS-1$
-            }
-            if (lines != null) {
-                results.addAll(lines);
-            }
-            results.add("```"); //$NON-NLS-1$
-            results.add(""); //$NON-NLS-1$
-        }
-        results.add("********"); //$NON-NLS-1$
-        return results;
-    }
-
-    private IPath getPath(IEditorPart editor) {
-        assert editor != null;
-        IEditorInput input = editor.getEditorInput();
-        IFile file = (IFile) input.getAdapter(IFile.class);
-        if (file != null) {
-            IProject project = file.getProject();
-            if (project != null) {
-                return Path.fromPortableString(project.getName()).append(file.getProjectRelativePath());
-            } else {
-                return file.getFullPath();
-            }
-        }
-        IPath path = (IPath) input.getAdapter(IPath.class);
-        if (path != null) {
-            return path;
-        }
-        String name = input.getName();
-        if (name != null) {
-            return Path.fromPortableString(name);
-        }
-        return null;
-    }
-
-    private IDocument getDocument(IEditorPart editor) {
-        assert editor != null;
-        if (editor instanceof ITextEditor) {
-            IDocumentProvider provider = ((ITextEditor) editor).getDocumentProvider();
-            if (provider != null) {
-                return provider.getDocument(editor.getEditorInput());
-            }
-        } else if (editor instanceof MultiPageEditorPart) {
-            IEditorPart[] children = ((MultiPageEditorPart) editor).findEditors(editor.getEditorInput());
-            for (IEditorPart child : children) {
-                IDocument document = getDocument(child);
-                if (document != null) {
-                    return document;
-                }
-            }
-        } else if (editor instanceof AbstractMultiEditor) {
-            IEditorPart active = ((AbstractMultiEditor) editor).getActiveEditor();
-            return getDocument(active);
-        }
-        return null;
-    }
-
-    private IRegion getRegion(IEditorPart editor) {
+    /**
+     * Returns the selected region in the editor.
+     * @param editor the target editor
+     * @return the selected region, or {@code null} if it is not available
+     */
+    static IRegion getRegion(IEditorPart editor) {
         assert editor != null;
         ISelectionProvider provider = editor.getSite().getSelectionProvider();
         if (provider != null) {
@@ -201,77 +168,12 @@ public class LogSnippetHandler extends AbstractHandler {
         return null;
     }
 
-    private String getLocation(IPath path, IDocument document, IRegion region) {
-        if (path == null) {
-            return null;
-        }
-        if (document != null && region != null) {
-            int lineNumber = getLineNumber(document, region);
-            if (lineNumber >= 0) {
-                return String.format("%s:L%d", path.toPortableString(), lineNumber + 1); //$NON-NLS-1$
-            }
-        }
-        return path.toPortableString();
-    }
-
-    private int getLineNumber(IDocument document, IRegion region) {
-        assert document != null;
-        assert region != null;
-        try {
-            return document.getLineOfOffset(region.getOffset());
-        } catch (BadLocationException e) {
-            LogUtil.log(IStatus.ERROR, e, MessageFormat.format(
-                    "Failed to compute line number: {0}",
-                    region));
-            return -1;
-        }
-    }
-
     /**
-     * Infers programming language kind of the target.
-     * @param path the target path
-     * @param document the target document
-     * @param region the selected region
-     * @return the programming language kind, or {@code null} if it is not inferred
+     * Returns the last log file.
+     * @return the last log file, or {@code null} if it has not been chosen yet
      */
-    private String getLanguageKind(IPath path, IDocument document, IRegion region) {
-        if (path == null) {
-            return null;
-        }
-        String extension = path.getFileExtension();
-        if (extension != null) {
-            return extension.toLowerCase();
-        }
-        return null;
-    }
-
-    private List<String> getContents(IDocument document, IRegion region) {
-        if (document == null || region == null) {
-            return null;
-        }
-        int tabSize = getTabSize();
-        try {
-            IRegion block = DocumentUtils.toLines(document, region);
-            List<String> lines = DocumentUtils.getLines(document, block);
-            lines = DocumentUtils.extractHorizontalTabs(lines, tabSize);
-            lines =  DocumentUtils.trimLeadingWhitespaces(lines);
-            return lines;
-        } catch (BadLocationException e) {
-            LogUtil.log(IStatus.ERROR, e, MessageFormat.format(
-                    "Failed to obtain line contents: {0}",
-                    region));
-            return null;
-        }
-    }
-
-    private int getTabSize() {
-        IPreferenceStore prefs = EditorsUI.getPreferenceStore();
-        int value = prefs.getInt(AbstractDecoratedTextEditorPreferenceConstants.EDITOR_TAB_WIDTH);
-        return value;
-    }
-
-    private File loadLogFile() {
-        IDialogSettings settings = Activator.getDialogSettings(getClass().getSimpleName());
+    static File loadLogFile() {
+        IDialogSettings settings = Activator.getDialogSettings(LogSnippetHandler.class.getSimpleName());
         String value = settings.get(DIALOG_KEY_LOG_FILE);
         if (value == null) {
             return null;
@@ -279,48 +181,10 @@ public class LogSnippetHandler extends AbstractHandler {
         return new File(value);
     }
 
-    private void saveLogFile(File file) {
-        IDialogSettings settings = Activator.getDialogSettings(getClass().getSimpleName());
+    private static void saveLogFile(File file) {
+        IDialogSettings settings = Activator.getDialogSettings(LogSnippetHandler.class.getSimpleName());
         if (file != null) {
             settings.put(DIALOG_KEY_LOG_FILE, file.getPath());
         }
     }
-
-    private void appendLog(File file, List<String> lines) throws IOException {
-        String lineBreak = getLogLineBreak();
-
-        // FIXME out of UI thread
-        Appendable appendable = openLogFile(file);
-        try {
-            for (String line : lines) {
-                appendable.append(line);
-                appendable.append(lineBreak);
-            }
-        } finally {
-            if (appendable instanceof Closeable) {
-                ((Closeable) appendable).close();
-            }
-        }
-    }
-
-    private Charset getLogFileEncoding() {
-        // FIXME make it configurable
-        return Charset.forName("UTF-8"); //$NON-NLS-1$
-    }
-
-    private String getLogLineBreak() {
-        // FIXME make it configurable
-        return String.format("%n"); //$NON-NLS-1$
-    }
-
-    private Writer openLogFile(File file) throws IOException {
-        Charset encoding = getLogFileEncoding();
-        File parent = file.getParentFile();
-        if (parent.mkdirs() == false && parent.isDirectory() == false) {
-            throw new IOException(MessageFormat.format(
-                    "Failed to create directory for create log file: {0}",
-                    parent));
-        }
-        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), encoding));
-    }
 }
@@ -0,0 +1,338 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.handlers;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.core.filebuffers.FileBuffers;
+import org.eclipse.core.filebuffers.ITextFileBuffer;
+import org.eclipse.core.filebuffers.ITextFileBufferManager;
+import org.eclipse.core.filebuffers.LocationKind;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IBlockTextSelection;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.ITextSelection;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.Region;
+import org.eclipse.jface.text.source.IAnnotationModel;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.jface.viewers.ISelectionProvider;
+import org.eclipse.search.ui.ISearchResultPage;
+import org.eclipse.search.ui.ISearchResultViewPart;
+import org.eclipse.search.ui.text.AbstractTextSearchResult;
+import org.eclipse.search.ui.text.AbstractTextSearchViewPage;
+import org.eclipse.search.ui.text.IFileMatchAdapter;
+import org.eclipse.search.ui.text.Match;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.IWorkbenchPart;
+import org.eclipse.ui.handlers.HandlerUtil;
+import org.eclipse.ui.texteditor.IDocumentProvider;
+import org.eclipse.ui.texteditor.ITextEditor;
+import org.eclipse.ui.texteditor.MarkerAnnotation;
+
+import com.ashigeru.eclipse.codereading.core.utils.TextLines;
+import com.ashigeru.eclipse.internal.codereading.ui.LogUtil;
+
+/**
+ * Appends many source code snippets into log at once.
+ * The snippets are collected from one of the following, and are edited in a single dialog:
+ * <ul>
+ * <li> all lines which carry the markers of {@link #PARAMETER_MARKER_TYPE} in the active editor </li>
+ * <li> all matches in the active search result page </li>
+ * <li> the block selection in the active editor </li>
+ * </ul>
+ */
+public class LogSnippetsHandler extends AbstractHandler {
+
+    /**
+     * The command parameter ID of the target marker type.
+     */
+    public static final String PARAMETER_MARKER_TYPE = "com.ashigeru.eclipse.codereading.markerType"; //$NON-NLS-1$
+
+    private static final String TITLE = "Log Code Snippets";
+
+    @Override
+    public Object execute(ExecutionEvent event) throws ExecutionException {
+        Shell shell = HandlerUtil.getActiveShellChecked(event);
+        IWorkbenchPart part = HandlerUtil.getActivePart(event);
+        String markerType = event.getParameter(PARAMETER_MARKER_TYPE);
+        List<IFile> connected = new ArrayList<IFile>();
+        try {
+            List<Snippet> snippets;
+            if (part instanceof ISearchResultViewPart) {
+                snippets = collectMatches((ISearchResultViewPart) part, connected);
+            } else if (part instanceof IEditorPart) {
+                IEditorPart editor = (IEditorPart) part;
+                if (markerType != null) {
+                    snippets = collectMarkers(editor, markerType);
+                } else {
+                    snippets = collectSelections(editor);
+                }
+            } else {
+                return null;
+            }
+            if (snippets.isEmpty()) {
+                MessageDialog.openInformation(shell, TITLE, "There are no snippets to log.");
+                return null;
+            }
+            SnippetTemplate template = new SnippetTemplate();
+            TextLines contents = template.build(snippets);
+
+            // the documents are no longer required
+            disconnect(connected);
+            connected.clear();
+
+            LogSnippetHandler.log(shell, template, contents, snippets.get(0));
+        } finally {
+            disconnect(connected);
+        }
+        return null;
+    }
+
+    private List<Snippet> collectSelections(IEditorPart editor) throws ExecutionException {
+        IDocument document = Snippet.getDocument(editor);
+        ISelectionProvider provider = editor.getSite().getSelectionProvider();
+        if (document == null || provider == null) {
+            return Collections.emptyList();
+        }
+        ISelection selection = provider.getSelection();
+        List<IRegion> regions;
+        if (selection instanceof IBlockTextSelection) {
+            regions = Arrays.asList(((IBlockTextSelection) selection).getRegions());
+        } else if (selection instanceof ITextSelection) {
+            ITextSelection ts = (ITextSelection) selection;
+            if (ts.getOffset() < 0 || ts.getLength() < 0) {
+                return Collections.emptyList();
+            }
+            regions = Collections.<IRegion>singletonList(new Region(ts.getOffset(), ts.getLength()));
+        } else {
+            return Collections.emptyList();
+        }
+        return toSnippets(Snippet.getFile(editor), Snippet.getPath(editor), document, regions);
+    }
+
+    private List<Snippet> collectMarkers(IEditorPart editor, String markerType) throws ExecutionException {
+        IDocument document = Snippet.getDocument(editor);
+        if (document == null) {
+            return Collections.emptyList();
+        }
+        IAnnotationModel model = getAnnotationModel(editor);
+        List<IRegion> regions = new ArrayList<IRegion>();
+        if (model != null) {
+            // annotation positions follow the unsaved modifications
+            for (Iterator<?> iter = model.getAnnotationIterator(); iter.hasNext();) {
+                Object annotation = iter.next();
+                if (annotation instanceof MarkerAnnotation
+                        && isSubtypeOf(((MarkerAnnotation) annotation).getMarker(), markerType)) {
+                    Position position = model.getPosition((MarkerAnnotation) annotation);
+                    if (position != null && position.isDeleted() == false) {
+                        regions.add(new Region(position.getOffset(), position.getLength()));
+                    }
+                }
+            }
+        } else {
+            IFile file = Snippet.getFile(editor);
+            if (file == null) {
+                return Collections.emptyList();
+            }
+            try {
+                for (IMarker marker : file.findMarkers(markerType, true, IResource.DEPTH_ZERO)) {
+                    IRegion region = getRegion(document, marker);
+                    if (region != null) {
+                        regions.add(region);
+                    }
+                }
+            } catch (CoreException e) {
+                throw new ExecutionException(MessageFormat.format(
+                        "Failed to find markers: {0}",
+                        file), e);
+            }
+        }
+        return toSnippets(Snippet.getFile(editor), Snippet.getPath(editor), document, regions);
+    }
+
+    private IAnnotationModel getAnnotationModel(IEditorPart editor) {
+        ITextEditor text = editor instanceof ITextEditor
+                ? (ITextEditor) editor
+                : (ITextEditor) editor.getAdapter(ITextEditor.class);
+        if (text == null) {
+            return null;
+        }
+        IDocumentProvider provider = text.getDocumentProvider();
+        if (provider == null) {
+            return null;
+        }
+        return provider.getAnnotationModel(text.getEditorInput());
+    }
+
+    private boolean isSubtypeOf(IMarker marker, String markerType) {
+        try {
+            return marker.exists() && marker.isSubtypeOf(markerType);
+        } catch (CoreException e) {
+            LogUtil.log(IStatus.WARNING, e, MessageFormat.format(
+                    "Failed to obtain marker type: {0}",
+                    marker));
+            return false;
+        }
+    }
+
+    private IRegion getRegion(IDocument document, IMarker marker) {
+        int start = marker.getAttribute(IMarker.CHAR_START, -1);
+        int end = marker.getAttribute(IMarker.CHAR_END, -1);
+        if (start >= 0) {
+            return new Region(start, Math.max(end - start, 0));
+        }
+        int line = marker.getAttribute(IMarker.LINE_NUMBER, -1);
+        if (line >= 1) {
+            try {
+                return document.getLineInformation(line - 1);
+            } catch (BadLocationException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private List<Snippet> collectMatches(
+            ISearchResultViewPart view,
+            List<IFile> connected) throws ExecutionException {
+        ISearchResultPage page = view.getActivePage();
+        if ((page instanceof AbstractTextSearchViewPage) == false) {
+            return Collections.emptyList();
+        }
+        AbstractTextSearchViewPage textPage = (AbstractTextSearchViewPage) page;
+        AbstractTextSearchResult result = textPage.getInput();
+        if (result == null || result.getFileMatchAdapter() == null) {
+            return Collections.emptyList();
+        }
+        IFileMatchAdapter adapter = result.getFileMatchAdapter();
+        List<IFile> files = new ArrayList<IFile>();
+        for (Object element : result.getElements()) {
+            IFile file = adapter.getFile(element);
+            if (file != null && files.contains(file) == false) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files, new Comparator<IFile>() {
+            @Override
+            public int compare(IFile o1, IFile o2) {
+                return o1.getFullPath().toPortableString().compareTo(o2.getFullPath().toPortableString());
+            }
+        });
+        ITextFileBufferManager manager = FileBuffers.getTextFileBufferManager();
+        List<Snippet> results = new ArrayList<Snippet>();
+        for (IFile file : files) {
+            Match[] matches = adapter.computeContainedMatches(result, file);
+            if (matches.length == 0) {
+                continue;
+            }
+            IDocument document = connect(manager, file, connected);
+            List<IRegion> regions = new ArrayList<IRegion>(matches.length);
+            for (Match match : matches) {
+                IRegion region = getRegion(document, match);
+                if (region != null) {
+                    regions.add(region);
+                }
+            }
+            results.addAll(toSnippets(file, Snippet.getPath(file), document, regions));
+        }
+        return results;
+    }
+
+    private IRegion getRegion(IDocument document, Match match) {
+        if (match.isFiltered() || match.getOffset() < 0 || match.getLength() < 0) {
+            return null;
+        }
+        if (match.getBaseUnit() == Match.UNIT_CHARACTER) {
+            return new Region(match.getOffset(), match.getLength());
+        }
+        try {
+            int start = document.getLineOffset(match.getOffset());
+            IRegion last = document.getLineInformation(match.getOffset() + Math.max(match.getLength() - 1, 0));
+            return new Region(start, last.getOffset() + last.getLength() - start);
+        } catch (BadLocationException e) {
+            return null;
+        }
+    }
+
+    private IDocument connect(
+            ITextFileBufferManager manager,
+            IFile file,
+            List<IFile> connected) throws ExecutionException {
+        IPath path = file.getFullPath();
+        try {
+            manager.connect(path, LocationKind.IFILE, null);
+        } catch (CoreException e) {
+            throw new ExecutionException(MessageFormat.format(
+                    "Failed to open file: {0}",
+                    file), e);
+        }
+        connected.add(file);
+        ITextFileBuffer buffer = manager.getTextFileBuffer(path, LocationKind.IFILE);
+        return buffer.getDocument();
+    }
+
+    private void disconnect(List<IFile> connected) {
+        ITextFileBufferManager manager = FileBuffers.getTextFileBufferManager();
+        for (IFile file : connected) {
+            try {
+                manager.disconnect(file.getFullPath(), LocationKind.IFILE, null);
+            } catch (CoreException e) {
+                LogUtil.log(IStatus.WARNING, e, MessageFormat.format(
+                        "Failed to close file: {0}",
+                        file));
+            }
+        }
+    }
+
+    private List<Snippet> toSnippets(
+            IFile file,
+            IPath path,
+            IDocument document,
+            List<IRegion> regions) throws ExecutionException {
+        List<IRegion> merged;
+        try {
+            merged = Snippet.mergeLines(document, regions);
+        } catch (BadLocationException e) {
+            throw new ExecutionException(MessageFormat.format(
+                    "Failed to compute snippet regions: {0}",
+                    path), e);
+        }
+        List<Snippet> results = new ArrayList<Snippet>(merged.size());
+        for (IRegion region : merged) {
+            results.add(new Snippet(file, path, document, region));
+        }
+        return results;
+    }
+}
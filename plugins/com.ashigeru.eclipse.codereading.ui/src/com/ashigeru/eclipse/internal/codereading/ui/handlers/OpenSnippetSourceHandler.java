@@ -0,0 +1,137 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.handlers;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.ITextSelection;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.IWorkbenchPage;
+import org.eclipse.ui.PartInitException;
+import org.eclipse.ui.handlers.HandlerUtil;
+import org.eclipse.ui.texteditor.IDocumentProvider;
+import org.eclipse.ui.texteditor.ITextEditor;
+
+import com.ashigeru.eclipse.internal.codereading.ui.LogUtil;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.LogIndex;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.LogIndexEntry;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.SnippetSources;
+
+/**
+ * Opens the source location of the log entry under the caret.
+ */
+public class OpenSnippetSourceHandler extends AbstractHandler {
+
+    private static final String TITLE = "Open Snippet Source";
+
+    @Override
+    public Object execute(ExecutionEvent event) throws ExecutionException {
+        Shell shell = HandlerUtil.getActiveShellChecked(event);
+        ITextEditor editor = getTextEditor(HandlerUtil.getActiveEditor(event));
+        if (editor == null) {
+            return null;
+        }
+        File logFile = LogFilePropertyTester.getFile(editor.getEditorInput());
+        ITextSelection selection = getSelection(editor);
+        if (logFile == null || selection == null) {
+            MessageDialog.openInformation(shell, TITLE, "The current editor does not contain a log file.");
+            return null;
+        }
+        LogIndexEntry entry;
+        try {
+            entry = LogIndex.open(logFile).findByCharOffset(selection.getOffset());
+        } catch (IOException e) {
+            throw new ExecutionException(MessageFormat.format(
+                    "Failed to open log index: {0}",
+                    logFile), e);
+        }
+        if (entry == null || entry.getSource() == null) {
+            MessageDialog.openInformation(shell, TITLE, "No snippet sources are recorded at the caret.");
+            return null;
+        }
+        IFile source = SnippetSources.getSourceFile(entry.getSource());
+        if (source == null) {
+            MessageDialog.openInformation(shell, TITLE, MessageFormat.format(
+                    "The snippet source does not exist in the workspace: {0}",
+                    entry.getSource()));
+            return null;
+        }
+        List<String> snippet = getSnippet(getDocument(editor), entry);
+        IWorkbenchPage page = HandlerUtil.getActiveWorkbenchWindowChecked(event).getActivePage();
+        try {
+            SnippetSources.open(page, source, snippet, entry.getLineNumber());
+        } catch (PartInitException e) {
+            throw new ExecutionException(MessageFormat.format(
+                    "Failed to open the snippet source: {0}",
+                    source), e);
+        }
+        return null;
+    }
+
+    private ITextEditor getTextEditor(IEditorPart editor) {
+        if (editor == null) {
+            return null;
+        }
+        if (editor instanceof ITextEditor) {
+            return (ITextEditor) editor;
+        }
+        return (ITextEditor) editor.getAdapter(ITextEditor.class);
+    }
+
+    private ITextSelection getSelection(ITextEditor editor) {
+        ISelection selection = editor.getSelectionProvider().getSelection();
+        if (selection instanceof ITextSelection) {
+            return (ITextSelection) selection;
+        }
+        return null;
+    }
+
+    private IDocument getDocument(ITextEditor editor) {
+        IDocumentProvider provider = editor.getDocumentProvider();
+        if (provider == null) {
+            return null;
+        }
+        return provider.getDocument(editor.getEditorInput());
+    }
+
+    private List<String> getSnippet(IDocument document, LogIndexEntry entry) {
+        if (document == null) {
+            return Collections.emptyList();
+        }
+        try {
+            return SnippetSources.getSnippet(document.get((int) entry.getCharOffset(), entry.getCharLength()));
+        } catch (BadLocationException e) {
+            LogUtil.log(IStatus.WARNING, e, MessageFormat.format(
+                    "Log index is out of date: {0}",
+                    entry));
+            return Collections.emptyList();
+        }
+    }
+}
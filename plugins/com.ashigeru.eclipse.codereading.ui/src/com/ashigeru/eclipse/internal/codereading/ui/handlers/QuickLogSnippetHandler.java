@@ -0,0 +1,90 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.handlers;
+
+import java.io.File;
+import java.text.MessageFormat;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.jface.action.IStatusLineManager;
+import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.handlers.HandlerUtil;
+
+import com.ashigeru.eclipse.codereading.core.utils.PhaseStatistics;
+import com.ashigeru.eclipse.codereading.core.utils.TextLines;
+import com.ashigeru.eclipse.internal.codereading.ui.Activator;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.LogEntry;
+
+/**
+ * Appends source code snippet into the last log file without any dialogs.
+ * If the log file has not been chosen yet, this falls back to {@link LogSnippetHandler}.
+ */
+public class QuickLogSnippetHandler extends AbstractHandler {
+
+    private static final int MESSAGE_DURATION = 3000;
+
+    private static final PhaseStatistics PHASE_ENQUEUE = PhaseStatistics.get("ui/snippet/enqueue"); //$NON-NLS-1$
+
+    @Override
+    public Object execute(ExecutionEvent event) throws ExecutionException {
+        IEditorPart editor = HandlerUtil.getActiveEditor(event);
+        if (editor == null) {
+            return null;
+        }
+        IPath path = Snippet.getPath(editor);
+        Snippet snippet = new Snippet(
+                Snippet.getFile(editor),
+                path,
+                Snippet.getDocument(editor),
+                LogSnippetHandler.getRegion(editor));
+        SnippetTemplate template = new SnippetTemplate();
+        TextLines contents = template.build(snippet);
+        File logFile = LogSnippetHandler.loadLogFile();
+        if (logFile == null) {
+            LogSnippetHandler.log(HandlerUtil.getActiveShellChecked(event), template, contents, snippet);
+            return null;
+        }
+        PhaseStatistics.Sample sample = PHASE_ENQUEUE.begin();
+        try {
+            Activator.getDefault().getLogAppender().append(new LogEntry(
+                    logFile,
+                    template.expand(contents),
+                    path == null ? null : path.toPortableString(),
+                    snippet.getLineNumber(),
+                    System.currentTimeMillis()));
+        } finally {
+            PHASE_ENQUEUE.end(sample);
+        }
+        showMessage(editor, MessageFormat.format(
+                "Logged into {0}",
+                logFile.getName()));
+        return null;
+    }
+
+    private void showMessage(IEditorPart editor, String message) {
+        final IStatusLineManager status = editor.getEditorSite().getActionBars().getStatusLineManager();
+        status.setMessage(message);
+        Activator.getDisplay().timerExec(MESSAGE_DURATION, new Runnable() {
+            @Override
+            public void run() {
+                status.setMessage(null);
+            }
+        });
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.handlers;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Region;
+import org.eclipse.ui.IEditorInput;
+import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.part.AbstractMultiEditor;
+import org.eclipse.ui.part.MultiPageEditorPart;
+import org.eclipse.ui.texteditor.IDocumentProvider;
+import org.eclipse.ui.texteditor.ITextEditor;
+
+import com.ashigeru.eclipse.codereading.core.utils.DocumentUtils;
+import com.ashigeru.eclipse.internal.codereading.ui.LogUtil;
+
+/**
+ * A source code snippet to be logged.
+ */
+final class Snippet {
+
+    private final IFile file;
+
+    private final IPath path;
+
+    private final IDocument document;
+
+    private final IRegion region;
+
+    /**
+     * Creates a new instance.
+     * @param file the source file, or {@code null} if it is not in the workspace
+     * @param path the source path, or {@code null} if it is unknown
+     * @param document the source document, or {@code null} if it is unknown
+     * @param region the selected region, or {@code null} if it is unknown
+     */
+    Snippet(IFile file, IPath path, IDocument document, IRegion region) {
+        this.file = file;
+        this.path = path;
+        this.document = document;
+        this.region = region;
+    }
+
+    /**
+     * Returns the source file.
+     * @return the source file, or {@code null} if it is not in the workspace
+     */
+    IFile getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the source path.
+     * @return the source path, or {@code null} if it is unknown
+     */
+    IPath getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the source document.
+     * @return the source document, or {@code null} if it is unknown
+     */
+    IDocument getDocument() {
+        return document;
+    }
+
+    /**
+     * Returns the selected region.
+     * @return the selected region, or {@code null} if it is unknown
+     */
+    IRegion getRegion() {
+        return region;
+    }
+
+    /**
+     * Returns the line number of the selected region head.
+     * @return the line number (0-origin), or {@code -1} if it is unknown
+     */
+    int getLineNumber() {
+        if (document == null || region == null) {
+            return -1;
+        }
+        try {
+            return document.getLineOfOffset(region.getOffset());
+        } catch (BadLocationException e) {
+            LogUtil.log(IStatus.ERROR, e, MessageFormat.format(
+                    "Failed to compute line number: {0}",
+                    region));
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the editing workspace file.
+     * @param editor the target editor
+     * @return the workspace file, or {@code null} if it is not in the workspace
+     */
+    static IFile getFile(IEditorPart editor) {
+        assert editor != null;
+        return (IFile) editor.getEditorInput().getAdapter(IFile.class);
+    }
+
+    /**
+     * Returns the path of the editing file.
+     * @param editor the target editor
+     * @return the path, or {@code null} if it is unknown
+     */
+    static IPath getPath(IEditorPart editor) {
+        assert editor != null;
+        IEditorInput input = editor.getEditorInput();
+        IFile file = getFile(editor);
+        if (file != null) {
+            return getPath(file);
+        }
+        IPath path = (IPath) input.getAdapter(IPath.class);
+        if (path != null) {
+            return path;
+        }
+        String name = input.getName();
+        if (name != null) {
+            return Path.fromPortableString(name);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the path of the workspace file.
+     * @param file the target file
+     * @return the path
+     */
+    static IPath getPath(IFile file) {
+        assert file != null;
+        IProject project = file.getProject();
+        if (project != null) {
+            return Path.fromPortableString(project.getName()).append(file.getProjectRelativePath());
+        } else {
+            return file.getFullPath();
+        }
+    }
+
+    /**
+     * Returns the document of the editing file.
+     * @param editor the target editor
+     * @return the document, or {@code null} if it is unknown
+     */
+    static IDocument getDocument(IEditorPart editor) {
+        assert editor != null;
+        if (editor instanceof ITextEditor) {
+            IDocumentProvider provider = ((ITextEditor) editor).getDocumentProvider();
+            if (provider != null) {
+                return provider.getDocument(editor.getEditorInput());
+            }
+        } else if (editor instanceof MultiPageEditorPart) {
+            IEditorPart[] children = ((MultiPageEditorPart) editor).findEditors(editor.getEditorInput());
+            for (IEditorPart child : children) {
+                IDocument document = getDocument(child);
+                if (document != null) {
+                    return document;
+                }
+            }
+        } else if (editor instanceof AbstractMultiEditor) {
+            IEditorPart active = ((AbstractMultiEditor) editor).getActiveEditor();
+            return getDocument(active);
+        }
+        return null;
+    }
+
+    /**
+     * Expands the regions to their lines, and then merges the overlapping or adjacent ones.
+     * @param document the target document
+     * @param regions the target regions
+     * @return the merged line regions, ordered by their offset
+     * @throws BadLocationException if some regions are not valid
+     */
+    static List<IRegion> mergeLines(IDocument document, List<? extends IRegion> regions) throws BadLocationException {
+        List<IRegion> sorted = new ArrayList<IRegion>(regions);
+        Collections.sort(sorted, new Comparator<IRegion>() {
+            @Override
+            public int compare(IRegion o1, IRegion o2) {
+                if (o1.getOffset() < o2.getOffset()) {
+                    return -1;
+                } else if (o1.getOffset() > o2.getOffset()) {
+                    return +1;
+                }
+                return 0;
+            }
+        });
+        List<IRegion> results = new ArrayList<IRegion>();
+        int start = -1;
+        int end = -1;
+        int endLine = -1;
+        for (IRegion region : sorted) {
+            IRegion lines = DocumentUtils.toLines(document, region);
+            int lineStart = document.getLineOfOffset(lines.getOffset());
+            if (start >= 0 && lineStart <= endLine + 1) {
+                end = Math.max(end, lines.getOffset() + lines.getLength());
+            } else {
+                if (start >= 0) {
+                    results.add(new Region(start, end - start));
+                }
+                start = lines.getOffset();
+                end = lines.getOffset() + lines.getLength();
+            }
+            endLine = document.getLineOfOffset(end);
+        }
+        if (start >= 0) {
+            results.add(new Region(start, end - start));
+        }
+        return results;
+    }
+}
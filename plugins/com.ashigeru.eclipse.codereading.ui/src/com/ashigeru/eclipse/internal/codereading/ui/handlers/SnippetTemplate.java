@@ -0,0 +1,212 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.handlers;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.ui.editors.text.EditorsUI;
+import org.eclipse.ui.texteditor.AbstractDecoratedTextEditorPreferenceConstants;
+
+import com.ashigeru.eclipse.codereading.core.utils.LineNormalizer;
+import com.ashigeru.eclipse.codereading.core.utils.PhaseStatistics;
+import com.ashigeru.eclipse.codereading.core.utils.TextLines;
+import com.ashigeru.eclipse.internal.codereading.ui.Activator;
+import com.ashigeru.eclipse.internal.codereading.ui.LogUtil;
+import com.ashigeru.eclipse.internal.codereading.ui.preferences.PreferenceConstants;
+import com.ashigeru.eclipse.internal.codereading.ui.templates.SnippetValues;
+
+/**
+ * Builds log templates from source code snippets.
+ * A single instance normalizes all snippets with the same settings.
+ * If the snippets are too large to edit, only the heads of them are placed in the template,
+ * and the rest are restored by {@link #expand(TextLines)} after editing.
+ * @see Activator#getLogTemplate()
+ */
+final class SnippetTemplate {
+
+    private static final int PREVIEW_LINES = 20;
+
+    private static final PhaseStatistics PHASE_BUILD = PhaseStatistics.get("ui/snippet/template"); //$NON-NLS-1$
+
+    private final LineNormalizer normalizer;
+
+    private final int streamingThreshold;
+
+    private final Map<String, TextLines> deferred = new HashMap<String, TextLines>();
+
+    /**
+     * Creates a new instance with the current preferences.
+     */
+    SnippetTemplate() {
+        this.normalizer = new LineNormalizer(
+                getTabSize(),
+                Activator.getDefault().getExecutor(),
+                getParallelThreshold());
+        this.streamingThreshold = getStreamingThreshold();
+    }
+
+    /**
+     * Builds a log template of the snippet.
+     * @param snippet the source snippet
+     * @return the template lines
+     */
+    TextLines build(Snippet snippet) {
+        return build(Collections.singletonList(snippet));
+    }
+
+    /**
+     * Builds a log template which contains all of the snippets.
+     * @param snippets the source snippets
+     * @return the template lines
+     */
+    TextLines build(List<Snippet> snippets) {
+        PhaseStatistics.Sample sample = PHASE_BUILD.begin();
+        try {
+            return build0(snippets);
+        } finally {
+            PHASE_BUILD.end(sample);
+        }
+    }
+
+    private TextLines build0(List<Snippet> snippets) {
+        List<TextLines> contents = new ArrayList<TextLines>(snippets.size());
+        long size = 0;
+        for (Snippet snippet : snippets) {
+            TextLines lines = getContents(snippet.getDocument(), snippet.getRegion());
+            contents.add(lines);
+            size += lines == null ? 0 : getSize(lines);
+        }
+        boolean streaming = size >= streamingThreshold;
+        List<SnippetValues> values = new ArrayList<SnippetValues>(snippets.size());
+        for (int i = 0, n = snippets.size(); i < n; i++) {
+            Snippet snippet = snippets.get(i);
+            IPath path = snippet.getPath();
+            TextLines lines = contents.get(i);
+            values.add(new SnippetValues(
+                    path == null ? null : path.toPortableString(),
+                    snippet.getLineNumber(),
+                    getLanguageKind(snippet),
+                    streaming ? defer(lines) : lines));
+        }
+        return Activator.getDefault().getLogTemplate().render(values, new Date());
+    }
+
+    /**
+     * Restores the snippet lines which were omitted from the template.
+     * @param edited the edited template
+     * @return the complete contents
+     */
+    TextLines expand(TextLines edited) {
+        if (deferred.isEmpty()) {
+            return edited;
+        }
+        // joins the edited lines and the deferred ones without copying the snippet bodies
+        List<TextLines> results = new ArrayList<TextLines>();
+        int start = 0;
+        for (int i = 0, n = edited.size(); i < n; i++) {
+            TextLines rest = deferred.get(edited.get(i).toString());
+            if (rest != null) {
+                results.add(edited.subList(start, i));
+                results.add(rest);
+                start = i + 1;
+            }
+        }
+        results.add(edited.subList(start, edited.size()));
+        return TextLines.concat(results);
+    }
+
+    private TextLines defer(TextLines lines) {
+        if (lines == null || lines.size() <= PREVIEW_LINES + 1) {
+            return lines;
+        }
+        String placeholder = MessageFormat.format(
+                "<<< {0} more lines will be logged here (#{1}) >>>",
+                lines.size() - PREVIEW_LINES,
+                deferred.size() + 1);
+        deferred.put(placeholder, lines.subList(PREVIEW_LINES, lines.size()));
+        return TextLines.concat(Arrays.asList(
+                lines.subList(0, PREVIEW_LINES),
+                TextLines.of(Collections.singletonList(placeholder))));
+    }
+
+    private static long getSize(TextLines lines) {
+        long result = 0;
+        for (int i = 0, n = lines.size(); i < n; i++) {
+            result += lines.getLength(i) + 1;
+        }
+        return result;
+    }
+
+    /**
+     * Infers programming language kind of the target.
+     * @param snippet the target snippet
+     * @return the programming language kind, or {@code null} if it is not inferred
+     * @see Activator#getLanguageResolver()
+     */
+    private String getLanguageKind(Snippet snippet) {
+        if (snippet.getPath() == null) {
+            return null;
+        }
+        return Activator.getDefault().getLanguageResolver().resolve(
+                snippet.getPath(),
+                snippet.getFile(),
+                snippet.getDocument(),
+                snippet.getRegion());
+    }
+
+    private TextLines getContents(IDocument document, IRegion region) {
+        if (document == null || region == null) {
+            return null;
+        }
+        try {
+            return normalizer.normalize(document, region);
+        } catch (BadLocationException e) {
+            LogUtil.log(IStatus.ERROR, e, MessageFormat.format(
+                    "Failed to obtain line contents: {0}",
+                    region));
+            return null;
+        }
+    }
+
+    private int getTabSize() {
+        IPreferenceStore prefs = EditorsUI.getPreferenceStore();
+        int value = prefs.getInt(AbstractDecoratedTextEditorPreferenceConstants.EDITOR_TAB_WIDTH);
+        return value;
+    }
+
+    private int getParallelThreshold() {
+        IPreferenceStore prefs = Activator.getDefault().getPreferenceStore();
+        return prefs.getInt(PreferenceConstants.KEY_PARALLEL_THRESHOLD);
+    }
+
+    private int getStreamingThreshold() {
+        IPreferenceStore prefs = Activator.getDefault().getPreferenceStore();
+        return prefs.getInt(PreferenceConstants.KEY_STREAMING_THRESHOLD);
+    }
+}
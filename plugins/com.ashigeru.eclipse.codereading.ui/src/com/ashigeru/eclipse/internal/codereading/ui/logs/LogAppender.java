@@ -0,0 +1,1056 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.logs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceRuleFactory;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.IJobManager;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.MultiRule;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.PlatformUI;
+import org.eclipse.ui.statushandlers.StatusManager;
+
+import com.ashigeru.eclipse.codereading.core.utils.PhaseStatistics;
+import com.ashigeru.eclipse.internal.codereading.ui.Activator;
+import com.ashigeru.eclipse.internal.codereading.ui.LogUtil;
+
+/**
+ * Appends log entries in background.
+ * Entries are written by a single job in the order they were enqueued.
+ * Log files are kept open while they are in use, and the entries queued at the same time
+ * are written into each file at once.
+ * Each write holds an exclusive file lock, so that the other processes never interleave it.
+ * Log files in the workspace are instead appended through {@link IFile#appendContents(InputStream, int, IProgressMonitor)}
+ * while holding the scheduling rule of each file, so that each batch causes only one resource change.
+ * The appended entries are also recorded into the sidecar {@link LogIndex} and {@link LogTermIndex}
+ * of the log file.
+ * If a journal directory is given, each batch of entries is recorded into {@link LogJournal} at once
+ * before it is written, and the entries which were not confirmed on disk in the previous session are replayed at first.
+ * The entries which failed to be written stay in the journal, and they are retried or discarded
+ * only after the user decided it.
+ * For {@link LogSegments segmented log files}, the active segment is rolled before it is appended
+ * if it has exceeded the segment size or period.
+ * Log files are also made segmented in this job, because it may wait for the workspace.
+ */
+public class LogAppender extends Job {
+
+    // the number of the latest index records to be examined for each replayed entry
+    private static final int REPLAY_WINDOW = 256;
+
+    // the number of log files whose deduplicators are kept after they were closed
+    private static final int DEDUPLICATOR_CAPACITY = 8;
+
+    private static final int ANSWER_RETRY = 0;
+
+    private static final int ANSWER_DISCARD = 2;
+
+    private static final PhaseStatistics PHASE_JOURNAL = PhaseStatistics.get("ui/appender/journal"); //$NON-NLS-1$
+
+    private static final PhaseStatistics PHASE_WRITE = PhaseStatistics.get("ui/appender/write"); //$NON-NLS-1$
+
+    private static final PhaseStatistics PHASE_SYNC = PhaseStatistics.get("ui/appender/sync"); //$NON-NLS-1$
+
+    private final LinkedList<LogEntry> queue = new LinkedList<LogEntry>();
+
+    // accessed only while holding the lock of queue
+    private final Set<File> segmenting = new HashSet<File>();
+
+    private final ISchedulingRule rule = new MutexRule();
+
+    // accessed only while holding the rule
+    private final Map<File, LogFile> openFiles = new HashMap<File, LogFile>();
+
+    // accessed only while holding the rule
+    private final Map<File, SnippetDeduplicator> deduplicators =
+            new LinkedHashMap<File, SnippetDeduplicator>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, SnippetDeduplicator> eldest) {
+            return size() > DEDUPLICATOR_CAPACITY;
+        }
+    };
+
+    private final Job maintenance;
+
+    private final LogJournal journal;
+
+    private final Set<LogEntry> replaying = Collections.synchronizedSet(
+            Collections.newSetFromMap(new IdentityHashMap<LogEntry, Boolean>()));
+
+    // accessed only while holding the lock of itself
+    private final List<LogEntry> failures = new ArrayList<LogEntry>();
+
+    // accessed only while holding the lock of failures
+    private boolean asking;
+
+    // accessed only from this job
+    private boolean recovering;
+
+    // accessed only while holding the rule
+    private LogEncoder encoder;
+
+    private volatile SyncPolicy syncPolicy = SyncPolicy.NEVER;
+
+    private volatile long syncInterval;
+
+    private volatile long idleTimeout;
+
+    private volatile boolean deduplicate;
+
+    private volatile long segmentSize;
+
+    private volatile SegmentPeriod segmentPeriod = SegmentPeriod.NONE;
+
+    /**
+     * Creates a new instance without any journals.
+     */
+    public LogAppender() {
+        this(null);
+    }
+
+    /**
+     * Creates a new instance.
+     * If the journal directory contains entries which were not confirmed in the previous session,
+     * this schedules to replay them into their log files.
+     * @param journalDirectory the journal directory, or {@code null} to append entries without journals
+     */
+    public LogAppender(File journalDirectory) {
+        super("Appending Code Reading Log");
+        setSystem(true);
+        setPriority(SHORT);
+        maintenance = new Job("Maintaining Code Reading Log Files") {
+            @Override
+            protected IStatus run(IProgressMonitor monitor) {
+                long next = maintain();
+                if (next >= 0) {
+                    schedule(next);
+                }
+                return Status.OK_STATUS;
+            }
+        };
+        maintenance.setSystem(true);
+        maintenance.setPriority(DECORATE);
+        maintenance.setRule(rule);
+        if (journalDirectory == null) {
+            journal = null;
+        } else {
+            journal = new LogJournal(journalDirectory);
+            if (LogJournal.exists(journalDirectory)) {
+                recovering = true;
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * Returns whether the journal directory contains entries which were not confirmed in the previous session.
+     * @param journalDirectory the journal directory
+     * @return {@code true} if it contains such entries, otherwise {@code false}
+     */
+    public static boolean hasJournal(File journalDirectory) {
+        if (journalDirectory == null) {
+            throw new IllegalArgumentException("journalDirectory must not be null"); //$NON-NLS-1$
+        }
+        return LogJournal.exists(journalDirectory);
+    }
+
+    /**
+     * Configures how to maintain the open log files.
+     * @param policy the sync policy
+     * @param interval the minimum sync interval in milliseconds, only for {@link SyncPolicy#INTERVAL}
+     * @param timeout the idle time in milliseconds until each log file is closed
+     */
+    public void configure(SyncPolicy policy, long interval, long timeout) {
+        if (policy == null) {
+            throw new IllegalArgumentException("policy must not be null"); //$NON-NLS-1$
+        }
+        this.syncPolicy = policy;
+        this.syncInterval = Math.max(interval, 0);
+        this.idleTimeout = Math.max(timeout, 0);
+    }
+
+    /**
+     * Configures when the active segments of segmented log files are rolled.
+     * @param size the maximum size of each active segment in bytes, or {@code 0} to never roll by size
+     * @param period the period of each active segment
+     * @see LogSegments
+     */
+    public void configureSegments(long size, SegmentPeriod period) {
+        if (period == null) {
+            throw new IllegalArgumentException("period must not be null"); //$NON-NLS-1$
+        }
+        this.segmentSize = Math.max(size, 0);
+        this.segmentPeriod = period;
+    }
+
+    /**
+     * Sets whether code blocks which have been already logged are replaced with short back-references.
+     * @param enable {@code true} to replace them, otherwise {@code false}
+     */
+    public void setDeduplicate(boolean enable) {
+        this.deduplicate = enable;
+    }
+
+    /**
+     * Enqueues a log entry, and returns immediately.
+     * If this has a journal, the entry is recorded into it in background before written.
+     * @param entry the log entry
+     */
+    public void append(LogEntry entry) {
+        if (entry == null) {
+            throw new IllegalArgumentException("entry must not be null"); //$NON-NLS-1$
+        }
+        synchronized (queue) {
+            queue.addLast(entry);
+        }
+        schedule();
+    }
+
+    /**
+     * Makes the log file segmented before the entries which will be enqueued after this, and returns immediately.
+     * @param logFile the log file
+     * @see LogSegments#enable(File)
+     */
+    public void enableSegments(File logFile) {
+        if (logFile == null) {
+            throw new IllegalArgumentException("logFile must not be null"); //$NON-NLS-1$
+        }
+        synchronized (queue) {
+            segmenting.add(logFile);
+        }
+        schedule();
+    }
+
+    /**
+     * Waits until all enqueued entries are written.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+        // the job may be rescheduled while it is running
+        while (true) {
+            join();
+            synchronized (queue) {
+                if (queue.isEmpty() && segmenting.isEmpty() && getState() == NONE) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes all enqueued entries, and then closes the open log files.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void close() throws InterruptedException {
+        flush();
+        maintenance.cancel();
+        maintenance.join();
+        IJobManager manager = Job.getJobManager();
+        manager.beginRule(rule, null);
+        try {
+            for (Iterator<LogFile> iter = openFiles.values().iterator(); iter.hasNext();) {
+                closeLogFile(iter.next());
+                iter.remove();
+            }
+        } finally {
+            manager.endRule(rule);
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+        if (recovering) {
+            recovering = false;
+            List<LogEntry> recovered = journal.recover();
+            replaying.addAll(recovered);
+            synchronized (queue) {
+                queue.addAll(0, recovered);
+            }
+        }
+        Set<File> enabling = new HashSet<File>();
+        Map<File, List<LogEntry>> batch = drain(enabling);
+        record(batch);
+        Map<File, IFile> resources = findResources(batch.keySet());
+
+        // holds the rule of this appender and the rules of the target workspace files
+        ISchedulingRule scope = rule;
+        for (Map.Entry<File, IFile> entry : resources.entrySet()) {
+            File file = entry.getKey();
+            scope = MultiRule.combine(scope, getResourceRule(file, entry.getValue(), enabling.contains(file)));
+        }
+        IJobManager manager = Job.getJobManager();
+        manager.beginRule(scope, null);
+        try {
+            enableSegments(enabling);
+            appendAll(batch, resources, scope);
+        } finally {
+            manager.endRule(scope);
+        }
+        return Status.OK_STATUS;
+    }
+
+    private void record(Map<File, List<LogEntry>> batch) {
+        if (journal == null) {
+            return;
+        }
+        List<LogEntry> entries = new ArrayList<LogEntry>();
+        for (List<LogEntry> group : batch.values()) {
+            entries.addAll(group);
+        }
+        PhaseStatistics.Sample sample = PHASE_JOURNAL.begin();
+        try {
+            // the recovered and retried entries are already in the journal
+            journal.record(entries, syncPolicy != SyncPolicy.NEVER);
+        } catch (IOException e) {
+            // the entries are still appended, but will be lost on crash
+            LogUtil.log(IStatus.WARNING, e, MessageFormat.format(
+                    "Failed to record log entries into journal: {0}",
+                    batch.keySet()));
+        } finally {
+            PHASE_JOURNAL.end(sample);
+        }
+    }
+
+    private void enableSegments(Set<File> files) {
+        for (File file : files) {
+            try {
+                LogSegments.enable(file);
+            } catch (IOException e) {
+                // the entries are still appended into the log file
+                IStatus status = LogUtil.log(IStatus.ERROR, e, MessageFormat.format(
+                        "Failed to make the log file segmented: {0}",
+                        file));
+                StatusManager.getManager().handle(status, StatusManager.SHOW);
+            }
+        }
+    }
+
+    private void appendAll(Map<File, List<LogEntry>> batch, Map<File, IFile> resources, ISchedulingRule scope) {
+        SyncPolicy policy = syncPolicy;
+        for (Map.Entry<File, List<LogEntry>> group : batch.entrySet()) {
+            if (group.getValue().isEmpty()) {
+                continue;
+            }
+            File file = group.getKey();
+            IFile resource = resources.get(file);
+            try {
+                LogFile logFile = openFiles.get(file);
+                if (logFile != null && isSameResource(logFile.resource, resource) == false) {
+                    // the workspace was changed after the file was opened
+                    openFiles.remove(file);
+                    closeLogFile(logFile);
+                    logFile = null;
+                }
+                if (logFile == null) {
+                    logFile = openLogFile(file, resource);
+                    openFiles.put(file, logFile);
+                }
+                if (resource == null) {
+                    appendLog(logFile, group.getValue());
+                } else {
+                    appendResourceLog(logFile, group.getValue(), scope);
+                }
+                if (policy == SyncPolicy.BATCH) {
+                    sync(logFile);
+                } else if (policy == SyncPolicy.NEVER) {
+                    confirm(logFile);
+                }
+            } catch (IOException e) {
+                // failed entries stay in the journal until they are written or discarded
+                LogFile broken = openFiles.remove(file);
+                if (broken != null) {
+                    broken.unconfirmed.removeAll(group.getValue());
+                    closeLogFile(broken);
+                }
+                handleFailure(e, file, group.getValue());
+            }
+        }
+        if (encoder != null) {
+            encoder.release();
+        }
+        long next = maintain();
+        maintenance.cancel();
+        if (next >= 0) {
+            maintenance.schedule(next);
+        }
+    }
+
+    private static Map<File, IFile> findResources(Collection<File> files) {
+        Map<File, IFile> results = new HashMap<File, IFile>();
+        for (File file : files) {
+            IFile resource = LogLocations.findResource(file);
+            if (resource != null) {
+                results.put(file, resource);
+            }
+        }
+        return results;
+    }
+
+    private static boolean isSameResource(IFile a, IFile b) {
+        if (a == null) {
+            return b == null;
+        }
+        return a.equals(b);
+    }
+
+    private static ISchedulingRule getResourceRule(File file, IFile resource, boolean enabling) {
+        IResourceRuleFactory factory = ResourcesPlugin.getWorkspace().getRuleFactory();
+        ISchedulingRule result = factory.modifyRule(resource);
+        if (enabling || LogSegments.isSegmented(file)) {
+            // the manifest and closed segments are created next to the file
+            result = MultiRule.combine(result, factory.createRule(resource));
+        }
+        if (resource.exists() == false) {
+            // the file must be refreshed before it is appended
+            result = MultiRule.combine(result, factory.refreshRule(resource));
+        }
+        return result;
+    }
+
+    private Map<File, List<LogEntry>> drain(Set<File> enabling) {
+        Map<File, List<LogEntry>> results = new LinkedHashMap<File, List<LogEntry>>();
+        synchronized (queue) {
+            for (File file : segmenting) {
+                // the files are made segmented even if they have no entries
+                results.put(file, new ArrayList<LogEntry>());
+            }
+            enabling.addAll(segmenting);
+            segmenting.clear();
+            for (LogEntry entry : queue) {
+                List<LogEntry> group = results.get(entry.getFile());
+                if (group == null) {
+                    group = new ArrayList<LogEntry>();
+                    results.put(entry.getFile(), group);
+                }
+                group.add(entry);
+            }
+            queue.clear();
+        }
+        return results;
+    }
+
+    /*
+     * Syncs the log files whose interval was elapsed, closes the idle ones,
+     * and then returns the delay until the next maintenance, or -1 if no files are open.
+     */
+    private long maintain() {
+        long now = System.currentTimeMillis();
+        SyncPolicy policy = syncPolicy;
+        long interval = syncInterval;
+        long timeout = idleTimeout;
+        long next = Long.MAX_VALUE;
+        for (Iterator<LogFile> iter = openFiles.values().iterator(); iter.hasNext();) {
+            LogFile logFile = iter.next();
+            long idle = now - logFile.lastAccess;
+            if (idle >= timeout) {
+                closeLogFile(logFile);
+                iter.remove();
+                continue;
+            }
+            next = Math.min(next, timeout - idle);
+            if (policy == SyncPolicy.INTERVAL && logFile.dirty) {
+                long elapsed = now - logFile.lastSync;
+                if (elapsed >= interval) {
+                    try {
+                        sync(logFile);
+                    } catch (IOException e) {
+                        handleError(e, logFile.file);
+                    }
+                } else {
+                    next = Math.min(next, interval - elapsed);
+                }
+            }
+        }
+        return next == Long.MAX_VALUE ? -1 : next;
+    }
+
+    /*
+     * Appends the entries into the workspace file in a single workspace operation,
+     * so that builders and listeners receive only one resource change for the batch.
+     */
+    private void appendResourceLog(
+            final LogFile logFile,
+            final List<LogEntry> entries,
+            ISchedulingRule scope) throws IOException {
+        final IOException[] failure = new IOException[1];
+        IWorkspaceRunnable runnable = new IWorkspaceRunnable() {
+            @Override
+            public void run(IProgressMonitor monitor) throws CoreException {
+                try {
+                    appendLog(logFile, entries);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        try {
+            ResourcesPlugin.getWorkspace().run(
+                    runnable,
+                    scope,
+                    IWorkspace.AVOID_UPDATE,
+                    null);
+        } catch (CoreException e) {
+            throw new IOException(MessageFormat.format(
+                    "Failed to update workspace file: {0}",
+                    logFile.resource.getFullPath()), e);
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    private void appendLog(LogFile logFile, List<LogEntry> originals) throws IOException {
+        PhaseStatistics.Sample sample = PHASE_WRITE.begin();
+        try {
+            appendLog0(logFile, originals);
+        } finally {
+            PHASE_WRITE.end(sample);
+        }
+    }
+
+    private void appendLog0(LogFile logFile, List<LogEntry> originals) throws IOException {
+        FileChannel channel = logFile.channel;
+
+        // workspace files are guarded by their scheduling rules instead,
+        // because the workspace writes them through the other file handles
+        FileLock lock = logFile.resource == null ? channel.lock() : null;
+        try {
+            // other processes may have appended entries which must be considered in deduplication
+            logFile.index.refresh();
+            if (isRollRequired(logFile)) {
+                LogSegments.roll(logFile.file, channel, logFile.resource);
+            }
+            if (journal != null) {
+                logFile.unconfirmed.addAll(originals);
+            }
+            List<LogEntry> entries = excludeReplayed(logFile, originals);
+            long[] snippetHashes = new long[entries.size()];
+            logFile.begin();
+            long origin = logFile.getPosition();
+            List<LogIndexWriter.Records> written = new ArrayList<LogIndexWriter.Records>();
+            boolean success = false;
+            try {
+                List<LogEntry> processed = logFile.snippets.apply(logFile.index, entries, deduplicate, snippetHashes);
+                String lineBreak = getLogLineBreak();
+                int start = 0;
+                for (int i = 0, n = processed.size(); i <= n; i++) {
+                    // huge entries are streamed one by one, and the rest are written in batches
+                    if (i < n && LogEncoder.getCharLength(processed.get(i), lineBreak) < LogEncoder.STREAMING_THRESHOLD) {
+                        continue;
+                    }
+                    if (start < i) {
+                        written.add(writeLog(logFile,
+                                processed.subList(start, i),
+                                Arrays.copyOfRange(snippetHashes, start, i),
+                                lineBreak));
+                    }
+                    if (i < n) {
+                        written.add(streamLog(logFile, processed.get(i), snippetHashes[i], lineBreak));
+                    }
+                    start = i + 1;
+                }
+                logFile.commit();
+                success = true;
+            } finally {
+                if (success == false) {
+                    rollback(logFile, origin);
+                }
+            }
+            // the sidecar indices refer only the entries which were actually appended
+            index(logFile, written);
+        } finally {
+            if (lock != null) {
+                lock.release();
+            }
+        }
+        logFile.lastAccess = System.currentTimeMillis();
+        logFile.dirty = true;
+    }
+
+    private boolean isRollRequired(LogFile logFile) throws IOException {
+        if (LogSegments.isSegmented(logFile.file) == false) {
+            return false;
+        }
+        long size = logFile.channel.size();
+        if (size == 0) {
+            return false;
+        }
+        long limit = segmentSize;
+        if (limit > 0 && size >= limit) {
+            return true;
+        }
+        long start = logFile.index.getFirstTimestamp();
+        return start > 0 && segmentPeriod.isSamePeriod(start, System.currentTimeMillis()) == false;
+    }
+
+    /*
+     * Excludes the replayed entries which had been already written in the previous session,
+     * but were not confirmed before the crash.
+     */
+    private List<LogEntry> excludeReplayed(LogFile logFile, List<LogEntry> entries) throws IOException {
+        if (replaying.isEmpty()) {
+            return entries;
+        }
+        List<LogEntry> results = new ArrayList<LogEntry>(entries.size());
+        for (LogEntry entry : entries) {
+            if (replaying.remove(entry) && logFile.index.containsRecent(entry, REPLAY_WINDOW)) {
+                continue;
+            }
+            results.add(entry);
+        }
+        return results;
+    }
+
+    /*
+     * Drops the contents which were written by the failed operation.
+     * Workspace files are not modified until the operation is committed.
+     */
+    private void rollback(LogFile logFile, long origin) {
+        logFile.snippets.reset();
+        if (logFile.resource != null) {
+            return;
+        }
+        try {
+            if (logFile.channel.size() > origin) {
+                logFile.channel.truncate(origin);
+            }
+        } catch (IOException e) {
+            LogUtil.log(IStatus.WARNING, e, MessageFormat.format(
+                    "Failed to discard incomplete log entries: {0}",
+                    logFile.file));
+        }
+    }
+
+    private void index(LogFile logFile, List<LogIndexWriter.Records> written) {
+        try {
+            for (LogIndexWriter.Records records : written) {
+                int firstId = logFile.index.append(records);
+                logFile.terms.append(firstId, records.entries);
+            }
+            logFile.snippets.commit(logFile.index);
+        } catch (IOException e) {
+            // the entries were appended, and the rest will be marked as unindexed in the next operation
+            LogUtil.log(IStatus.WARNING, e, MessageFormat.format(
+                    "Failed to update index of log file: {0}",
+                    logFile.file));
+        }
+    }
+
+    private LogIndexWriter.Records writeLog(
+            LogFile logFile,
+            List<LogEntry> entries,
+            long[] snippetHashes,
+            String lineBreak) throws IOException {
+        FileChannel channel = logFile.getOutput();
+        LogEncoder logEncoder = getLogEncoder();
+        ByteBuffer[] contents = logEncoder.encode(entries, lineBreak);
+        long position = logFile.getPosition();
+        while (contents[contents.length - 1].hasRemaining()) {
+            channel.write(contents);
+        }
+        return new LogIndexWriter.Records(position, entries, snippetHashes, logEncoder);
+    }
+
+    private LogIndexWriter.Records streamLog(
+            LogFile logFile,
+            LogEntry entry,
+            long snippetHash,
+            String lineBreak) throws IOException {
+        LogEncoder logEncoder = getLogEncoder();
+        long position = logFile.getPosition();
+        logEncoder.write(entry, lineBreak, logFile.getOutput());
+        return new LogIndexWriter.Records(
+                position,
+                Collections.singletonList(entry),
+                new long[] { snippetHash },
+                logEncoder);
+    }
+
+    private LogEncoder getLogEncoder() {
+        Charset encoding = getLogFileEncoding();
+        if (encoder == null || encoder.getCharset().equals(encoding) == false) {
+            encoder = new LogEncoder(encoding);
+        }
+        return encoder;
+    }
+
+    static Charset getLogFileEncoding() {
+        // FIXME make it configurable
+        return Charset.forName("UTF-8"); //$NON-NLS-1$
+    }
+
+    private String getLogLineBreak() {
+        // FIXME make it configurable
+        return String.format("%n"); //$NON-NLS-1$
+    }
+
+    private LogFile openLogFile(File file, IFile resource) throws IOException {
+        prepareDirectory(file);
+        prepareDirectory(LogLocations.getSidecarBase(file));
+        FileOutputStream stream = new FileOutputStream(file, true);
+        boolean success = false;
+        try {
+            LogIndexWriter index = new LogIndexWriter(file);
+            try {
+                LogTermIndexWriter terms = new LogTermIndexWriter(file);
+                try {
+                    LogFile result = new LogFile(file, resource, stream, index, terms, getDeduplicator(file));
+                    success = true;
+                    return result;
+                } finally {
+                    if (success == false) {
+                        terms.close();
+                    }
+                }
+            } finally {
+                if (success == false) {
+                    index.close();
+                }
+            }
+        } finally {
+            if (success == false) {
+                stream.close();
+            }
+        }
+    }
+
+    private SnippetDeduplicator getDeduplicator(File file) {
+        // kept while the log file is closed, so that it is not seeded from scratch again
+        SnippetDeduplicator result = deduplicators.get(file);
+        if (result == null) {
+            result = new SnippetDeduplicator();
+            deduplicators.put(file, result);
+        }
+        return result;
+    }
+
+    private static void prepareDirectory(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent.mkdirs() == false && parent.isDirectory() == false) {
+            throw new IOException(MessageFormat.format(
+                    "Failed to create directory for create log file: {0}",
+                    parent));
+        }
+    }
+
+    private void closeLogFile(LogFile logFile) {
+        try {
+            try {
+                if (syncPolicy != SyncPolicy.NEVER && logFile.dirty) {
+                    logFile.sync();
+                }
+            } finally {
+                try {
+                    logFile.stream.close();
+                } finally {
+                    try {
+                        logFile.index.close();
+                    } finally {
+                        try {
+                            logFile.terms.close();
+                        } finally {
+                            logFile.closeSpool();
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            handleError(e, logFile.file);
+        } finally {
+            confirm(logFile);
+        }
+    }
+
+    private void sync(LogFile logFile) throws IOException {
+        PhaseStatistics.Sample sample = PHASE_SYNC.begin();
+        try {
+            logFile.sync();
+        } finally {
+            PHASE_SYNC.end(sample);
+        }
+        confirm(logFile);
+    }
+
+    private void confirm(LogFile logFile) {
+        if (logFile.unconfirmed.isEmpty() == false) {
+            confirm(logFile.unconfirmed);
+            logFile.unconfirmed.clear();
+        }
+    }
+
+    private void confirm(List<LogEntry> entries) {
+        if (journal != null) {
+            journal.confirm(entries);
+        }
+    }
+
+    private void handleFailure(IOException exception, File file, List<LogEntry> entries) {
+        // the entries may have been written partially, so that they must be checked before retried
+        replaying.addAll(entries);
+        final IStatus status = LogUtil.log(IStatus.ERROR, exception, MessageFormat.format(
+                "Failed to append to log file: {0}",
+                file));
+        synchronized (failures) {
+            failures.addAll(entries);
+            if (asking || PlatformUI.isWorkbenchRunning() == false) {
+                return;
+            }
+            asking = true;
+        }
+        Activator.getDisplay().asyncExec(new Runnable() {
+            @Override
+            public void run() {
+                askFailures(status);
+            }
+        });
+    }
+
+    private void askFailures(IStatus status) {
+        int count;
+        synchronized (failures) {
+            count = failures.size();
+        }
+        IWorkbenchWindow window = PlatformUI.getWorkbench().getActiveWorkbenchWindow();
+        String message = MessageFormat.format(journal == null
+                ? "Failed to append {0} log entries:\n{1}\n\nThey will be lost on exit unless they are retried."
+                : "Failed to append {0} log entries:\n{1}\n\nThey will be appended again at the next startup unless they are discarded.",
+                count,
+                getMessage(status));
+        MessageDialog dialog = new MessageDialog(
+                window == null ? null : window.getShell(),
+                "Code Reading Log",
+                null,
+                message,
+                MessageDialog.ERROR,
+                new String[] {
+                        "Retry",
+                        "Keep",
+                        "Discard",
+                },
+                0);
+        int answer = dialog.open();
+        List<LogEntry> targets = null;
+        synchronized (failures) {
+            asking = false;
+            if (answer == ANSWER_RETRY || answer == ANSWER_DISCARD) {
+                targets = new ArrayList<LogEntry>(failures);
+                failures.clear();
+            }
+        }
+        if (answer == ANSWER_RETRY) {
+            synchronized (queue) {
+                queue.addAll(0, targets);
+            }
+            schedule();
+        } else if (answer == ANSWER_DISCARD) {
+            replaying.removeAll(targets);
+            confirm(targets);
+        }
+    }
+
+    private static String getMessage(IStatus status) {
+        Throwable cause = status.getException();
+        if (cause == null || cause.getLocalizedMessage() == null) {
+            return status.getMessage();
+        }
+        return MessageFormat.format("{0} ({1})", status.getMessage(), cause.getLocalizedMessage()); //$NON-NLS-1$
+    }
+
+    private void handleError(IOException exception, File file) {
+        IStatus status = LogUtil.log(IStatus.ERROR, exception, MessageFormat.format(
+                "Failed to append to log file: {0}",
+                file));
+        StatusManager.getManager().handle(status, StatusManager.SHOW);
+    }
+
+    private static final class LogFile {
+
+        final File file;
+
+        // the workspace file, or null if it is not in the workspace
+        final IFile resource;
+
+        final FileOutputStream stream;
+
+        final FileChannel channel;
+
+        final LogIndexWriter index;
+
+        final LogTermIndexWriter terms;
+
+        final SnippetDeduplicator snippets;
+
+        // entries which were written but are not confirmed on disk yet
+        final List<LogEntry> unconfirmed = new ArrayList<LogEntry>();
+
+        long lastAccess;
+
+        long lastSync;
+
+        boolean dirty;
+
+        // buffers the contents of each batch for the workspace file
+        private File spoolFile;
+
+        private RandomAccessFile spool;
+
+        private long spoolBase;
+
+        LogFile(
+                File file,
+                IFile resource,
+                FileOutputStream stream,
+                LogIndexWriter index,
+                LogTermIndexWriter terms,
+                SnippetDeduplicator snippets) {
+            this.file = file;
+            this.resource = resource;
+            this.stream = stream;
+            this.channel = stream.getChannel();
+            this.index = index;
+            this.terms = terms;
+            this.snippets = snippets;
+            this.lastAccess = System.currentTimeMillis();
+            this.lastSync = lastAccess;
+        }
+
+        void sync() throws IOException {
+            channel.force(false);
+            lastSync = System.currentTimeMillis();
+            dirty = false;
+        }
+
+        void begin() throws IOException {
+            if (resource == null) {
+                return;
+            }
+            if (spool == null) {
+                spoolFile = File.createTempFile("codereading", ".spool"); //$NON-NLS-1$ //$NON-NLS-2$
+                spool = new RandomAccessFile(spoolFile, "rw"); //$NON-NLS-1$
+            }
+            spool.setLength(0);
+            spool.getChannel().position(0);
+            spoolBase = channel.size();
+        }
+
+        FileChannel getOutput() {
+            return spool == null ? channel : spool.getChannel();
+        }
+
+        long getPosition() throws IOException {
+            return spool == null ? channel.size() : spoolBase + spool.length();
+        }
+
+        void commit() throws IOException {
+            if (spool == null || spool.length() == 0) {
+                return;
+            }
+            FileChannel spooled = spool.getChannel();
+            spooled.position(0);
+            InputStream contents = new FilterInputStream(Channels.newInputStream(spooled)) {
+                @Override
+                public void close() {
+                    // keeps the spool open
+                    return;
+                }
+            };
+            try {
+                if (resource.exists() == false) {
+                    resource.refreshLocal(IResource.DEPTH_ZERO, null);
+                }
+                resource.appendContents(contents, IResource.FORCE, null);
+            } catch (CoreException e) {
+                throw new IOException(MessageFormat.format(
+                        "Failed to append to workspace file: {0}",
+                        resource.getFullPath()), e);
+            } finally {
+                spool.setLength(0);
+            }
+        }
+
+        void closeSpool() throws IOException {
+            if (spool != null) {
+                try {
+                    spool.close();
+                } finally {
+                    spool = null;
+                    if (spoolFile.delete() == false) {
+                        spoolFile.deleteOnExit();
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class MutexRule implements ISchedulingRule {
+
+        MutexRule() {
+            return;
+        }
+
+        @Override
+        public boolean contains(ISchedulingRule other) {
+            return other == this;
+        }
+
+        @Override
+        public boolean isConflicting(ISchedulingRule other) {
+            return other == this;
+        }
+    }
+}
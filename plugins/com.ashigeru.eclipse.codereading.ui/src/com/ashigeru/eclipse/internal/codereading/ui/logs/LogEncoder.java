@@ -0,0 +1,308 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.logs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+
+import com.ashigeru.eclipse.codereading.core.utils.TextLines;
+
+/**
+ * Encodes log entries into a reusable direct buffer.
+ * This is not thread-safe.
+ */
+final class LogEncoder {
+
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    /**
+     * The minimum number of characters of entries which should be written by
+     * {@link #write(LogEntry, String, WritableByteChannel)} instead of {@link #encode(List, String)}.
+     */
+    static final int STREAMING_THRESHOLD = MAX_RETAINED_CAPACITY;
+
+    private static final long HASH_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long HASH_PRIME = 0x100000001b3L;
+
+    private final CharsetEncoder encoder;
+
+    private final StringBuilder text = new StringBuilder();
+
+    private char[] chars = new char[INITIAL_CAPACITY];
+
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+
+    private int[] charLengths = new int[0];
+
+    private int[] byteLengths = new int[0];
+
+    private long[] hashes = new long[0];
+
+    /**
+     * Creates a new instance.
+     * @param charset the target charset
+     */
+    LogEncoder(Charset charset) {
+        assert charset != null;
+        this.encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Returns the target charset.
+     * @return the target charset
+     */
+    Charset getCharset() {
+        return encoder.charset();
+    }
+
+    /**
+     * Encodes the log entries.
+     * The resulting buffers share the internal buffer of this object,
+     * and they are available until this method or {@link #release()} is invoked.
+     * @param entries the log entries
+     * @param lineBreak the line break string
+     * @return the encoded entries, one buffer for each entry
+     * @throws IOException if failed to encode the entries
+     */
+    ByteBuffer[] encode(List<LogEntry> entries, String lineBreak) throws IOException {
+        int count = entries.size();
+        int[] ends = new int[count];
+        charLengths = new int[count];
+        buffer.clear();
+        for (int i = 0; i < count; i++) {
+            text.setLength(0);
+            entries.get(i).getContents().writeTo(text, lineBreak);
+            charLengths[i] = text.length();
+            encode(toCharBuffer(text));
+            ends[i] = buffer.position();
+        }
+        ByteBuffer[] results = new ByteBuffer[count];
+        byteLengths = new int[count];
+        hashes = new long[count];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit(ends[i]);
+            slice.position(start);
+            results[i] = slice;
+            byteLengths[i] = ends[i] - start;
+            hashes[i] = hash(slice);
+            start = ends[i];
+        }
+        return results;
+    }
+
+    /**
+     * Encodes a log entry, and writes it into the channel chunk by chunk.
+     * The entry contents are never copied into a buffer as a whole,
+     * and the entry is regarded as the only entry of the last encoded entries.
+     * @param entry the log entry
+     * @param lineBreak the line break string
+     * @param channel the destination channel
+     * @throws IOException if failed to encode or write the entry
+     * @see #STREAMING_THRESHOLD
+     */
+    void write(LogEntry entry, String lineBreak, WritableByteChannel channel) throws IOException {
+        TextLines lines = entry.getContents();
+        charLengths = new int[1];
+        byteLengths = new int[1];
+        hashes = new long[] { HASH_OFFSET };
+        encoder.reset();
+        buffer.clear();
+        CharBuffer input = CharBuffer.wrap(chars);
+        for (int i = 0, n = lines.size(); i < n; i++) {
+            int length = lines.getLength(i);
+            for (int offset = 0; offset < length;) {
+                if (input.hasRemaining() == false) {
+                    drain(input, false, channel);
+                }
+                int count = Math.min(length - offset, input.remaining());
+                lines.getChars(i, offset, offset + count, chars, input.position());
+                input.position(input.position() + count);
+                offset += count;
+            }
+            if (input.remaining() < lineBreak.length()) {
+                drain(input, false, channel);
+            }
+            input.put(lineBreak);
+            charLengths[0] += length + lineBreak.length();
+        }
+        drain(input, true, channel);
+    }
+
+    private void drain(CharBuffer input, boolean endOfInput, WritableByteChannel channel) throws IOException {
+        input.flip();
+        CoderResult result = encoder.encode(input, buffer, endOfInput);
+        while (result.isOverflow()) {
+            writeChunk(channel);
+            result = encoder.encode(input, buffer, endOfInput);
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+        if (endOfInput) {
+            result = encoder.flush(buffer);
+            while (result.isOverflow()) {
+                writeChunk(channel);
+                result = encoder.flush(buffer);
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+            writeChunk(channel);
+        }
+        // keeps an incomplete surrogate pair
+        input.compact();
+    }
+
+    private void writeChunk(WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        hashes[0] = hash(hashes[0], buffer);
+        byteLengths[0] += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns the number of characters of the last encoded entry.
+     * @param index the entry index
+     * @return the number of characters
+     */
+    int getCharLength(int index) {
+        return charLengths[index];
+    }
+
+    /**
+     * Returns the number of bytes of the last encoded entry.
+     * @param index the entry index
+     * @return the number of bytes
+     */
+    int getByteLength(int index) {
+        return byteLengths[index];
+    }
+
+    /**
+     * Returns the content hash of the last encoded entry.
+     * @param index the entry index
+     * @return the content hash
+     * @see #hash(ByteBuffer)
+     */
+    long getHash(int index) {
+        return hashes[index];
+    }
+
+    /**
+     * Computes the 64-bit FNV-1a hash of the remaining bytes in the buffer.
+     * This does not change the buffer position.
+     * @param bytes the target bytes
+     * @return the hash value
+     */
+    static long hash(ByteBuffer bytes) {
+        return hash(HASH_OFFSET, bytes);
+    }
+
+    private static long hash(long seed, ByteBuffer bytes) {
+        long result = seed;
+        for (int i = bytes.position(), n = bytes.limit(); i < n; i++) {
+            result ^= bytes.get(i) & 0xff;
+            result *= HASH_PRIME;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of characters of the encoded entry.
+     * @param entry the log entry
+     * @param lineBreak the line break string
+     * @return the number of characters
+     */
+    static long getCharLength(LogEntry entry, String lineBreak) {
+        TextLines lines = entry.getContents();
+        long result = (long) lines.size() * lineBreak.length();
+        for (int i = 0, n = lines.size(); i < n; i++) {
+            result += lines.getLength(i);
+        }
+        return result;
+    }
+
+    private CharBuffer toCharBuffer(StringBuilder source) {
+        int length = source.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        source.getChars(0, length, chars, 0);
+        return CharBuffer.wrap(chars, 0, length);
+    }
+
+    private void encode(CharBuffer source) throws CharacterCodingException {
+        encoder.reset();
+        CoderResult result = encoder.encode(source, buffer, true);
+        while (result.isOverflow()) {
+            grow(source.remaining());
+            result = encoder.encode(source, buffer, true);
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+        result = encoder.flush(buffer);
+        while (result.isOverflow()) {
+            grow(16);
+            result = encoder.flush(buffer);
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+    }
+
+    private void grow(int remaining) {
+        int required = buffer.position() + (int) Math.ceil(remaining * (double) encoder.maxBytesPerChar());
+        ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(required, buffer.capacity() * 2));
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    /**
+     * Releases the oversized internal buffers.
+     */
+    void release() {
+        if (text.capacity() > MAX_RETAINED_CAPACITY) {
+            text.setLength(0);
+            text.trimToSize();
+        }
+        if (chars.length > MAX_RETAINED_CAPACITY) {
+            chars = new char[INITIAL_CAPACITY];
+        }
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            buffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+        }
+    }
+}
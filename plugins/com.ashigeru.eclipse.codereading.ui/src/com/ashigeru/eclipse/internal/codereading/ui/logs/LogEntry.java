@@ -0,0 +1,107 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.logs;
+
+import java.io.File;
+
+import com.ashigeru.eclipse.codereading.core.utils.TextLines;
+
+/**
+ * An entry of code reading log.
+ */
+public class LogEntry {
+
+    private final File file;
+
+    private final TextLines contents;
+
+    private final String source;
+
+    private final int lineNumber;
+
+    private final long timestamp;
+
+    /**
+     * Creates a new instance without any source information.
+     * @param file the target log file
+     * @param contents the entry contents
+     */
+    public LogEntry(File file, TextLines contents) {
+        this(file, contents, null, -1, System.currentTimeMillis());
+    }
+
+    /**
+     * Creates a new instance.
+     * @param file the target log file
+     * @param contents the entry contents
+     * @param source the source path of the snippet, or {@code null} if it is unknown
+     * @param lineNumber the first line number of the snippet (0-origin), or {@code -1} if it is unknown
+     * @param timestamp the time when the entry was created, in milliseconds since the epoch
+     */
+    public LogEntry(File file, TextLines contents, String source, int lineNumber, long timestamp) {
+        if (file == null) {
+            throw new IllegalArgumentException("file must not be null"); //$NON-NLS-1$
+        }
+        if (contents == null) {
+            throw new IllegalArgumentException("contents must not be null"); //$NON-NLS-1$
+        }
+        this.file = file;
+        this.contents = contents;
+        this.source = source;
+        this.lineNumber = lineNumber < 0 ? -1 : lineNumber;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Returns the target log file.
+     * @return the target log file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the entry contents.
+     * @return the entry contents
+     */
+    public TextLines getContents() {
+        return contents;
+    }
+
+    /**
+     * Returns the source path of the snippet.
+     * @return the source path, or {@code null} if it is unknown
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the first line number of the snippet.
+     * @return the line number (0-origin), or {@code -1} if it is unknown
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Returns the time when this entry was created.
+     * @return the time in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,359 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.logs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A memory-mapped sidecar index of a log file.
+ * The index consists of the following files next to the log file,
+ * or under the plug-in state location for workspace files:
+ * <ul>
+ * <li> {@code <log-file>.index} - a header and fixed-size records, one for each entry </li>
+ * <li> {@code <log-file>.paths} - source paths of entries, one for each line </li>
+ * <li> {@code <log-file>.hashes} - pairs of a code block hash and the timestamp of the entry which first logged it </li>
+ * </ul>
+ * Each record has a link to the previous record which has the same source path.
+ * The header has a generation number, which is changed whenever the index is rebuilt.
+ * Index files are written by {@link LogAppender}.
+ */
+public final class LogIndex {
+
+    static final int MAGIC = 0x43524958; // CRIX
+
+    static final int VERSION = 2;
+
+    static final int HEADER_SIZE = 16;
+
+    static final int HEADER_GENERATION = 12;
+
+    static final int RECORD_SIZE = 64;
+
+    static final int FIELD_BYTE_OFFSET = 0;
+
+    static final int FIELD_BYTE_LENGTH = 8;
+
+    static final int FIELD_CHAR_OFFSET = 12;
+
+    static final int FIELD_CHAR_LENGTH = 20;
+
+    static final int FIELD_LINE_NUMBER = 24;
+
+    static final int FIELD_PATH_ID = 28;
+
+    static final int FIELD_PREVIOUS = 32;
+
+    static final int FIELD_FLAGS = 36;
+
+    static final int FIELD_TIMESTAMP = 40;
+
+    static final int FIELD_HASH = 48;
+
+    static final int FIELD_SNIPPET_HASH = 56;
+
+    static final int FLAG_UNINDEXED = 0x01;
+
+    static final int HASH_RECORD_SIZE = 16;
+
+    static final int HASH_FIELD_VALUE = 0;
+
+    static final int HASH_FIELD_TIMESTAMP = 8;
+
+    static final Charset PATH_ENCODING = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private static final LogIndex EMPTY = new LogIndex(
+            ByteBuffer.allocate(0),
+            Collections.<String>emptyList(),
+            Collections.<String, Integer>emptyMap(),
+            new int[0]);
+
+    private final ByteBuffer records;
+
+    private final int count;
+
+    private final List<String> paths;
+
+    private final Map<String, Integer> pathIds;
+
+    private final int[] heads;
+
+    private LogIndex(ByteBuffer records, List<String> paths, Map<String, Integer> pathIds, int[] heads) {
+        this.records = records;
+        this.count = records.capacity() / RECORD_SIZE;
+        this.paths = paths;
+        this.pathIds = pathIds;
+        this.heads = heads;
+    }
+
+    /**
+     * Returns the index file of the log file.
+     * @param logFile the log file
+     * @return the index file
+     */
+    public static File getIndexFile(File logFile) {
+        return new File(LogLocations.getSidecarBase(logFile).getPath() + ".index"); //$NON-NLS-1$
+    }
+
+    /**
+     * Returns the path dictionary file of the log file.
+     * @param logFile the log file
+     * @return the path dictionary file
+     */
+    public static File getPathsFile(File logFile) {
+        return new File(LogLocations.getSidecarBase(logFile).getPath() + ".paths"); //$NON-NLS-1$
+    }
+
+    /**
+     * Returns the code block hash file of the log file.
+     * @param logFile the log file
+     * @return the code block hash file
+     */
+    public static File getHashesFile(File logFile) {
+        return new File(LogLocations.getSidecarBase(logFile).getPath() + ".hashes"); //$NON-NLS-1$
+    }
+
+    /**
+     * Opens the current snapshot of the index for the log file.
+     * @param logFile the log file
+     * @return the index, or an empty index if the log file has not been indexed yet
+     * @throws IOException if failed to open the index
+     */
+    public static LogIndex open(File logFile) throws IOException {
+        if (logFile == null) {
+            throw new IllegalArgumentException("logFile must not be null"); //$NON-NLS-1$
+        }
+        File indexFile = getIndexFile(logFile);
+        if (indexFile.isFile() == false) {
+            return EMPTY;
+        }
+        ByteBuffer records;
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r"); //$NON-NLS-1$
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return EMPTY;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    break;
+                }
+            }
+            header.flip();
+            checkHeader(indexFile, header);
+            long length = (size - HEADER_SIZE) / RECORD_SIZE * RECORD_SIZE;
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException(MessageFormat.format(
+                        "Log index is too large: {0}",
+                        indexFile));
+            }
+            records = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, length);
+        } finally {
+            file.close();
+        }
+        List<String> paths = readPaths(getPathsFile(logFile), 0, null);
+        Map<String, Integer> pathIds = new HashMap<String, Integer>();
+        for (int i = 0, n = paths.size(); i < n; i++) {
+            if (pathIds.containsKey(paths.get(i)) == false) {
+                pathIds.put(paths.get(i), i);
+            }
+        }
+        int[] heads = new int[paths.size()];
+        Arrays.fill(heads, -1);
+        for (int i = 0, n = records.capacity() / RECORD_SIZE; i < n; i++) {
+            int pathId = records.getInt(i * RECORD_SIZE + FIELD_PATH_ID);
+            if (0 <= pathId && pathId < heads.length) {
+                heads[pathId] = i;
+            }
+        }
+        return new LogIndex(records, paths, pathIds, heads);
+    }
+
+    static void checkHeader(File indexFile, ByteBuffer header) throws IOException {
+        if (isSupported(header) == false) {
+            throw new IOException(MessageFormat.format(
+                    "Unsupported log index format: {0}",
+                    indexFile));
+        }
+    }
+
+    static boolean isSupported(ByteBuffer header) {
+        return header.getInt(0) == MAGIC && header.getInt(4) == VERSION && header.getInt(8) == RECORD_SIZE;
+    }
+
+    /**
+     * Reads complete lines in the path dictionary file.
+     * @param pathsFile the path dictionary file
+     * @param offset the starting byte offset
+     * @param consumed the array to store the number of consumed bytes, or {@code null}
+     * @return the read lines
+     * @throws IOException if failed to read the file
+     */
+    static List<String> readPaths(File pathsFile, long offset, long[] consumed) throws IOException {
+        List<String> results = new ArrayList<String>();
+        if (pathsFile.isFile() == false) {
+            return results;
+        }
+        byte[] bytes;
+        RandomAccessFile file = new RandomAccessFile(pathsFile, "r"); //$NON-NLS-1$
+        try {
+            long length = file.length() - offset;
+            if (length <= 0) {
+                return results;
+            }
+            bytes = new byte[(int) length];
+            file.seek(offset);
+            file.readFully(bytes);
+        } finally {
+            file.close();
+        }
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                results.add(new String(bytes, start, i - start, PATH_ENCODING));
+                start = i + 1;
+            }
+        }
+        if (consumed != null) {
+            consumed[0] = start;
+        }
+        return results;
+    }
+
+    /**
+     * Returns the number of entries.
+     * @return the number of entries
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns an entry.
+     * @param index the entry position (0-origin)
+     * @return the entry
+     * @throws IndexOutOfBoundsException if the position is out of range
+     */
+    public LogIndexEntry get(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        int base = index * RECORD_SIZE;
+        int pathId = records.getInt(base + FIELD_PATH_ID);
+        return new LogIndexEntry(
+                index,
+                records.getLong(base + FIELD_BYTE_OFFSET),
+                records.getInt(base + FIELD_BYTE_LENGTH),
+                records.getLong(base + FIELD_CHAR_OFFSET),
+                records.getInt(base + FIELD_CHAR_LENGTH),
+                0 <= pathId && pathId < paths.size() ? paths.get(pathId) : null,
+                records.getInt(base + FIELD_LINE_NUMBER),
+                records.getLong(base + FIELD_TIMESTAMP),
+                records.getLong(base + FIELD_HASH),
+                records.getLong(base + FIELD_SNIPPET_HASH),
+                (records.getInt(base + FIELD_FLAGS) & FLAG_UNINDEXED) == 0);
+    }
+
+    /**
+     * Returns the latest entries.
+     * @param limit the maximum number of entries
+     * @return the entries, from the newest one
+     */
+    public List<LogIndexEntry> getLatest(int limit) {
+        List<LogIndexEntry> results = new ArrayList<LogIndexEntry>();
+        for (int i = count - 1; i >= 0 && results.size() < limit; i--) {
+            if (isIndexed(i)) {
+                results.add(get(i));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns the entries for the source path.
+     * @param source the source path
+     * @return the entries, from the newest one
+     */
+    public List<LogIndexEntry> getEntries(String source) {
+        if (source == null) {
+            throw new IllegalArgumentException("source must not be null"); //$NON-NLS-1$
+        }
+        List<LogIndexEntry> results = new ArrayList<LogIndexEntry>();
+        Integer pathId = pathIds.get(source);
+        if (pathId == null) {
+            return results;
+        }
+        for (int i = heads[pathId]; 0 <= i && i < count; i = records.getInt(i * RECORD_SIZE + FIELD_PREVIOUS)) {
+            results.add(get(i));
+        }
+        return results;
+    }
+
+    /**
+     * Returns the entry which contains the character offset in the decoded log file.
+     * @param charOffset the character offset
+     * @return the entry, or {@code null} if there is no such an entry
+     */
+    public LogIndexEntry findByCharOffset(long charOffset) {
+        int index = search(FIELD_CHAR_OFFSET, FIELD_CHAR_LENGTH, charOffset);
+        return index < 0 ? null : get(index);
+    }
+
+    /**
+     * Returns the entry which contains the byte offset in the log file.
+     * @param byteOffset the byte offset
+     * @return the entry, or {@code null} if there is no such an entry
+     */
+    public LogIndexEntry findByByteOffset(long byteOffset) {
+        int index = search(FIELD_BYTE_OFFSET, FIELD_BYTE_LENGTH, byteOffset);
+        return index < 0 ? null : get(index);
+    }
+
+    private int search(int offsetField, int lengthField, long offset) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int base = mid * RECORD_SIZE;
+            long start = records.getLong(base + offsetField);
+            if (offset < start) {
+                high = mid - 1;
+            } else if (offset >= start + records.getInt(base + lengthField)) {
+                low = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isIndexed(int index) {
+        return (records.getInt(index * RECORD_SIZE + FIELD_FLAGS) & FLAG_UNINDEXED) == 0;
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.logs;
+
+import java.text.MessageFormat;
+
+/**
+ * An entry in {@link LogIndex}.
+ */
+public class LogIndexEntry {
+
+    private final int index;
+
+    private final long byteOffset;
+
+    private final int byteLength;
+
+    private final long charOffset;
+
+    private final int charLength;
+
+    private final String source;
+
+    private final int lineNumber;
+
+    private final long timestamp;
+
+    private final long hash;
+
+    private final long snippetHash;
+
+    private final boolean indexed;
+
+    LogIndexEntry(
+            int index,
+            long byteOffset, int byteLength,
+            long charOffset, int charLength,
+            String source, int lineNumber,
+            long timestamp, long hash, long snippetHash,
+            boolean indexed) {
+        this.index = index;
+        this.byteOffset = byteOffset;
+        this.byteLength = byteLength;
+        this.charOffset = charOffset;
+        this.charLength = charLength;
+        this.source = source;
+        this.lineNumber = lineNumber;
+        this.timestamp = timestamp;
+        this.hash = hash;
+        this.snippetHash = snippetHash;
+        this.indexed = indexed;
+    }
+
+    /**
+     * Returns the position of this entry in the index.
+     * @return the position (0-origin)
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the byte offset of this entry in the log file.
+     * @return the byte offset
+     */
+    public long getByteOffset() {
+        return byteOffset;
+    }
+
+    /**
+     * Returns the number of bytes of this entry.
+     * @return the number of bytes
+     */
+    public int getByteLength() {
+        return byteLength;
+    }
+
+    /**
+     * Returns the character offset of this entry in the decoded log file.
+     * @return the character offset
+     */
+    public long getCharOffset() {
+        return charOffset;
+    }
+
+    /**
+     * Returns the number of characters of this entry.
+     * @return the number of characters
+     */
+    public int getCharLength() {
+        return charLength;
+    }
+
+    /**
+     * Returns the source path of the snippet.
+     * @return the source path, or {@code null} if it is unknown
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the first line number of the snippet.
+     * @return the line number (0-origin), or {@code -1} if it is unknown
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Returns the time when this entry was created.
+     * @return the time in milliseconds since the epoch, or {@code 0} if it is unknown
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the hash of the encoded entry contents.
+     * @return the content hash, or {@code 0} if it is unknown
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Returns the hash of the normalized lines in the first code block of this entry.
+     * @return the snippet hash, or {@code 0} if this entry does not contain any code blocks
+     */
+    public long getSnippetHash() {
+        return snippetHash;
+    }
+
+    /**
+     * Returns whether this entry was written by the log appender or not.
+     * Otherwise, this entry represents a range of the log file which was modified by the other tools.
+     * @return {@code true} if this entry was written by the log appender, otherwise {@code false}
+     */
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    @Override
+    public String toString() {
+        return MessageFormat.format(
+                "LogIndexEntry(index={0}, bytes={1}+{2}, source={3}:{4})", //$NON-NLS-1$
+                index,
+                String.valueOf(byteOffset),
+                byteLength,
+                source,
+                lineNumber);
+    }
+}
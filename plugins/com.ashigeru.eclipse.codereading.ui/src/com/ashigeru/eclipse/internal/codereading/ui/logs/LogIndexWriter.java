@@ -0,0 +1,525 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.logs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Appends records into {@link LogIndex}.
+ * Each operation must be invoked while holding the lock of the log file,
+ * so that the other processes can also update the same index.
+ */
+final class LogIndexWriter {
+
+    private static final int DECODE_BUFFER_SIZE = 64 * 1024;
+
+    private static final Random GENERATIONS = new Random();
+
+    private final File logFile;
+
+    private final File pathsFile;
+
+    private final RandomAccessFile index;
+
+    private final RandomAccessFile paths;
+
+    private final RandomAccessFile hashes;
+
+    private final Map<String, Integer> pathIds = new HashMap<String, Integer>();
+
+    private int pathCount;
+
+    private long pathsLength;
+
+    private int[] heads = new int[16];
+
+    private int count;
+
+    private long byteEnd;
+
+    private long charEnd;
+
+    private int generation;
+
+    private int hashCount;
+
+    /**
+     * Creates a new instance.
+     * @param logFile the target log file
+     * @throws IOException if failed to open the index files
+     */
+    LogIndexWriter(File logFile) throws IOException {
+        this.logFile = logFile;
+        this.pathsFile = LogIndex.getPathsFile(logFile);
+        this.index = new RandomAccessFile(LogIndex.getIndexFile(logFile), "rw"); //$NON-NLS-1$
+        boolean success = false;
+        try {
+            this.paths = new RandomAccessFile(pathsFile, "rw"); //$NON-NLS-1$
+            try {
+                this.hashes = new RandomAccessFile(LogIndex.getHashesFile(logFile), "rw"); //$NON-NLS-1$
+                success = true;
+            } finally {
+                if (success == false) {
+                    paths.close();
+                }
+            }
+        } finally {
+            if (success == false) {
+                index.close();
+            }
+        }
+        Arrays.fill(heads, -1);
+    }
+
+    /**
+     * Appends records of the entries.
+     * This must be invoked only after the entries were actually written into the log file.
+     * @param records the records of the written entries
+     * @return the ID of the first entry, which is its position in the index
+     * @throws IOException if failed to update the index
+     */
+    int append(Records records) throws IOException {
+        long position = records.position;
+        List<LogEntry> entries = records.entries;
+        refresh();
+        if (byteEnd > position) {
+            // the log file was truncated
+            reset();
+        }
+        int size = entries.size() + (byteEnd < position ? 1 : 0);
+        ByteBuffer buffer = ByteBuffer.allocate(size * LogIndex.RECORD_SIZE);
+        if (byteEnd < position) {
+            // the log file was modified by the other tools
+            long chars = countChars(byteEnd, position, records.charset);
+            put(buffer, position - byteEnd, chars, -1, -1, LogIndex.FLAG_UNINDEXED, 0L, 0L, 0L);
+        }
+        int firstId = count;
+        for (int i = 0, n = entries.size(); i < n; i++) {
+            LogEntry entry = entries.get(i);
+            int pathId = entry.getSource() == null ? -1 : getPathId(entry.getSource());
+            put(buffer, records.byteLengths[i], records.charLengths[i],
+                    pathId, entry.getLineNumber(), 0,
+                    entry.getTimestamp(), records.hashes[i], records.snippetHashes[i]);
+        }
+        buffer.flip();
+        FileChannel channel = index.getChannel();
+        long offset = LogIndex.HEADER_SIZE + (long) (count - size) * LogIndex.RECORD_SIZE;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+        return firstId;
+    }
+
+    private void put(
+            ByteBuffer buffer,
+            long byteLength, long charLength,
+            int pathId, int lineNumber, int flags,
+            long timestamp, long hash, long snippetHash) {
+        int base = buffer.position();
+        int previous = -1;
+        if (pathId >= 0) {
+            previous = heads[pathId];
+            heads[pathId] = count;
+        }
+        buffer.putLong(base + LogIndex.FIELD_BYTE_OFFSET, byteEnd);
+        buffer.putInt(base + LogIndex.FIELD_BYTE_LENGTH, (int) byteLength);
+        buffer.putLong(base + LogIndex.FIELD_CHAR_OFFSET, charEnd);
+        buffer.putInt(base + LogIndex.FIELD_CHAR_LENGTH, (int) charLength);
+        buffer.putInt(base + LogIndex.FIELD_LINE_NUMBER, lineNumber);
+        buffer.putInt(base + LogIndex.FIELD_PATH_ID, pathId);
+        buffer.putInt(base + LogIndex.FIELD_PREVIOUS, previous);
+        buffer.putInt(base + LogIndex.FIELD_FLAGS, flags);
+        buffer.putLong(base + LogIndex.FIELD_TIMESTAMP, timestamp);
+        buffer.putLong(base + LogIndex.FIELD_HASH, hash);
+        buffer.putLong(base + LogIndex.FIELD_SNIPPET_HASH, snippetHash);
+        buffer.position(base + LogIndex.RECORD_SIZE);
+        byteEnd += byteLength;
+        charEnd += charLength;
+        count++;
+    }
+
+    private int getPathId(String path) throws IOException {
+        Integer id = pathIds.get(path);
+        if (id != null) {
+            return id;
+        }
+        byte[] bytes = (path.replace('\n', ' ') + '\n').getBytes(LogIndex.PATH_ENCODING);
+        paths.seek(pathsLength);
+        paths.write(bytes);
+        pathsLength += bytes.length;
+        return addPath(path);
+    }
+
+    private int addPath(String path) {
+        int id = pathCount++;
+        if (pathIds.containsKey(path) == false) {
+            pathIds.put(path, id);
+        }
+        if (id >= heads.length) {
+            int old = heads.length;
+            heads = Arrays.copyOf(heads, Math.max(id + 1, old * 2));
+            Arrays.fill(heads, old, heads.length, -1);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the number of records.
+     * @return the number of records
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns the generation number of the index, which is changed whenever the index is rebuilt.
+     * @return the generation number
+     */
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns the number of code block hashes.
+     * @return the number of code block hashes
+     */
+    int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * Appends code block hashes.
+     * This must be invoked only after the entries which contain the code blocks were actually written.
+     * @param values the pairs of a code block hash and the timestamp of its entry
+     * @param count the number of pairs
+     * @throws IOException if failed to update the hashes
+     */
+    void appendHashes(long[] values, int count) throws IOException {
+        assert values.length >= count * 2;
+        if (count == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(count * LogIndex.HASH_RECORD_SIZE);
+        for (int i = 0; i < count; i++) {
+            buffer.putLong(values[i * 2]);
+            buffer.putLong(values[i * 2 + 1]);
+        }
+        buffer.flip();
+        FileChannel channel = hashes.getChannel();
+        long offset = (long) hashCount * LogIndex.HASH_RECORD_SIZE;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+        hashCount += count;
+    }
+
+    /**
+     * Reads the code block hashes.
+     * The resulting buffer contains the hashes in the range, and each field is placed at
+     * {@code (index - from) * LogIndex.HASH_RECORD_SIZE + LogIndex.HASH_FIELD_*}.
+     * @param from the first hash index (inclusive)
+     * @param to the last hash index (exclusive)
+     * @return the hashes
+     * @throws IOException if failed to read the hashes
+     */
+    ByteBuffer readHashes(int from, int to) throws IOException {
+        assert 0 <= from && from <= to && to <= hashCount;
+        return read(hashes.getChannel(),
+                (long) from * LogIndex.HASH_RECORD_SIZE,
+                (to - from) * LogIndex.HASH_RECORD_SIZE);
+    }
+
+    /**
+     * Returns the timestamp of the first record.
+     * @return the timestamp, or {@code 0} if it is unknown
+     * @throws IOException if failed to read the record
+     */
+    long getFirstTimestamp() throws IOException {
+        if (count == 0) {
+            return 0L;
+        }
+        return read(0, 1).getLong(LogIndex.FIELD_TIMESTAMP);
+    }
+
+    /**
+     * Returns whether the latest records contain the entry.
+     * Each entry is identified by its timestamp and line number.
+     * @param entry the target entry
+     * @param limit the maximum number of records to be examined
+     * @return {@code true} if the records contain the entry, otherwise {@code false}
+     * @throws IOException if failed to read the records
+     */
+    boolean containsRecent(LogEntry entry, int limit) throws IOException {
+        int from = Math.max(count - limit, 0);
+        ByteBuffer records = read(from, count);
+        for (int i = count - from - 1; i >= 0; i--) {
+            int base = i * LogIndex.RECORD_SIZE;
+            if (records.getLong(base + LogIndex.FIELD_TIMESTAMP) == entry.getTimestamp()
+                    && records.getInt(base + LogIndex.FIELD_LINE_NUMBER) == entry.getLineNumber()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the records.
+     * The resulting buffer contains the records in the range, and each field is placed at
+     * {@code (index - from) * LogIndex.RECORD_SIZE + LogIndex.FIELD_*}.
+     * @param from the first record index (inclusive)
+     * @param to the last record index (exclusive)
+     * @return the records
+     * @throws IOException if failed to read the records
+     */
+    ByteBuffer read(int from, int to) throws IOException {
+        assert 0 <= from && from <= to && to <= count;
+        return read(index.getChannel(),
+                LogIndex.HEADER_SIZE + (long) from * LogIndex.RECORD_SIZE,
+                (to - from) * LogIndex.RECORD_SIZE);
+    }
+
+    /**
+     * Reads the records and paths which were added after the last operation.
+     * If the index was rebuilt by the other processes, this reloads the whole index.
+     * @throws IOException if failed to read the index
+     */
+    void refresh() throws IOException {
+        FileChannel channel = index.getChannel();
+        long size = channel.size();
+        if (size < LogIndex.HEADER_SIZE) {
+            reset();
+            return;
+        }
+        ByteBuffer header = read(channel, 0, LogIndex.HEADER_SIZE);
+        if (LogIndex.isSupported(header) == false) {
+            // rebuilds the index created by the other versions
+            reset();
+            return;
+        }
+        int total = (int) ((size - LogIndex.HEADER_SIZE) / LogIndex.RECORD_SIZE);
+        if (LogIndex.HEADER_SIZE + (long) total * LogIndex.RECORD_SIZE != size) {
+            // drops an incomplete record
+            channel.truncate(LogIndex.HEADER_SIZE + (long) total * LogIndex.RECORD_SIZE);
+        }
+        int current = header.getInt(LogIndex.HEADER_GENERATION);
+        if (current != generation || total < count || paths.length() < pathsLength) {
+            // the index was reset or rolled by the other processes
+            clear();
+            generation = current;
+        }
+
+        long[] consumed = new long[1];
+        for (String path : LogIndex.readPaths(pathsFile, pathsLength, consumed)) {
+            addPath(path);
+        }
+        pathsLength += consumed[0];
+        if (paths.length() != pathsLength) {
+            // drops an incomplete path
+            paths.setLength(pathsLength);
+        }
+
+        long hashesLength = hashes.length();
+        hashCount = (int) (hashesLength / LogIndex.HASH_RECORD_SIZE);
+        if ((long) hashCount * LogIndex.HASH_RECORD_SIZE != hashesLength) {
+            // drops an incomplete hash
+            hashes.setLength((long) hashCount * LogIndex.HASH_RECORD_SIZE);
+        }
+
+        if (total > count) {
+            ByteBuffer records = read(channel, LogIndex.HEADER_SIZE + (long) count * LogIndex.RECORD_SIZE, (total - count) * LogIndex.RECORD_SIZE);
+            for (int i = count; i < total; i++) {
+                int base = (i - count) * LogIndex.RECORD_SIZE;
+                int pathId = records.getInt(base + LogIndex.FIELD_PATH_ID);
+                if (0 <= pathId && pathId < pathCount) {
+                    heads[pathId] = i;
+                }
+                if (i == total - 1) {
+                    byteEnd = records.getLong(base + LogIndex.FIELD_BYTE_OFFSET) + records.getInt(base + LogIndex.FIELD_BYTE_LENGTH);
+                    charEnd = records.getLong(base + LogIndex.FIELD_CHAR_OFFSET) + records.getInt(base + LogIndex.FIELD_CHAR_LENGTH);
+                }
+            }
+            count = total;
+        }
+    }
+
+    private void reset() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LogIndex.HEADER_SIZE);
+        header.putInt(LogIndex.MAGIC);
+        header.putInt(LogIndex.VERSION);
+        header.putInt(LogIndex.RECORD_SIZE);
+        header.putInt(nextGeneration());
+        header.flip();
+        FileChannel channel = index.getChannel();
+        channel.truncate(0);
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        paths.setLength(0);
+        hashes.setLength(0);
+        clear();
+        generation = header.getInt(LogIndex.HEADER_GENERATION);
+    }
+
+    private void clear() {
+        hashCount = 0;
+        pathIds.clear();
+        pathCount = 0;
+        pathsLength = 0;
+        Arrays.fill(heads, -1);
+        count = 0;
+        byteEnd = 0;
+        charEnd = 0;
+    }
+
+    private static int nextGeneration() {
+        // zero is the generation of the indices created by the previous versions
+        int result;
+        do {
+            result = GENERATIONS.nextInt();
+        } while (result == 0);
+        return result;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private long countChars(long start, long end, Charset charset) throws IOException {
+        CharsetDecoder decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(DECODE_BUFFER_SIZE);
+        CharBuffer chars = CharBuffer.allocate(DECODE_BUFFER_SIZE);
+        long results = 0;
+        RandomAccessFile file = new RandomAccessFile(logFile, "r"); //$NON-NLS-1$
+        try {
+            FileChannel channel = file.getChannel();
+            long position = start;
+            boolean eof = false;
+            while (eof == false) {
+                int limit = (int) Math.min(bytes.remaining(), end - position);
+                ByteBuffer window = bytes.duplicate();
+                window.limit(window.position() + limit);
+                int read = limit == 0 ? -1 : channel.read(window, position);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    position += read;
+                    bytes.position(window.position());
+                }
+                bytes.flip();
+                CoderResult result = decoder.decode(bytes, chars, eof);
+                while (true) {
+                    results += chars.position();
+                    chars.clear();
+                    if (result.isOverflow() == false) {
+                        break;
+                    }
+                    result = decoder.decode(bytes, chars, eof);
+                }
+                bytes.compact();
+            }
+            while (decoder.flush(chars).isOverflow()) {
+                results += chars.position();
+                chars.clear();
+            }
+            results += chars.position();
+        } finally {
+            file.close();
+        }
+        return results;
+    }
+
+    /**
+     * Closes the index files.
+     * @throws IOException if failed to close the files
+     */
+    void close() throws IOException {
+        try {
+            index.close();
+        } finally {
+            try {
+                paths.close();
+            } finally {
+                hashes.close();
+            }
+        }
+    }
+
+    /**
+     * The records of the encoded entries, which are kept until the entries are written.
+     */
+    static final class Records {
+
+        final long position;
+
+        final List<LogEntry> entries;
+
+        final long[] snippetHashes;
+
+        final int[] byteLengths;
+
+        final int[] charLengths;
+
+        final long[] hashes;
+
+        final Charset charset;
+
+        /**
+         * Creates a new instance.
+         * @param position the byte offset where the entries are written in the log file
+         * @param entries the encoded entries
+         * @param snippetHashes the snippet hashes of the entries, or {@code 0} for entries without code blocks
+         * @param encoder the encoder which encoded the entries
+         */
+        Records(long position, List<LogEntry> entries, long[] snippetHashes, LogEncoder encoder) {
+            int size = entries.size();
+            this.position = position;
+            this.entries = entries;
+            this.snippetHashes = snippetHashes;
+            this.byteLengths = new int[size];
+            this.charLengths = new int[size];
+            this.hashes = new long[size];
+            for (int i = 0; i < size; i++) {
+                byteLengths[i] = encoder.getByteLength(i);
+                charLengths[i] = encoder.getCharLength(i);
+                hashes[i] = encoder.getHash(i);
+            }
+            this.charset = encoder.getCharset();
+        }
+    }
+}
@@ -0,0 +1,476 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.logs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.eclipse.core.runtime.IStatus;
+
+import com.ashigeru.eclipse.codereading.core.utils.TextLines;
+import com.ashigeru.eclipse.internal.codereading.ui.LogUtil;
+
+/**
+ * An append-only journal of log entries which are not yet confirmed on disk.
+ * Each entry is recorded with its checksum before it is written into the log file,
+ * and the recorded entries are replayed in the next session if they were not confirmed.
+ * The journal consists of segment files in a directory, and each segment is recycled
+ * as soon as all of its entries are confirmed.
+ * Each record has the following layout:
+<pre><code>
+int    RECORD_MAGIC
+int    payload length
+byte[] payload
+int    CRC32 of the payload
+</code></pre>
+ * The payload consists of the timestamp, line number, target log file, source path,
+ * and the content lines of the entry.
+ */
+final class LogJournal {
+
+    private static final int RECORD_MAGIC = 0x434a524c; // CJRL
+
+    private static final String SEGMENT_EXTENSION = ".journal"; //$NON-NLS-1$
+
+    private static final long SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Charset ENCODING = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private final File directory;
+
+    private final List<Segment> previous = new ArrayList<Segment>();
+
+    private final Map<LogEntry, Segment> pending = new IdentityHashMap<LogEntry, Segment>();
+
+    private long nextSequence;
+
+    private Segment active;
+
+    private RandomAccessFile activeFile;
+
+    /**
+     * Creates a new instance.
+     * This only lists the segments which were left by the previous sessions,
+     * and they are not read until {@link #recover()} is invoked.
+     * @param directory the journal directory
+     */
+    LogJournal(File directory) {
+        assert directory != null;
+        this.directory = directory;
+        for (File file : listSegments(directory)) {
+            long sequence = getSequence(file);
+            previous.add(new Segment(file));
+            nextSequence = Math.max(nextSequence, sequence + 1);
+        }
+    }
+
+    /**
+     * Returns whether the directory contains segments which were left by the previous sessions.
+     * @param directory the journal directory
+     * @return {@code true} if it contains them, otherwise {@code false}
+     */
+    static boolean exists(File directory) {
+        return listSegments(directory).isEmpty() == false;
+    }
+
+    private static List<File> listSegments(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        List<File> results = new ArrayList<File>();
+        for (File file : files) {
+            if (getSequence(file) >= 0) {
+                results.add(file);
+            }
+        }
+        Collections.sort(results);
+        return results;
+    }
+
+    private static long getSequence(File file) {
+        String name = file.getName();
+        if (name.endsWith(SEGMENT_EXTENSION) == false) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length()), 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the entries which were left by the previous sessions.
+     * The returned entries stay in the journal until they are confirmed.
+     * Each segment is read until its first broken record, which was torn by a crash.
+     * @return the recovered entries, in the order they were recorded
+     */
+    synchronized List<LogEntry> recover() {
+        List<LogEntry> results = new ArrayList<LogEntry>();
+        for (Segment segment : previous) {
+            List<LogEntry> entries;
+            try {
+                entries = read(segment.file);
+            } catch (IOException e) {
+                LogUtil.log(IStatus.WARNING, e, MessageFormat.format(
+                        "Failed to recover log entries from journal: {0}",
+                        segment.file));
+                entries = Collections.emptyList();
+            }
+            for (LogEntry entry : entries) {
+                pending.put(entry, segment);
+            }
+            segment.outstanding += entries.size();
+            if (segment.outstanding == 0) {
+                recycle(segment);
+            }
+            results.addAll(entries);
+        }
+        previous.clear();
+        return results;
+    }
+
+    private List<LogEntry> read(File file) throws IOException {
+        List<LogEntry> results = new ArrayList<LogEntry>();
+        long remaining = file.length();
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        try {
+            CRC32 checksum = new CRC32();
+            while (remaining > 0) {
+                if (remaining < 12 || input.readInt() != RECORD_MAGIC) {
+                    break;
+                }
+                int length = input.readInt();
+                if (length <= 0 || length > remaining - 12) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                input.readFully(payload);
+                int expected = input.readInt();
+                checksum.reset();
+                checksum.update(payload);
+                if ((int) checksum.getValue() != expected) {
+                    break;
+                }
+                results.add(decode(payload));
+                remaining -= length + 12;
+            }
+        } catch (EOFException e) {
+            // a torn record
+        } finally {
+            input.close();
+        }
+        if (remaining > 0) {
+            LogUtil.log(IStatus.WARNING, MessageFormat.format(
+                    "Dropped a broken record in journal: {0}",
+                    file));
+        }
+        return results;
+    }
+
+    private static LogEntry decode(byte[] payload) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+        long timestamp = input.readLong();
+        int lineNumber = input.readInt();
+        String file = readString(input);
+        String source = readString(input);
+        int count = input.readInt();
+        List<String> lines = new ArrayList<String>(Math.min(count, payload.length / 4));
+        for (int i = 0; i < count; i++) {
+            lines.add(readString(input));
+        }
+        if (file == null) {
+            throw new IOException();
+        }
+        return new LogEntry(new File(file), TextLines.of(lines), source, lineNumber, timestamp);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, ENCODING);
+    }
+
+    /**
+     * Records entries into the journal at once.
+     * The entries which have been already recorded are just ignored.
+     * If this operation was failed, the journal is rolled back to the previous state.
+     * @param entries the target entries
+     * @param force {@code true} to force the records to the storage device, otherwise {@code false}
+     * @throws IOException if failed to record the entries
+     */
+    synchronized void record(Collection<LogEntry> entries, boolean force) throws IOException {
+        List<LogEntry> targets = new ArrayList<LogEntry>(entries.size());
+        for (LogEntry entry : entries) {
+            if (pending.containsKey(entry) == false) {
+                targets.add(entry);
+            }
+        }
+        if (targets.isEmpty()) {
+            return;
+        }
+        if (active == null || activeFile.length() >= SEGMENT_SIZE) {
+            rotate();
+        }
+        FileChannel channel = activeFile.getChannel();
+        long start = channel.size();
+        boolean success = false;
+        try {
+            channel.position(start);
+            BufferedOutputStream buffer = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+            DataOutputStream output = new DataOutputStream(buffer);
+            CRC32 checksum = new CRC32();
+            DataOutputStream payload = new DataOutputStream(new CheckedOutputStream(buffer, checksum));
+            for (LogEntry entry : targets) {
+                int length = getPayloadLength(entry);
+                output.writeInt(RECORD_MAGIC);
+                output.writeInt(length);
+                checksum.reset();
+                int base = payload.size();
+                encode(entry, payload);
+                assert payload.size() - base == length;
+                output.writeInt((int) checksum.getValue());
+            }
+            output.flush();
+            if (force) {
+                channel.force(false);
+            }
+            success = true;
+        } finally {
+            if (success == false) {
+                channel.truncate(start);
+            }
+        }
+        for (LogEntry entry : targets) {
+            pending.put(entry, active);
+            active.outstanding++;
+        }
+    }
+
+    private static int getPayloadLength(LogEntry entry) throws IOException {
+        long result = 8 + 4;
+        result += getStringLength(entry.getFile().getPath());
+        result += getStringLength(entry.getSource());
+        result += 4;
+        for (CharSequence line : entry.getContents()) {
+            result += getStringLength(line);
+        }
+        if (result > Integer.MAX_VALUE) {
+            throw new IOException(MessageFormat.format(
+                    "Log entry is too large to be recorded into journal: {0}",
+                    entry.getFile()));
+        }
+        return (int) result;
+    }
+
+    private static void encode(LogEntry entry, DataOutputStream output) throws IOException {
+        output.writeLong(entry.getTimestamp());
+        output.writeInt(entry.getLineNumber());
+        writeString(output, entry.getFile().getPath());
+        writeString(output, entry.getSource());
+        TextLines contents = entry.getContents();
+        output.writeInt(contents.size());
+        for (CharSequence line : contents) {
+            writeString(output, line);
+        }
+    }
+
+    private static long getStringLength(CharSequence string) {
+        if (string == null) {
+            return 4;
+        }
+        long result = 4;
+        for (int i = 0, n = string.length(); i < n; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                result += 1;
+            } else if (c < 0x800) {
+                result += 2;
+            } else if (isSurrogatePair(string, i)) {
+                result += 4;
+                i++;
+            } else if (isSurrogate(c)) {
+                result += 1;
+            } else {
+                result += 3;
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Writes the string in UTF-8 without copying it.
+     * Each unpaired surrogate is replaced with '?' as same as String.getBytes().
+     */
+    private static void writeString(DataOutputStream output, CharSequence string) throws IOException {
+        if (string == null) {
+            output.writeInt(-1);
+            return;
+        }
+        output.writeInt((int) (getStringLength(string) - 4));
+        for (int i = 0, n = string.length(); i < n; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                output.write(c);
+            } else if (c < 0x800) {
+                output.write(0xc0 | (c >> 6));
+                output.write(0x80 | (c & 0x3f));
+            } else if (isSurrogatePair(string, i)) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                output.write(0xf0 | (codePoint >> 18));
+                output.write(0x80 | ((codePoint >> 12) & 0x3f));
+                output.write(0x80 | ((codePoint >> 6) & 0x3f));
+                output.write(0x80 | (codePoint & 0x3f));
+            } else if (isSurrogate(c)) {
+                output.write('?');
+            } else {
+                output.write(0xe0 | (c >> 12));
+                output.write(0x80 | ((c >> 6) & 0x3f));
+                output.write(0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private static boolean isSurrogatePair(CharSequence string, int index) {
+        return Character.isHighSurrogate(string.charAt(index))
+                && index + 1 < string.length()
+                && Character.isLowSurrogate(string.charAt(index + 1));
+    }
+
+    private static boolean isSurrogate(char c) {
+        return Character.MIN_SURROGATE <= c && c <= Character.MAX_SURROGATE;
+    }
+
+    private void rotate() throws IOException {
+        if (active != null) {
+            Segment last = active;
+            closeActive();
+            if (last.outstanding == 0) {
+                recycle(last);
+            }
+        }
+        if (directory.mkdirs() == false && directory.isDirectory() == false) {
+            throw new IOException(MessageFormat.format(
+                    "Failed to create journal directory: {0}",
+                    directory));
+        }
+        String name = String.format("%016x%s", nextSequence++, SEGMENT_EXTENSION); //$NON-NLS-1$
+        Segment segment = new Segment(new File(directory, name));
+        activeFile = new RandomAccessFile(segment.file, "rw"); //$NON-NLS-1$
+        activeFile.setLength(0);
+        active = segment;
+    }
+
+    /**
+     * Confirms that the entries are written into their log files.
+     * The entries which are not in this journal are just ignored.
+     * @param entries the confirmed entries
+     */
+    synchronized void confirm(Collection<LogEntry> entries) {
+        for (LogEntry entry : entries) {
+            Segment segment = pending.remove(entry);
+            if (segment != null) {
+                segment.outstanding--;
+                if (segment.outstanding == 0) {
+                    recycle(segment);
+                }
+            }
+        }
+    }
+
+    private void recycle(Segment segment) {
+        assert segment.outstanding == 0;
+        if (segment == active) {
+            // reuses the active segment from its head
+            try {
+                activeFile.setLength(0);
+            } catch (IOException e) {
+                LogUtil.log(IStatus.WARNING, e, MessageFormat.format(
+                        "Failed to recycle journal: {0}",
+                        segment.file));
+            }
+        } else if (segment.file.delete() == false && segment.file.exists()) {
+            LogUtil.log(IStatus.WARNING, MessageFormat.format(
+                    "Failed to delete journal: {0}",
+                    segment.file));
+        }
+    }
+
+    /**
+     * Closes the active segment.
+     * The segments which still have unconfirmed entries are left for the next session.
+     */
+    synchronized void close() {
+        if (active != null) {
+            Segment last = active;
+            closeActive();
+            if (last.outstanding == 0) {
+                recycle(last);
+            }
+        }
+    }
+
+    private void closeActive() {
+        assert active != null;
+        try {
+            activeFile.close();
+        } catch (IOException e) {
+            LogUtil.log(IStatus.WARNING, e, MessageFormat.format(
+                    "Failed to close journal: {0}",
+                    active.file));
+        }
+        activeFile = null;
+        active = null;
+    }
+
+    private static final class Segment {
+
+        final File file;
+
+        int outstanding;
+
+        Segment(File file) {
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.logs;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.ResourcesPlugin;
+
+import com.ashigeru.eclipse.internal.codereading.ui.Activator;
+
+/**
+ * Locates the files which belong to log files.
+ * The sidecar indices of log files in the workspace are placed under the plug-in state location,
+ * so that they never appear in the projects as out-of-sync resources.
+ * The sidecar indices of the other log files are placed next to them,
+ * so that the other processes can also update the same indices.
+ */
+final class LogLocations {
+
+    private static final String SIDECAR_DIRECTORY = "indices"; //$NON-NLS-1$
+
+    private static final Charset KEY_ENCODING = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    /**
+     * Returns the workspace file of the file.
+     * @param file the target file
+     * @return the workspace file in an open project, or {@code null} if it is not in the workspace
+     */
+    static IFile findResource(File file) {
+        assert file != null;
+        if (ResourcesPlugin.getPlugin() == null) {
+            // the workspace is not available
+            return null;
+        }
+        IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+        for (IFile candidate : root.findFilesForLocationURI(file.getAbsoluteFile().toURI())) {
+            if (candidate.getProject().isOpen()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the base path of the sidecar files of the log file.
+     * Each sidecar file is named by the base path with its own extension.
+     * @param logFile the log file
+     * @return the base path
+     */
+    static File getSidecarBase(File logFile) {
+        assert logFile != null;
+        Activator activator = Activator.getDefault();
+        if (activator == null || findResource(logFile) == null) {
+            return logFile;
+        }
+        // keyed by the log file location, and keeps its name for troubleshooting
+        String key = UUID.nameUUIDFromBytes(logFile.getAbsolutePath().getBytes(KEY_ENCODING)).toString();
+        File directory = activator.getStateLocation().append(SIDECAR_DIRECTORY).append(key).toFile();
+        return new File(directory, logFile.getName());
+    }
+
+    private LogLocations() {
+        return;
+    }
+}
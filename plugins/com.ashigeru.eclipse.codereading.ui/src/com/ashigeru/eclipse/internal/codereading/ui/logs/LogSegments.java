@@ -0,0 +1,490 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.logs;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Utilities about segmented log files.
+ * A segmented log file is a logical log which consists of the following files:
+ * <ul>
+ * <li> {@code <log-file>} - the active segment, where new entries are appended </li>
+ * <li> {@code <log-file>.<sequence>.gz} - the closed segments, compressed in GZIP format </li>
+ * <li> {@code <log-file>.segments} - the manifest of the closed segments </li>
+ * </ul>
+ * Each line in the manifest consists of the file name, the uncompressed size,
+ * and the time when it was closed, separated by horizontal tabs.
+ * The segments are listed in the order they were closed.
+ * The active segment is rolled by {@link LogAppender}, and its sidecar indices are kept as the ones of the closed segment,
+ * so that {@link LogIndex#open(File)} and {@link LogTermIndex#open(File)} also accept each closed segment.
+ * If the log file is in the workspace, all of these files are created and updated through the workspace.
+ */
+public final class LogSegments {
+
+    private static final Charset MANIFEST_ENCODING = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private static final String ARCHIVE_EXTENSION = ".gz"; //$NON-NLS-1$
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Returns the manifest file of the log file.
+     * @param logFile the log file
+     * @return the manifest file
+     */
+    public static File getManifestFile(File logFile) {
+        return new File(logFile.getPath() + ".segments"); //$NON-NLS-1$
+    }
+
+    /**
+     * Returns whether the log file is segmented.
+     * @param logFile the log file
+     * @return {@code true} if it is segmented, otherwise {@code false}
+     */
+    public static boolean isSegmented(File logFile) {
+        if (logFile == null) {
+            throw new IllegalArgumentException("logFile must not be null"); //$NON-NLS-1$
+        }
+        return getManifestFile(logFile).isFile();
+    }
+
+    /**
+     * Makes the log file segmented.
+     * This does nothing if it is already segmented.
+     * This may wait for the workspace, so that clients should use {@link LogAppender#enableSegments(File)} instead.
+     * @param logFile the log file
+     * @throws IOException if failed to create the manifest
+     */
+    public static void enable(File logFile) throws IOException {
+        if (logFile == null) {
+            throw new IllegalArgumentException("logFile must not be null"); //$NON-NLS-1$
+        }
+        File manifest = getManifestFile(logFile);
+        File parent = manifest.getAbsoluteFile().getParentFile();
+        if (parent.mkdirs() == false && parent.isDirectory() == false) {
+            throw new IOException(MessageFormat.format(
+                    "Failed to create directory for create log file: {0}",
+                    parent));
+        }
+        if (manifest.createNewFile() == false && manifest.isFile() == false) {
+            throw new IOException(MessageFormat.format(
+                    "Failed to create segment manifest: {0}",
+                    manifest));
+        }
+        IFile resource = LogLocations.findResource(manifest);
+        if (resource != null && resource.exists() == false) {
+            try {
+                resource.refreshLocal(IResource.DEPTH_ZERO, null);
+            } catch (CoreException e) {
+                throw new IOException(MessageFormat.format(
+                        "Failed to refresh segment manifest: {0}",
+                        resource.getFullPath()), e);
+            }
+        }
+    }
+
+    /**
+     * Returns the closed segments of the log file.
+     * @param logFile the log file
+     * @return the closed segments in the order they were closed, or an empty list if it is not segmented
+     * @throws IOException if failed to read the manifest
+     */
+    public static List<File> getClosedSegments(File logFile) throws IOException {
+        if (logFile == null) {
+            throw new IllegalArgumentException("logFile must not be null"); //$NON-NLS-1$
+        }
+        File parent = logFile.getAbsoluteFile().getParentFile();
+        List<File> results = new ArrayList<File>();
+        for (String[] fields : readManifest(logFile)) {
+            results.add(new File(parent, fields[0]));
+        }
+        return results;
+    }
+
+    private static List<String[]> readManifest(File logFile) throws IOException {
+        List<String[]> results = new ArrayList<String[]>();
+        InputStream input;
+        try {
+            input = new FileInputStream(getManifestFile(logFile));
+        } catch (FileNotFoundException e) {
+            return results;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input, MANIFEST_ENCODING));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t"); //$NON-NLS-1$
+                if (fields[0].isEmpty() == false) {
+                    results.add(fields);
+                }
+            }
+        } finally {
+            input.close();
+        }
+        return results;
+    }
+
+    /**
+     * Opens the whole history of the log file.
+     * The resulting stream reads the closed segments in order, and then reads the active segment.
+     * @param logFile the log file
+     * @return the stream of the whole history, in the log file encoding
+     * @throws IOException if failed to read the manifest
+     */
+    public static InputStream openHistory(File logFile) throws IOException {
+        if (logFile == null) {
+            throw new IllegalArgumentException("logFile must not be null"); //$NON-NLS-1$
+        }
+        List<File> segments = getClosedSegments(logFile);
+        segments.add(logFile);
+        return new HistoryInputStream(segments.iterator());
+    }
+
+    /**
+     * Opens a segment of the log file.
+     * @param segment the active segment, or one of the closed segments
+     * @return the stream of the uncompressed segment contents
+     * @throws IOException if failed to open the segment
+     */
+    static InputStream open(File segment) throws IOException {
+        if (segment.getName().endsWith(ARCHIVE_EXTENSION) == false) {
+            return new FileInputStream(segment);
+        }
+        InputStream input = new FileInputStream(segment);
+        boolean success = false;
+        try {
+            InputStream result = new GZIPInputStream(input, BUFFER_SIZE);
+            success = true;
+            return result;
+        } finally {
+            if (success == false) {
+                input.close();
+            }
+        }
+    }
+
+    /**
+     * Closes the current contents of the active segment, and then truncates it.
+     * The contents are compressed into a new segment file, which is forced to the storage device
+     * before it is registered into the manifest.
+     * This must be invoked while holding the lock of the log file,
+     * or the scheduling rule of the log file and its parent if it is in the workspace.
+     * @param logFile the log file
+     * @param channel the writable channel of the active segment
+     * @param resource the workspace file of the log file, or {@code null} if it is not in the workspace
+     * @throws IOException if failed to roll the segment
+     */
+    static void roll(File logFile, FileChannel channel, IFile resource) throws IOException {
+        File parent = logFile.getAbsoluteFile().getParentFile();
+        List<String[]> manifest = readManifest(logFile);
+        int sequence = manifest.size() + 1;
+        File archive;
+        do {
+            archive = new File(parent, String.format(
+                    "%s.%06d%s", //$NON-NLS-1$
+                    logFile.getName(),
+                    sequence++,
+                    ARCHIVE_EXTENSION));
+        } while (archive.exists());
+
+        long size = channel.size();
+        String line = String.format("%s\t%d\t%d%n", //$NON-NLS-1$
+                archive.getName(),
+                size,
+                System.currentTimeMillis());
+        if (resource == null) {
+            rollFile(logFile, channel, archive, size, line);
+        } else {
+            rollResource(logFile, resource, archive, size, line);
+        }
+    }
+
+    private static void rollFile(
+            File logFile,
+            FileChannel channel,
+            File archive,
+            long size,
+            String line) throws IOException {
+        File temporary = new File(archive.getPath() + ".tmp"); //$NON-NLS-1$
+        FileOutputStream output = new FileOutputStream(temporary);
+        boolean success = false;
+        try {
+            compress(logFile, size, output);
+            success = true;
+        } finally {
+            output.close();
+            if (success == false) {
+                temporary.delete();
+            }
+        }
+        if (temporary.renameTo(archive) == false) {
+            temporary.delete();
+            throw new IOException(MessageFormat.format(
+                    "Failed to create log segment: {0}",
+                    archive));
+        }
+        keepIndices(logFile, archive, size);
+
+        FileOutputStream manifestOutput = new FileOutputStream(getManifestFile(logFile), true);
+        try {
+            manifestOutput.write(line.getBytes(MANIFEST_ENCODING));
+            manifestOutput.getFD().sync();
+        } finally {
+            manifestOutput.close();
+        }
+
+        // the contents are now in the closed segment
+        channel.truncate(0);
+    }
+
+    /*
+     * Rolls the workspace file in the same order, so that each file never becomes out of sync.
+     */
+    private static void rollResource(
+            File logFile,
+            IFile resource,
+            File archive,
+            long size,
+            String line) throws IOException {
+        IContainer container = resource.getParent();
+        File temporary = File.createTempFile("codereading", ARCHIVE_EXTENSION); //$NON-NLS-1$
+        try {
+            FileOutputStream output = new FileOutputStream(temporary);
+            try {
+                compress(logFile, size, output);
+            } finally {
+                output.close();
+            }
+            IFile archiveResource = container.getFile(new Path(archive.getName()));
+            InputStream input = new FileInputStream(temporary);
+            try {
+                archiveResource.create(input, IResource.FORCE, null);
+            } catch (CoreException e) {
+                throw new IOException(MessageFormat.format(
+                        "Failed to create log segment: {0}",
+                        archiveResource.getFullPath()), e);
+            } finally {
+                input.close();
+            }
+            force(archive);
+        } finally {
+            temporary.delete();
+        }
+        keepIndices(logFile, archive, size);
+
+        File manifest = getManifestFile(logFile);
+        IFile manifestResource = container.getFile(new Path(manifest.getName()));
+        try {
+            if (manifestResource.exists() == false) {
+                manifestResource.refreshLocal(IResource.DEPTH_ZERO, null);
+            }
+            manifestResource.appendContents(
+                    new ByteArrayInputStream(line.getBytes(MANIFEST_ENCODING)),
+                    IResource.FORCE,
+                    null);
+        } catch (CoreException e) {
+            throw new IOException(MessageFormat.format(
+                    "Failed to update segment manifest: {0}",
+                    manifestResource.getFullPath()), e);
+        }
+        force(manifest);
+
+        // the contents are now in the closed segment
+        try {
+            resource.setContents(new ByteArrayInputStream(new byte[0]), IResource.FORCE, null);
+        } catch (CoreException e) {
+            throw new IOException(MessageFormat.format(
+                    "Failed to truncate log file: {0}",
+                    resource.getFullPath()), e);
+        }
+    }
+
+    /*
+     * Copies the sidecar indices of the active segment for the closed segment.
+     * The active ones are still open, and they will be reset by the next append.
+     */
+    private static void keepIndices(File logFile, File archive, long size) throws IOException {
+        LogIndex index = LogIndex.open(logFile);
+        if (index.size() == 0) {
+            return;
+        }
+        LogIndexEntry last = index.get(index.size() - 1);
+        if (last.getByteOffset() + last.getByteLength() != size) {
+            // the index does not cover the whole segment
+            return;
+        }
+        copy(LogIndex.getIndexFile(logFile), LogIndex.getIndexFile(archive));
+        copy(LogIndex.getPathsFile(logFile), LogIndex.getPathsFile(archive));
+        copy(LogTermIndex.getPostingsFile(logFile), LogTermIndex.getPostingsFile(archive));
+
+        // closed segments are never appended, so that their dictionaries are compacted at once
+        byte[] terms = LogTermIndex.compactTerms(LogTermIndex.readTerms(logFile), LogTermIndex.NO_GENERATION);
+        FileOutputStream output = new FileOutputStream(LogTermIndex.getTermsFile(archive));
+        try {
+            output.write(terms);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static void copy(File source, File destination) throws IOException {
+        if (source.isFile() == false) {
+            return;
+        }
+        File parent = destination.getAbsoluteFile().getParentFile();
+        if (parent.mkdirs() == false && parent.isDirectory() == false) {
+            throw new IOException(MessageFormat.format(
+                    "Failed to create directory for log index: {0}",
+                    parent));
+        }
+        FileInputStream input = new FileInputStream(source);
+        try {
+            FileOutputStream output = new FileOutputStream(destination);
+            try {
+                FileChannel from = input.getChannel();
+                long size = from.size();
+                long position = 0;
+                while (position < size) {
+                    position += from.transferTo(position, size - position, output.getChannel());
+                }
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void force(File file) throws IOException {
+        FileOutputStream output = new FileOutputStream(file, true);
+        try {
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+    }
+
+    private static void compress(File logFile, long size, FileOutputStream output) throws IOException {
+        GZIPOutputStream compressed = new GZIPOutputStream(output, BUFFER_SIZE);
+        InputStream input = new FileInputStream(logFile);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long rest = size;
+            while (rest > 0) {
+                int read = input.read(buffer, 0, (int) Math.min(buffer.length, rest));
+                if (read < 0) {
+                    throw new IOException(MessageFormat.format(
+                            "Log file was truncated while rolling: {0}",
+                            logFile));
+                }
+                compressed.write(buffer, 0, read);
+                rest -= read;
+            }
+        } finally {
+            input.close();
+        }
+        compressed.finish();
+        compressed.flush();
+        output.getFD().sync();
+    }
+
+    private LogSegments() {
+        return;
+    }
+
+    private static final class HistoryInputStream extends InputStream {
+
+        private final Iterator<File> rest;
+
+        private InputStream current;
+
+        HistoryInputStream(Iterator<File> segments) {
+            this.rest = segments;
+        }
+
+        @Override
+        public int read() throws IOException {
+            while (prepare()) {
+                int c = current.read();
+                if (c >= 0) {
+                    return c;
+                }
+                next();
+            }
+            return -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (prepare()) {
+                int read = current.read(b, off, len);
+                if (read > 0) {
+                    return read;
+                }
+                next();
+            }
+            return -1;
+        }
+
+        private boolean prepare() throws IOException {
+            if (current == null && rest.hasNext()) {
+                current = open(rest.next());
+            }
+            return current != null;
+        }
+
+        private void next() throws IOException {
+            InputStream finished = current;
+            current = null;
+            finished.close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                next();
+            }
+            while (rest.hasNext()) {
+                rest.next();
+            }
+        }
+    }
+}
@@ -0,0 +1,389 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.logs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A memory-mapped full-text index of a log file.
+ * The index consists of two files next to the log file, or under the plug-in state location for workspace files:
+ * <ul>
+ * <li> {@code <log-file>.postings} - a header and posting chunks </li>
+ * <li> {@code <log-file>.terms} - the latest chunk offset of each token </li>
+ * </ul>
+ * Each posting chunk contains the ascending entry IDs (positions in {@link LogIndex}) of a token
+ * as variable-length deltas, and the offset of the previous chunk of the same token.
+ * The token dictionary is appended for each batch, and it is compacted into one record for each token
+ * when it has grown enough. A compacted dictionary starts with a record of the empty token,
+ * whose offset is the compaction generation.
+ * While the dictionary is compacted, its compacted contents are kept in {@code <log-file>.terms.compact}.
+ * Index files are written by {@link LogAppender}.
+ */
+public final class LogTermIndex {
+
+    static final int MAGIC = 0x43525450; // CRTP
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 12;
+
+    static final int FIELD_INDEXED_COUNT = 8;
+
+    static final long NO_CHUNK = -1L;
+
+    static final long NO_GENERATION = 0L;
+
+    static final int GENERATION_RECORD_SIZE = 12;
+
+    static final Charset TOKEN_ENCODING = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private static final int[] EMPTY_POSTINGS = new int[0];
+
+    private static final LogTermIndex EMPTY = new LogTermIndex(
+            Collections.<String, Long>emptyMap(),
+            ByteBuffer.allocate(0));
+
+    private final Map<String, Long> heads;
+
+    private final ByteBuffer postings;
+
+    private LogTermIndex(Map<String, Long> heads, ByteBuffer postings) {
+        this.heads = heads;
+        this.postings = postings;
+    }
+
+    /**
+     * Returns the token dictionary file of the log file.
+     * @param logFile the log file
+     * @return the token dictionary file
+     */
+    public static File getTermsFile(File logFile) {
+        return new File(LogLocations.getSidecarBase(logFile).getPath() + ".terms"); //$NON-NLS-1$
+    }
+
+    /**
+     * Returns the temporary token dictionary file, which exists only while the dictionary is compacted.
+     * @param logFile the log file
+     * @return the temporary token dictionary file
+     */
+    static File getCompactedTermsFile(File logFile) {
+        return new File(getTermsFile(logFile).getPath() + ".compact"); //$NON-NLS-1$
+    }
+
+    /**
+     * Returns the posting file of the log file.
+     * @param logFile the log file
+     * @return the posting file
+     */
+    public static File getPostingsFile(File logFile) {
+        return new File(LogLocations.getSidecarBase(logFile).getPath() + ".postings"); //$NON-NLS-1$
+    }
+
+    /**
+     * Opens the current snapshot of the full-text index for the log file.
+     * @param logFile the log file
+     * @return the index, or an empty index if the log file has not been indexed yet
+     * @throws IOException if failed to open the index
+     */
+    public static LogTermIndex open(File logFile) throws IOException {
+        if (logFile == null) {
+            throw new IllegalArgumentException("logFile must not be null"); //$NON-NLS-1$
+        }
+        File postingsFile = getPostingsFile(logFile);
+        if (postingsFile.isFile() == false) {
+            return EMPTY;
+        }
+        ByteBuffer postings;
+        RandomAccessFile file = new RandomAccessFile(postingsFile, "r"); //$NON-NLS-1$
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return EMPTY;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(MessageFormat.format(
+                        "Log full-text index is too large: {0}",
+                        postingsFile));
+            }
+            postings = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            file.close();
+        }
+        checkHeader(postingsFile, postings);
+        return new LogTermIndex(readTerms(logFile), postings);
+    }
+
+    /**
+     * Reads the latest chunk offset of each token in the token dictionary of the log file.
+     * @param logFile the log file
+     * @return the latest chunk offset of each token
+     * @throws IOException if failed to read the dictionary
+     */
+    static Map<String, Long> readTerms(File logFile) throws IOException {
+        Map<String, Long> results = new HashMap<String, Long>();
+        File compacted = getCompactedTermsFile(logFile);
+        // the dictionary is being compacted
+        readTerms(compacted.isFile() ? compacted : getTermsFile(logFile), 0, results);
+        return results;
+    }
+
+    static void checkHeader(File postingsFile, ByteBuffer header) throws IOException {
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException(MessageFormat.format(
+                    "Unsupported log full-text index format: {0}",
+                    postingsFile));
+        }
+    }
+
+    /**
+     * Reads complete records in the token dictionary file.
+     * Each record consists of the token length in bytes, the token, and the offset of its latest chunk.
+     * @param termsFile the token dictionary file
+     * @param offset the starting byte offset
+     * @param heads the destination, which maps each token to its latest chunk offset
+     * @return the number of consumed bytes
+     * @throws IOException if failed to read the file
+     */
+    static long readTerms(File termsFile, long offset, Map<String, Long> heads) throws IOException {
+        if (termsFile.isFile() == false) {
+            return 0;
+        }
+        byte[] bytes;
+        RandomAccessFile file = new RandomAccessFile(termsFile, "r"); //$NON-NLS-1$
+        try {
+            long length = file.length() - offset;
+            if (length <= 0) {
+                return 0;
+            }
+            bytes = new byte[(int) length];
+            file.seek(offset);
+            file.readFully(bytes);
+        } finally {
+            file.close();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.remaining() >= 4) {
+            int start = buffer.position();
+            int tokenLength = buffer.getInt();
+            if (tokenLength < 0 || buffer.remaining() < tokenLength + 8) {
+                buffer.position(start);
+                break;
+            }
+            String token = new String(bytes, buffer.position(), tokenLength, TOKEN_ENCODING);
+            buffer.position(buffer.position() + tokenLength);
+            long chunk = buffer.getLong();
+            if (tokenLength > 0) {
+                heads.put(token, chunk);
+            }
+        }
+        return buffer.position();
+    }
+
+    /**
+     * Returns the compaction generation of the token dictionary.
+     * @param head the head of the token dictionary file
+     * @param length the number of available bytes in the head
+     * @return the generation, or {@link #NO_GENERATION} if the dictionary has never been compacted
+     */
+    static long getGeneration(ByteBuffer head, int length) {
+        if (length < GENERATION_RECORD_SIZE || head.getInt(0) != 0) {
+            return NO_GENERATION;
+        }
+        return head.getLong(4);
+    }
+
+    /**
+     * Returns the compacted contents of the token dictionary.
+     * @param heads the latest chunk offset of each token
+     * @param generation the compaction generation
+     * @return the contents
+     * @throws IOException if failed to encode the tokens
+     */
+    static byte[] compactTerms(Map<String, Long> heads, long generation) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        // the empty token never appears in the index
+        output.writeInt(0);
+        output.writeLong(generation);
+        for (Map.Entry<String, Long> entry : heads.entrySet()) {
+            byte[] token = entry.getKey().getBytes(TOKEN_ENCODING);
+            output.writeInt(token.length);
+            output.write(token);
+            output.writeLong(entry.getValue());
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the number of distinct tokens.
+     * @return the number of tokens
+     */
+    public int getTokenCount() {
+        return heads.size();
+    }
+
+    /**
+     * Returns the IDs of entries which contain the token.
+     * @param token the token
+     * @return the ascending entry IDs
+     */
+    public int[] getPostings(String token) {
+        if (token == null) {
+            throw new IllegalArgumentException("token must not be null"); //$NON-NLS-1$
+        }
+        Long head = heads.get(token);
+        if (head == null) {
+            return EMPTY_POSTINGS;
+        }
+        List<int[]> chunks = new ArrayList<int[]>();
+        int total = 0;
+        for (long offset = head; 0 <= offset && offset < postings.capacity();) {
+            int[] chunk = readChunk((int) offset);
+            chunks.add(chunk);
+            total += chunk.length;
+            offset = postings.getLong((int) offset);
+        }
+        int[] results = new int[total];
+        int position = 0;
+        for (int i = chunks.size() - 1; i >= 0; i--) {
+            int[] chunk = chunks.get(i);
+            System.arraycopy(chunk, 0, results, position, chunk.length);
+            position += chunk.length;
+        }
+        return results;
+    }
+
+    private int[] readChunk(int offset) {
+        int[] position = { offset + 8 };
+        int count = readVarint(position);
+        int[] results = new int[count];
+        int last = 0;
+        for (int i = 0; i < count; i++) {
+            last += readVarint(position);
+            results[i] = last;
+        }
+        return results;
+    }
+
+    private int readVarint(int[] position) {
+        int result = 0;
+        int shift = 0;
+        while (true) {
+            byte b = postings.get(position[0]++);
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+            shift += 7;
+        }
+    }
+
+    /**
+     * Returns the IDs of entries which match all terms in the query.
+     * Each identifier in the query matches entries which contain it as a whole, or contain all of its parts.
+     * @param query the search query
+     * @return the descending entry IDs, from the newest one
+     */
+    public int[] search(String query) {
+        if (query == null) {
+            throw new IllegalArgumentException("query must not be null"); //$NON-NLS-1$
+        }
+        List<List<String>> terms = LogTokenizer.tokenizeQuery(query);
+        if (terms.isEmpty()) {
+            return EMPTY_POSTINGS;
+        }
+        int[] results = null;
+        for (List<String> term : terms) {
+            int[] list = getPostings(term);
+            results = results == null ? list : intersect(results, list);
+            if (results.length == 0) {
+                return EMPTY_POSTINGS;
+            }
+        }
+        for (int i = 0, j = results.length - 1; i < j; i++, j--) {
+            int t = results[i];
+            results[i] = results[j];
+            results[j] = t;
+        }
+        return results;
+    }
+
+    private int[] getPostings(List<String> term) {
+        int[] whole = getPostings(term.get(0));
+        if (term.size() == 1) {
+            return whole;
+        }
+        int[] parts = getPostings(term.get(1));
+        for (int i = 2, n = term.size(); i < n && parts.length > 0; i++) {
+            parts = intersect(parts, getPostings(term.get(i)));
+        }
+        return union(whole, parts);
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        int[] results = new int[a.length + b.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (j >= b.length || (i < a.length && a[i] < b[j])) {
+                results[count++] = a[i++];
+            } else if (i >= a.length || a[i] > b[j]) {
+                results[count++] = b[j++];
+            } else {
+                results[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(results, count);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] results = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                results[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(results, count);
+    }
+}
@@ -0,0 +1,324 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.logs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Appends posting chunks into {@link LogTermIndex}.
+ * Each operation must be invoked while holding the lock of the log file,
+ * so that the other processes can also update the same index.
+ */
+final class LogTermIndexWriter {
+
+    private static final long COMPACT_THRESHOLD = 256 * 1024;
+
+    private static final Random GENERATIONS = new Random();
+
+    private final File postingsFile;
+
+    private final File termsFile;
+
+    private final File compactedFile;
+
+    private final RandomAccessFile postings;
+
+    private final RandomAccessFile terms;
+
+    private final Map<String, Long> heads = new HashMap<String, Long>();
+
+    private long termsLength;
+
+    private long termsGeneration;
+
+    private long nextCompaction = COMPACT_THRESHOLD;
+
+    /**
+     * Creates a new instance.
+     * @param logFile the target log file
+     * @throws IOException if failed to open the index files
+     */
+    LogTermIndexWriter(File logFile) throws IOException {
+        this.postingsFile = LogTermIndex.getPostingsFile(logFile);
+        this.termsFile = LogTermIndex.getTermsFile(logFile);
+        this.compactedFile = LogTermIndex.getCompactedTermsFile(logFile);
+        this.postings = new RandomAccessFile(postingsFile, "rw"); //$NON-NLS-1$
+        boolean success = false;
+        try {
+            this.terms = new RandomAccessFile(termsFile, "rw"); //$NON-NLS-1$
+            success = true;
+        } finally {
+            if (success == false) {
+                postings.close();
+            }
+        }
+    }
+
+    /**
+     * Appends posting chunks of the entries.
+     * @param firstId the ID of the first entry
+     * @param entries the appended entries
+     * @throws IOException if failed to update the index
+     */
+    void append(int firstId, List<LogEntry> entries) throws IOException {
+        refresh(firstId);
+        Map<String, int[]> batch = new LinkedHashMap<String, int[]>();
+        Set<String> tokens = new HashSet<String>();
+        for (int i = 0, n = entries.size(); i < n; i++) {
+            tokens.clear();
+            LogTokenizer.tokenize(entries.get(i).getContents(), tokens);
+            for (String token : tokens) {
+                int[] ids = batch.get(token);
+                if (ids == null) {
+                    // ids[0] is the number of IDs
+                    ids = new int[4];
+                    batch.put(token, ids);
+                } else if (ids[0] + 1 == ids.length) {
+                    ids = Arrays.copyOf(ids, ids.length * 2);
+                    batch.put(token, ids);
+                }
+                ids[++ids[0]] = firstId + i;
+            }
+        }
+
+        long base = postings.length();
+        ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream();
+        DataOutputStream chunkOutput = new DataOutputStream(chunkBytes);
+        ByteArrayOutputStream termBytes = new ByteArrayOutputStream();
+        DataOutputStream termOutput = new DataOutputStream(termBytes);
+        for (Map.Entry<String, int[]> entry : batch.entrySet()) {
+            String token = entry.getKey();
+            int[] ids = entry.getValue();
+            long offset = base + chunkOutput.size();
+            Long previous = heads.get(token);
+            chunkOutput.writeLong(previous == null ? LogTermIndex.NO_CHUNK : previous);
+            writeVarint(chunkOutput, ids[0]);
+            int last = 0;
+            for (int i = 1; i <= ids[0]; i++) {
+                writeVarint(chunkOutput, ids[i] - last);
+                last = ids[i];
+            }
+            byte[] tokenBytes = token.getBytes(LogTermIndex.TOKEN_ENCODING);
+            termOutput.writeInt(tokenBytes.length);
+            termOutput.write(tokenBytes);
+            termOutput.writeLong(offset);
+            heads.put(token, offset);
+        }
+
+        // chunks must be written before they become reachable from the terms
+        write(postings, base, chunkBytes.toByteArray());
+        write(terms, termsLength, termBytes.toByteArray());
+        termsLength += termBytes.size();
+        ByteBuffer count = ByteBuffer.allocate(4);
+        count.putInt(0, firstId + entries.size());
+        write(postings, LogTermIndex.FIELD_INDEXED_COUNT, count.array());
+        if (termsLength >= nextCompaction) {
+            compact();
+        }
+    }
+
+    /*
+     * Rewrites the token dictionary into one record for each token, if it has many overwritten records.
+     * The compacted contents are saved before the dictionary is rewritten in place,
+     * so that they are restored in the next operation even if this was interrupted.
+     */
+    private void compact() throws IOException {
+        long generation = nextGeneration();
+        byte[] contents = LogTermIndex.compactTerms(heads, generation);
+        nextCompaction = Math.max(COMPACT_THRESHOLD, contents.length * 2L);
+        if (contents.length * 2L > termsLength) {
+            return;
+        }
+        File temporary = new File(compactedFile.getPath() + ".tmp"); //$NON-NLS-1$
+        FileOutputStream output = new FileOutputStream(temporary);
+        try {
+            output.write(contents);
+            output.getChannel().force(false);
+        } finally {
+            output.close();
+        }
+        if (temporary.renameTo(compactedFile) == false) {
+            temporary.delete();
+            throw new IOException(MessageFormat.format(
+                    "Failed to compact log full-text index: {0}",
+                    termsFile));
+        }
+        install(contents);
+        termsLength = contents.length;
+        termsGeneration = generation;
+    }
+
+    /*
+     * Rewrites the token dictionary in place.
+     * Its generation is written at last, so that the incomplete dictionary is detected by the generation.
+     */
+    private void install(byte[] contents) throws IOException {
+        int head = LogTermIndex.GENERATION_RECORD_SIZE;
+        terms.seek(head);
+        terms.write(contents, head, contents.length - head);
+        terms.setLength(contents.length);
+        terms.seek(0);
+        terms.write(contents, 0, head);
+        terms.getChannel().force(false);
+        if (compactedFile.delete() == false) {
+            throw new IOException(MessageFormat.format(
+                    "Failed to compact log full-text index: {0}",
+                    termsFile));
+        }
+    }
+
+    /*
+     * Completes the compaction which was interrupted.
+     */
+    private void restore() throws IOException {
+        byte[] contents = new byte[(int) compactedFile.length()];
+        DataInputStream input = new DataInputStream(new FileInputStream(compactedFile));
+        try {
+            input.readFully(contents);
+        } finally {
+            input.close();
+        }
+        long generation = LogTermIndex.getGeneration(ByteBuffer.wrap(contents), contents.length);
+        if (generation != getTermsGeneration()) {
+            install(contents);
+        } else if (compactedFile.delete() == false) {
+            throw new IOException(MessageFormat.format(
+                    "Failed to compact log full-text index: {0}",
+                    termsFile));
+        }
+    }
+
+    private long getTermsGeneration() throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(LogTermIndex.GENERATION_RECORD_SIZE);
+        FileChannel channel = terms.getChannel();
+        while (head.hasRemaining()) {
+            if (channel.read(head, head.position()) < 0) {
+                break;
+            }
+        }
+        return LogTermIndex.getGeneration(head, head.position());
+    }
+
+    private static long nextGeneration() {
+        long result;
+        do {
+            result = GENERATIONS.nextLong();
+        } while (result == LogTermIndex.NO_GENERATION);
+        return result;
+    }
+
+    private static void writeVarint(DataOutputStream output, int value) throws IOException {
+        int rest = value;
+        while ((rest & ~0x7f) != 0) {
+            output.writeByte((rest & 0x7f) | 0x80);
+            rest >>>= 7;
+        }
+        output.writeByte(rest);
+    }
+
+    private static void write(RandomAccessFile file, long offset, byte[] bytes) throws IOException {
+        file.seek(offset);
+        file.write(bytes);
+    }
+
+    /*
+     * Reads the tokens which were added after the last operation,
+     * or resets the index if it was created for the previous contents of the log file.
+     */
+    private void refresh(int firstId) throws IOException {
+        FileChannel channel = postings.getChannel();
+        if (channel.size() < LogTermIndex.HEADER_SIZE) {
+            reset();
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(LogTermIndex.HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException();
+            }
+        }
+        LogTermIndex.checkHeader(postingsFile, header);
+        if (header.getInt(LogTermIndex.FIELD_INDEXED_COUNT) > firstId) {
+            // the log index was reset
+            reset();
+            return;
+        }
+        if (compactedFile.isFile()) {
+            restore();
+        }
+        long generation = getTermsGeneration();
+        if (generation != termsGeneration || terms.length() < termsLength) {
+            // the dictionary was compacted by the other processes
+            heads.clear();
+            termsLength = 0;
+            termsGeneration = generation;
+        }
+        termsLength += LogTermIndex.readTerms(termsFile, termsLength, heads);
+        if (terms.length() != termsLength) {
+            // drops an incomplete record
+            terms.setLength(termsLength);
+        }
+    }
+
+    private void reset() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LogTermIndex.HEADER_SIZE);
+        header.putInt(LogTermIndex.MAGIC);
+        header.putInt(LogTermIndex.VERSION);
+        header.putInt(0);
+        postings.setLength(0);
+        write(postings, 0, header.array());
+        terms.setLength(0);
+        if (compactedFile.delete() == false && compactedFile.exists()) {
+            throw new IOException(MessageFormat.format(
+                    "Failed to reset log full-text index: {0}",
+                    termsFile));
+        }
+        heads.clear();
+        termsLength = 0;
+        termsGeneration = LogTermIndex.NO_GENERATION;
+        nextCompaction = COMPACT_THRESHOLD;
+    }
+
+    /**
+     * Closes the index files.
+     * @throws IOException if failed to close the files
+     */
+    void close() throws IOException {
+        try {
+            postings.close();
+        } finally {
+            terms.close();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.logs;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits log entries into search tokens.
+ * Both prose and code blocks are split into identifiers, and each identifier is indexed as a whole
+ * and also as its camel-case or snake-case parts. All tokens are lower-cased.
+ */
+final class LogTokenizer {
+
+    private static final String FENCE = "```"; //$NON-NLS-1$
+
+    /**
+     * Collects tokens in the lines.
+     * @param lines the target lines
+     * @param tokens the destination
+     */
+    static void tokenize(List<? extends CharSequence> lines, Set<String> tokens) {
+        for (CharSequence line : lines) {
+            if (isFence(line) == false) {
+                addIdentifiers(line, tokens);
+            }
+        }
+    }
+
+    /**
+     * Splits a search query into terms.
+     * Each term is a list of tokens: the first one is the whole identifier,
+     * and the rest are its parts if it has two or more parts.
+     * An entry matches a term if it contains the whole identifier, or all of its parts.
+     * @param query the search query
+     * @return the terms
+     */
+    static List<List<String>> tokenizeQuery(CharSequence query) {
+        Map<String, List<String>> results = new LinkedHashMap<String, List<String>>();
+        int length = query.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean part = i < length && isIdentifierPart(query.charAt(i));
+            if (part && start < 0) {
+                start = i;
+            } else if (part == false && start >= 0) {
+                String whole = toToken(query, start, i);
+                if (results.containsKey(whole) == false) {
+                    List<String> term = new ArrayList<String>();
+                    term.add(whole);
+                    List<String> parts = split(query, start, i);
+                    if (parts.size() > 1) {
+                        term.addAll(parts);
+                    }
+                    results.put(whole, term);
+                }
+                start = -1;
+            }
+        }
+        return new ArrayList<List<String>>(results.values());
+    }
+
+    /**
+     * Returns whether the line is a code fence, without copying the line.
+     * @param line the target line
+     * @return {@code true} if the line starts with {@code ```} after leading white-spaces
+     */
+    static boolean isFence(CharSequence line) {
+        int length = line.length();
+        int offset = 0;
+        while (offset < length && Character.isWhitespace(line.charAt(offset))) {
+            offset++;
+        }
+        if (length - offset < FENCE.length()) {
+            return false;
+        }
+        for (int i = 0; i < FENCE.length(); i++) {
+            if (line.charAt(offset + i) != FENCE.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addIdentifiers(CharSequence line, Set<String> tokens) {
+        int length = line.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean part = i < length && isIdentifierPart(line.charAt(i));
+            if (part && start < 0) {
+                start = i;
+            } else if (part == false && start >= 0) {
+                tokens.add(toToken(line, start, i));
+                List<String> parts = split(line, start, i);
+                if (parts.size() > 1) {
+                    tokens.addAll(parts);
+                }
+                start = -1;
+            }
+        }
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    /*
+     * Splits an identifier at '_', '$', lower-to-upper ("getLine"), acronym ("HTMLParser"),
+     * and letter-to-digit boundaries.
+     */
+    private static List<String> split(CharSequence text, int start, int end) {
+        List<String> results = new ArrayList<String>();
+        int partStart = -1;
+        for (int i = start; i <= end; i++) {
+            char c = i < end ? text.charAt(i) : '_';
+            if (c == '_' || c == '$') {
+                if (partStart >= 0) {
+                    results.add(toToken(text, partStart, i));
+                    partStart = -1;
+                }
+                continue;
+            }
+            if (partStart >= 0 && isBoundary(text, i, end)) {
+                results.add(toToken(text, partStart, i));
+                partStart = i;
+            } else if (partStart < 0) {
+                partStart = i;
+            }
+        }
+        return results;
+    }
+
+    private static boolean isBoundary(CharSequence text, int offset, int end) {
+        char previous = text.charAt(offset - 1);
+        char current = text.charAt(offset);
+        if (previous == '_' || previous == '$') {
+            return false;
+        }
+        if (Character.isDigit(previous) != Character.isDigit(current)) {
+            return true;
+        }
+        if (Character.isUpperCase(current)) {
+            if (Character.isLowerCase(previous)) {
+                return true;
+            }
+            return Character.isUpperCase(previous)
+                    && offset + 1 < end
+                    && Character.isLowerCase(text.charAt(offset + 1));
+        }
+        return false;
+    }
+
+    private static String toToken(CharSequence text, int start, int end) {
+        return text.subSequence(start, end).toString().toLowerCase(Locale.ENGLISH);
+    }
+
+    private LogTokenizer() {
+        return;
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.logs;
+
+import java.util.Calendar;
+
+/**
+ * Periods of rolling segmented log files.
+ * @see LogSegments
+ */
+public enum SegmentPeriod {
+
+    /**
+     * Never rolls segments by date.
+     */
+    NONE(-1),
+
+    /**
+     * Rolls segments when the date is changed.
+     */
+    DAILY(Calendar.DAY_OF_YEAR),
+
+    /**
+     * Rolls segments when the month is changed.
+     */
+    MONTHLY(Calendar.MONTH),
+    ;
+
+    private final int field;
+
+    private SegmentPeriod(int field) {
+        this.field = field;
+    }
+
+    /**
+     * Returns whether the two times are in the same period.
+     * @param a the first time in milliseconds since the epoch
+     * @param b the second time in milliseconds since the epoch
+     * @return {@code true} if they are in the same period, otherwise {@code false}
+     */
+    boolean isSamePeriod(long a, long b) {
+        if (field < 0) {
+            return true;
+        }
+        Calendar first = Calendar.getInstance();
+        first.setTimeInMillis(a);
+        Calendar second = Calendar.getInstance();
+        second.setTimeInMillis(b);
+        return first.get(Calendar.YEAR) == second.get(Calendar.YEAR)
+                && first.get(field) == second.get(field);
+    }
+}
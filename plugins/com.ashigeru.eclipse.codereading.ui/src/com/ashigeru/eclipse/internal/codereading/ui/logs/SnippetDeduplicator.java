@@ -0,0 +1,296 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.logs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.MessageFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ashigeru.eclipse.codereading.core.utils.LineHash;
+import com.ashigeru.eclipse.codereading.core.utils.TextLines;
+
+/**
+ * Replaces code blocks which have been already logged with short back-references.
+ * Hashes of the logged code blocks are kept in a Bloom filter and an LRU map for each log file,
+ * and they are seeded from the code block hashes in {@link LogIndex}.
+ * Each instance can be kept while the log file is closed, and it only reads the hashes added after that.
+ * Each operation must be invoked while holding the lock of the log file.
+ */
+final class SnippetDeduplicator {
+
+    private static final int LRU_CAPACITY = 1024;
+
+    private static final int BLOOM_BITS = 1 << 20;
+
+    private static final int BLOOM_HASHES = 3;
+
+    private static final int SCAN_RECORDS = 1024;
+
+    private static final String COMMENT = "// "; //$NON-NLS-1$
+
+    private final long[] bloom = new long[BLOOM_BITS / 64];
+
+    private final Map<Long, Long> recent = new LinkedHashMap<Long, Long>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+            return size() > LRU_CAPACITY;
+        }
+    };
+
+    private int seeded;
+
+    private int generation;
+
+    // pairs of the code block hash and timestamp, which are not written into the index yet
+    private long[] pending = new long[16];
+
+    private int pendingCount;
+
+    /**
+     * Computes the snippet hash of each entry, and replaces its code blocks which have been already logged.
+     * @param index the index of the target log file, which must be up to date
+     * @param entries the entries to be appended
+     * @param replace {@code true} to replace the logged code blocks, or {@code false} to only compute hashes
+     * @param snippetHashes the destination of the snippet hashes, one for each entry
+     * @return the processed entries
+     * @throws IOException if failed to read the index
+     */
+    List<LogEntry> apply(
+            LogIndexWriter index,
+            List<LogEntry> entries,
+            boolean replace,
+            long[] snippetHashes) throws IOException {
+        seed(index);
+        pendingCount = 0;
+        List<LogEntry> results = new ArrayList<LogEntry>(entries.size());
+        for (int i = 0, n = entries.size(); i < n; i++) {
+            results.add(apply(index, entries.get(i), replace, snippetHashes, i));
+        }
+        return results;
+    }
+
+    private LogEntry apply(
+            LogIndexWriter index,
+            LogEntry entry,
+            boolean replace,
+            long[] snippetHashes,
+            int position) throws IOException {
+        TextLines lines = entry.getContents();
+        List<CharSequence> results = null;
+        boolean first = true;
+        int blockStart = -1;
+        int codeStart = -1;
+        for (int i = 0, n = lines.size(); i < n; i++) {
+            CharSequence line = lines.get(i);
+            if (LogTokenizer.isFence(line) == false) {
+                if (blockStart >= 0 && codeStart < 0) {
+                    codeStart = isComment(line) ? i + 1 : i;
+                }
+                if (results != null && blockStart < 0) {
+                    results.add(line);
+                }
+                continue;
+            }
+            if (blockStart < 0) {
+                blockStart = i;
+                codeStart = -1;
+                if (results != null) {
+                    results.add(line);
+                }
+                continue;
+            }
+            if (codeStart < 0) {
+                codeStart = i;
+            }
+            long hash = hash(lines, codeStart, i);
+            Long original = hash == 0 ? null : find(index, hash);
+            if (replace && original != null) {
+                if (results == null) {
+                    results = new ArrayList<CharSequence>(lines.subList(0, blockStart + 1));
+                }
+                if (codeStart > blockStart + 1) {
+                    results.add(lines.get(blockStart + 1));
+                }
+                results.add(MessageFormat.format(
+                        "// (unchanged since {0})", //$NON-NLS-1$
+                        new SimpleDateFormat("yyyy-MM-dd HH:mm").format(new Date(original)))); //$NON-NLS-1$
+                hash = 0;
+            } else {
+                if (hash != 0 && original == null) {
+                    add(hash, entry.getTimestamp());
+                    addPending(hash, entry.getTimestamp());
+                }
+                if (results != null) {
+                    results.addAll(lines.subList(blockStart + 1, i));
+                }
+            }
+            if (results != null) {
+                results.add(line);
+            }
+            if (first) {
+                snippetHashes[position] = hash;
+                first = false;
+            }
+            blockStart = -1;
+        }
+        if (results != null && blockStart >= 0) {
+            // unclosed block
+            results.addAll(lines.subList(blockStart + 1, lines.size()));
+        }
+        if (results == null) {
+            return entry;
+        }
+        return new LogEntry(
+                entry.getFile(),
+                TextLines.of(results),
+                entry.getSource(),
+                entry.getLineNumber(),
+                entry.getTimestamp());
+    }
+
+    private static boolean isComment(CharSequence line) {
+        if (line.length() < COMMENT.length()) {
+            return false;
+        }
+        for (int i = 0; i < COMMENT.length(); i++) {
+            if (line.charAt(i) != COMMENT.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long hash(TextLines lines, int start, int end) {
+        if (start >= end) {
+            return 0;
+        }
+        long result = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            CharSequence line = lines.get(i);
+            result ^= LineHash.hash(line, 0, line.length());
+            result *= 0x100000001b3L;
+        }
+        return result == 0 ? 1 : result;
+    }
+
+    /**
+     * Writes the hashes of the code blocks which were first logged in the last operation.
+     * This must be invoked only after the processed entries were actually written.
+     * @param index the index of the target log file
+     * @throws IOException if failed to update the index
+     */
+    void commit(LogIndexWriter index) throws IOException {
+        index.appendHashes(pending, pendingCount);
+        pendingCount = 0;
+        seeded = index.getHashCount();
+    }
+
+    /*
+     * Adds the code block hashes which were recorded after the last operation, including the other processes.
+     */
+    private void seed(LogIndexWriter index) throws IOException {
+        int size = index.getHashCount();
+        if (index.getGeneration() != generation || size < seeded) {
+            // the index was rebuilt
+            reset();
+            generation = index.getGeneration();
+        }
+        for (int from = seeded; from < size; from += SCAN_RECORDS) {
+            int to = Math.min(from + SCAN_RECORDS, size);
+            ByteBuffer hashes = index.readHashes(from, to);
+            for (int i = 0, n = to - from; i < n; i++) {
+                int base = i * LogIndex.HASH_RECORD_SIZE;
+                add(hashes.getLong(base + LogIndex.HASH_FIELD_VALUE), hashes.getLong(base + LogIndex.HASH_FIELD_TIMESTAMP));
+            }
+        }
+        seeded = size;
+    }
+
+    /**
+     * Discards the kept hashes, including the ones of entries which were not written.
+     * They are seeded from the index again in the next operation.
+     */
+    void reset() {
+        recent.clear();
+        Arrays.fill(bloom, 0L);
+        seeded = 0;
+        pendingCount = 0;
+    }
+
+    private void addPending(long hash, long timestamp) {
+        if (pendingCount * 2 == pending.length) {
+            pending = Arrays.copyOf(pending, pending.length * 2);
+        }
+        pending[pendingCount * 2] = hash;
+        pending[pendingCount * 2 + 1] = timestamp;
+        pendingCount++;
+    }
+
+    private void add(long hash, long timestamp) {
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = getBloomBit(hash, i);
+            bloom[bit >>> 6] |= 1L << bit;
+        }
+        if (recent.containsKey(hash) == false) {
+            recent.put(hash, timestamp);
+        }
+    }
+
+    /*
+     * Returns the timestamp of the original entry which has the snippet hash, or null if it is not logged.
+     */
+    private Long find(LogIndexWriter index, long hash) throws IOException {
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = getBloomBit(hash, i);
+            if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+                return null;
+            }
+        }
+        Long timestamp = recent.get(hash);
+        if (timestamp != null) {
+            return timestamp;
+        }
+        // evicted from the LRU map, or a false positive
+        for (int to = seeded; to > 0; to -= SCAN_RECORDS) {
+            int from = Math.max(to - SCAN_RECORDS, 0);
+            ByteBuffer hashes = index.readHashes(from, to);
+            for (int i = to - from - 1; i >= 0; i--) {
+                int base = i * LogIndex.HASH_RECORD_SIZE;
+                if (hashes.getLong(base + LogIndex.HASH_FIELD_VALUE) == hash) {
+                    timestamp = hashes.getLong(base + LogIndex.HASH_FIELD_TIMESTAMP);
+                    recent.put(hash, timestamp);
+                    return timestamp;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int getBloomBit(long hash, int index) {
+        long mixed = hash + index * (hash >>> 32 | 1L);
+        return (int) ((mixed ^ (mixed >>> 29)) & (BLOOM_BITS - 1));
+    }
+}
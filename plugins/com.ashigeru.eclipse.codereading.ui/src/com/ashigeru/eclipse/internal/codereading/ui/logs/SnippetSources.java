@@ -0,0 +1,182 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.logs;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.IWorkbenchPage;
+import org.eclipse.ui.PartInitException;
+import org.eclipse.ui.ide.IDE;
+import org.eclipse.ui.texteditor.IDocumentProvider;
+import org.eclipse.ui.texteditor.ITextEditor;
+
+import com.ashigeru.eclipse.codereading.core.utils.LineHash;
+import com.ashigeru.eclipse.internal.codereading.ui.LogUtil;
+
+/**
+ * Utilities to navigate from log entries to their sources.
+ */
+public final class SnippetSources {
+
+    /**
+     * Returns the workspace file of the snippet source.
+     * @param source the source path in {@link LogEntry#getSource()}
+     * @return the workspace file, or {@code null} if it does not exist
+     */
+    public static IFile getSourceFile(String source) {
+        if (source == null) {
+            throw new IllegalArgumentException("source must not be null"); //$NON-NLS-1$
+        }
+        IPath path = Path.fromPortableString(source);
+        if (path.segmentCount() < 2) {
+            return null;
+        }
+        IFile file = ResourcesPlugin.getWorkspace().getRoot().getFile(path);
+        if (file.exists() == false) {
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Reads the contents of the log entry from the log file.
+     * @param logFile the log file, or one of its closed segments
+     * @param entry the target entry in the index of the file
+     * @return the entry contents
+     * @throws IOException if failed to read the log file
+     */
+    public static String readContents(File logFile, LogIndexEntry entry) throws IOException {
+        if (logFile == null) {
+            throw new IllegalArgumentException("logFile must not be null"); //$NON-NLS-1$
+        }
+        if (entry == null) {
+            throw new IllegalArgumentException("entry must not be null"); //$NON-NLS-1$
+        }
+        byte[] bytes = new byte[entry.getByteLength()];
+        // closed segments are compressed, and they must be read from the head
+        DataInputStream input = new DataInputStream(LogSegments.open(logFile));
+        try {
+            long rest = entry.getByteOffset();
+            while (rest > 0) {
+                long skipped = input.skip(rest);
+                if (skipped <= 0) {
+                    throw new EOFException(logFile.getPath());
+                }
+                rest -= skipped;
+            }
+            input.readFully(bytes);
+        } finally {
+            input.close();
+        }
+        return new String(bytes, LogAppender.getLogFileEncoding());
+    }
+
+    /**
+     * Extracts the code lines in the first fenced block of the log entry, except its location comment.
+     * @param contents the entry contents
+     * @return the code lines, or an empty list if the entry does not contain any code blocks
+     */
+    public static List<String> getSnippet(String contents) {
+        if (contents == null) {
+            throw new IllegalArgumentException("contents must not be null"); //$NON-NLS-1$
+        }
+        List<String> results = new ArrayList<String>();
+        boolean inBlock = false;
+        boolean head = false;
+        for (String line : contents.split("\r\n|\r|\n")) { //$NON-NLS-1$
+            if (inBlock == false) {
+                inBlock = line.startsWith("```"); //$NON-NLS-1$
+                head = inBlock;
+            } else if (line.equals("```")) { //$NON-NLS-1$
+                break;
+            } else if (head && line.startsWith("// ")) { //$NON-NLS-1$
+                head = false;
+            } else {
+                head = false;
+                results.add(line);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Opens the snippet source in an editor.
+     * If the snippet has been moved from the recorded line, this reveals the nearest matching lines instead.
+     * @param page the target workbench page
+     * @param file the snippet source file
+     * @param snippet the snippet lines
+     * @param recordedLine the recorded line number (0-origin), or {@code -1} if it is unknown
+     * @return the opened editor
+     * @throws PartInitException if failed to open the editor
+     */
+    public static IEditorPart open(
+            IWorkbenchPage page,
+            IFile file,
+            List<String> snippet,
+            int recordedLine) throws PartInitException {
+        IEditorPart editor = IDE.openEditor(page, file);
+        ITextEditor textEditor = editor instanceof ITextEditor
+                ? (ITextEditor) editor
+                : (ITextEditor) editor.getAdapter(ITextEditor.class);
+        if (textEditor != null) {
+            reveal(textEditor, snippet, recordedLine);
+        }
+        return editor;
+    }
+
+    private static void reveal(ITextEditor editor, List<String> snippet, int recordedLine) {
+        IDocumentProvider provider = editor.getDocumentProvider();
+        IDocument document = provider == null ? null : provider.getDocument(editor.getEditorInput());
+        if (document == null) {
+            return;
+        }
+        int line = Math.max(recordedLine, 0);
+        if (snippet.isEmpty() == false) {
+            int found = LineHash.find(LineHash.hash(document), LineHash.hash(snippet), line);
+            if (found >= 0) {
+                line = found;
+            }
+        }
+        line = Math.min(line, document.getNumberOfLines() - 1);
+        try {
+            IRegion region = document.getLineInformation(line);
+            editor.selectAndReveal(region.getOffset(), 0);
+        } catch (BadLocationException e) {
+            LogUtil.log(IStatus.WARNING, e, MessageFormat.format(
+                    "Failed to reveal line: {0}",
+                    line));
+        }
+    }
+
+    private SnippetSources() {
+        return;
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.logs;
+
+/**
+ * Policies of flushing log files to the storage device.
+ */
+public enum SyncPolicy {
+
+    /**
+     * Never synchronizes log files, and leaves it to the operating system.
+     */
+    NEVER,
+
+    /**
+     * Synchronizes log files after each batch of entries was written.
+     */
+    BATCH,
+
+    /**
+     * Synchronizes log files at most once in the specified interval.
+     */
+    INTERVAL,
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.preferences;
+
+import java.text.ParseException;
+
+import org.eclipse.jface.preference.BooleanFieldEditor;
+import org.eclipse.jface.preference.ComboFieldEditor;
+import org.eclipse.jface.preference.FieldEditorPreferencePage;
+import org.eclipse.jface.preference.IntegerFieldEditor;
+import org.eclipse.ui.IWorkbench;
+import org.eclipse.ui.IWorkbenchPreferencePage;
+
+import com.ashigeru.eclipse.internal.codereading.ui.Activator;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.SegmentPeriod;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.SyncPolicy;
+import com.ashigeru.eclipse.internal.codereading.ui.templates.LanguageResolver;
+import com.ashigeru.eclipse.internal.codereading.ui.templates.LogTemplate;
+
+/**
+ * Preference page of Code Reading UI plug-in.
+ */
+public class CodeReadingPreferencePage extends FieldEditorPreferencePage implements IWorkbenchPreferencePage {
+
+    /**
+     * Creates a new instance.
+     */
+    public CodeReadingPreferencePage() {
+        super(GRID);
+        setDescription("Settings for source code reading support.");
+    }
+
+    @Override
+    public void init(IWorkbench workbench) {
+        setPreferenceStore(Activator.getDefault().getPreferenceStore());
+    }
+
+    @Override
+    protected void createFieldEditors() {
+        addField(new ComboFieldEditor(
+                PreferenceConstants.KEY_SYNC_POLICY,
+                "Sync log files:",
+                new String[][] {
+                        { "Never", SyncPolicy.NEVER.name() },
+                        { "After each write", SyncPolicy.BATCH.name() },
+                        { "Periodically", SyncPolicy.INTERVAL.name() },
+                },
+                getFieldEditorParent()));
+        IntegerFieldEditor interval = new IntegerFieldEditor(
+                PreferenceConstants.KEY_SYNC_INTERVAL,
+                "Sync interval (ms):",
+                getFieldEditorParent());
+        interval.setValidRange(0, Integer.MAX_VALUE);
+        addField(interval);
+        IntegerFieldEditor timeout = new IntegerFieldEditor(
+                PreferenceConstants.KEY_IDLE_TIMEOUT,
+                "Close idle log files after (ms):",
+                getFieldEditorParent());
+        timeout.setValidRange(0, Integer.MAX_VALUE);
+        addField(timeout);
+        IntegerFieldEditor segmentSize = new IntegerFieldEditor(
+                PreferenceConstants.KEY_SEGMENT_SIZE,
+                "Roll segmented logs at (KB, 0 to disable):",
+                getFieldEditorParent());
+        segmentSize.setValidRange(0, Integer.MAX_VALUE);
+        addField(segmentSize);
+        addField(new ComboFieldEditor(
+                PreferenceConstants.KEY_SEGMENT_PERIOD,
+                "Roll segmented logs by date:",
+                new String[][] {
+                        { "Never", SegmentPeriod.NONE.name() },
+                        { "Daily", SegmentPeriod.DAILY.name() },
+                        { "Monthly", SegmentPeriod.MONTHLY.name() },
+                },
+                getFieldEditorParent()));
+        addField(new BooleanFieldEditor(
+                PreferenceConstants.KEY_DEDUPLICATE_SNIPPETS,
+                "Replace already logged snippets with back-references",
+                getFieldEditorParent()));
+        IntegerFieldEditor threshold = new IntegerFieldEditor(
+                PreferenceConstants.KEY_PARALLEL_THRESHOLD,
+                "Minimum lines to normalize in parallel:",
+                getFieldEditorParent());
+        threshold.setValidRange(0, Integer.MAX_VALUE);
+        addField(threshold);
+        IntegerFieldEditor streaming = new IntegerFieldEditor(
+                PreferenceConstants.KEY_STREAMING_THRESHOLD,
+                "Minimum characters to edit only heads of snippets:",
+                getFieldEditorParent());
+        streaming.setValidRange(0, Integer.MAX_VALUE);
+        addField(streaming);
+        addField(new TemplateFieldEditor(
+                PreferenceConstants.KEY_LOG_TEMPLATE,
+                "Log entry template:",
+                getFieldEditorParent()) {
+            @Override
+            protected void validate(String value) throws ParseException {
+                LogTemplate.compile(value);
+            }
+        });
+        addField(new TemplateFieldEditor(
+                PreferenceConstants.KEY_LANGUAGE_MAPPINGS,
+                "Fence languages (partition type, content type ID, or *.extension = language):",
+                getFieldEditorParent()) {
+            @Override
+            protected void validate(String value) throws ParseException {
+                LanguageResolver.parse(value);
+            }
+        });
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.preferences;
+
+import com.ashigeru.eclipse.codereading.core.utils.LineNormalizer;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.SegmentPeriod;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.SyncPolicy;
+import com.ashigeru.eclipse.internal.codereading.ui.templates.LanguageResolver;
+import com.ashigeru.eclipse.internal.codereading.ui.templates.LogTemplate;
+
+/**
+ * Preference keys and default values of Code Reading UI plug-in.
+ */
+public final class PreferenceConstants {
+
+    /**
+     * The minimum number of lines to normalize snippets in parallel.
+     */
+    public static final String KEY_PARALLEL_THRESHOLD = "parallelThreshold"; //$NON-NLS-1$
+
+    /**
+     * The default value of {@link #KEY_PARALLEL_THRESHOLD}.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = LineNormalizer.DEFAULT_PARALLEL_THRESHOLD;
+
+    /**
+     * The minimum number of characters of snippets which are not edited in the dialog as a whole.
+     */
+    public static final String KEY_STREAMING_THRESHOLD = "streamingThreshold"; //$NON-NLS-1$
+
+    /**
+     * The default value of {@link #KEY_STREAMING_THRESHOLD}.
+     */
+    public static final int DEFAULT_STREAMING_THRESHOLD = 256 * 1024;
+
+    /**
+     * The policy of synchronizing log files, as a name of {@link SyncPolicy}.
+     */
+    public static final String KEY_SYNC_POLICY = "syncPolicy"; //$NON-NLS-1$
+
+    /**
+     * The default value of {@link #KEY_SYNC_POLICY}.
+     */
+    public static final String DEFAULT_SYNC_POLICY = SyncPolicy.NEVER.name();
+
+    /**
+     * The minimum interval of synchronizing log files in milliseconds.
+     */
+    public static final String KEY_SYNC_INTERVAL = "syncInterval"; //$NON-NLS-1$
+
+    /**
+     * The default value of {@link #KEY_SYNC_INTERVAL}.
+     */
+    public static final int DEFAULT_SYNC_INTERVAL = 1000;
+
+    /**
+     * The idle time in milliseconds until each log file is closed.
+     */
+    public static final String KEY_IDLE_TIMEOUT = "idleTimeout"; //$NON-NLS-1$
+
+    /**
+     * The default value of {@link #KEY_IDLE_TIMEOUT}.
+     */
+    public static final int DEFAULT_IDLE_TIMEOUT = 5000;
+
+    /**
+     * The maximum size of active segments of segmented log files in kilobytes, or {@code 0} to never roll by size.
+     */
+    public static final String KEY_SEGMENT_SIZE = "segmentSize"; //$NON-NLS-1$
+
+    /**
+     * The default value of {@link #KEY_SEGMENT_SIZE}.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 1024;
+
+    /**
+     * The period of active segments of segmented log files, as a name of {@link SegmentPeriod}.
+     */
+    public static final String KEY_SEGMENT_PERIOD = "segmentPeriod"; //$NON-NLS-1$
+
+    /**
+     * The default value of {@link #KEY_SEGMENT_PERIOD}.
+     */
+    public static final String DEFAULT_SEGMENT_PERIOD = SegmentPeriod.NONE.name();
+
+    /**
+     * Whether code blocks which have been already logged are replaced with short back-references.
+     */
+    public static final String KEY_DEDUPLICATE_SNIPPETS = "deduplicateSnippets"; //$NON-NLS-1$
+
+    /**
+     * The default value of {@link #KEY_DEDUPLICATE_SNIPPETS}.
+     */
+    public static final boolean DEFAULT_DEDUPLICATE_SNIPPETS = false;
+
+    /**
+     * The template of log entries.
+     * @see LogTemplate
+     */
+    public static final String KEY_LOG_TEMPLATE = "logTemplate"; //$NON-NLS-1$
+
+    /**
+     * The default value of {@link #KEY_LOG_TEMPLATE}.
+     */
+    public static final String DEFAULT_LOG_TEMPLATE = LogTemplate.DEFAULT_SOURCE;
+
+    /**
+     * The mappings from partition types, content types, or file extensions to fence language names.
+     * @see LanguageResolver
+     */
+    public static final String KEY_LANGUAGE_MAPPINGS = "languageMappings"; //$NON-NLS-1$
+
+    /**
+     * The default value of {@link #KEY_LANGUAGE_MAPPINGS}.
+     */
+    public static final String DEFAULT_LANGUAGE_MAPPINGS = LanguageResolver.DEFAULT_MAPPINGS;
+
+    private PreferenceConstants() {
+        return;
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.preferences;
+
+import org.eclipse.core.runtime.preferences.AbstractPreferenceInitializer;
+import org.eclipse.jface.preference.IPreferenceStore;
+
+import com.ashigeru.eclipse.internal.codereading.ui.Activator;
+
+/**
+ * Initializes default preference values.
+ */
+public class PreferenceInitializer extends AbstractPreferenceInitializer {
+
+    @Override
+    public void initializeDefaultPreferences() {
+        IPreferenceStore store = Activator.getDefault().getPreferenceStore();
+        store.setDefault(PreferenceConstants.KEY_PARALLEL_THRESHOLD, PreferenceConstants.DEFAULT_PARALLEL_THRESHOLD);
+        store.setDefault(PreferenceConstants.KEY_STREAMING_THRESHOLD, PreferenceConstants.DEFAULT_STREAMING_THRESHOLD);
+        store.setDefault(PreferenceConstants.KEY_SYNC_POLICY, PreferenceConstants.DEFAULT_SYNC_POLICY);
+        store.setDefault(PreferenceConstants.KEY_SYNC_INTERVAL, PreferenceConstants.DEFAULT_SYNC_INTERVAL);
+        store.setDefault(PreferenceConstants.KEY_IDLE_TIMEOUT, PreferenceConstants.DEFAULT_IDLE_TIMEOUT);
+        store.setDefault(PreferenceConstants.KEY_SEGMENT_SIZE, PreferenceConstants.DEFAULT_SEGMENT_SIZE);
+        store.setDefault(PreferenceConstants.KEY_SEGMENT_PERIOD, PreferenceConstants.DEFAULT_SEGMENT_PERIOD);
+        store.setDefault(PreferenceConstants.KEY_DEDUPLICATE_SNIPPETS, PreferenceConstants.DEFAULT_DEDUPLICATE_SNIPPETS);
+        store.setDefault(PreferenceConstants.KEY_LOG_TEMPLATE, PreferenceConstants.DEFAULT_LOG_TEMPLATE);
+        store.setDefault(PreferenceConstants.KEY_LANGUAGE_MAPPINGS, PreferenceConstants.DEFAULT_LANGUAGE_MAPPINGS);
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.preferences;
+
+import java.text.ParseException;
+
+import org.eclipse.jface.preference.StringFieldEditor;
+import org.eclipse.swt.widgets.Composite;
+
+/**
+ * A multi-line field editor for templates, which rejects values with syntax errors.
+ */
+abstract class TemplateFieldEditor extends StringFieldEditor {
+
+    private static final int WIDTH_IN_CHARS = 60;
+
+    private static final int HEIGHT_IN_CHARS = 10;
+
+    /**
+     * Creates a new instance.
+     * @param name the preference key
+     * @param labelText the label text
+     * @param parent the parent composite
+     */
+    TemplateFieldEditor(String name, String labelText, Composite parent) {
+        super(name, labelText, WIDTH_IN_CHARS, HEIGHT_IN_CHARS, VALIDATE_ON_KEY_STROKE, parent);
+    }
+
+    /**
+     * Validates the value.
+     * @param value the current value
+     * @throws ParseException if the value is not valid
+     */
+    protected abstract void validate(String value) throws ParseException;
+
+    @Override
+    protected boolean doCheckState() {
+        try {
+            validate(getStringValue());
+            return true;
+        } catch (ParseException e) {
+            setErrorMessage(e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.templates;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.QualifiedName;
+import org.eclipse.core.runtime.content.IContentDescription;
+import org.eclipse.core.runtime.content.IContentType;
+import org.eclipse.core.runtime.content.IContentTypeManager;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension3;
+import org.eclipse.jface.text.IDocumentExtension4;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.TextUtilities;
+
+import com.ashigeru.eclipse.internal.codereading.ui.LogUtil;
+
+/**
+ * Resolves the fence language names of snippets.
+ * Each key of the mappings is one of the following, and they are examined in this order:
+ * <ol>
+ * <li> a document partition type at the snippet head </li>
+ * <li> a content type ID of the snippet source, or its base types </li>
+ * <li> a file extension with {@code "*."} prefix </li>
+ * </ol>
+ * If there are no such mappings, the file extension itself is used as the language name.
+ * The resolved names are cached by the partition type, content type, and file extension,
+ * and the content types of ambiguous file names are cached by the source path and its modification stamp.
+ */
+public final class LanguageResolver {
+
+    /**
+     * The default mappings.
+     */
+    public static final String DEFAULT_MAPPINGS = "" //$NON-NLS-1$
+            + "org.eclipse.jdt.core.javaSource=java\n" //$NON-NLS-1$
+            + "org.eclipse.jdt.core.javaProperties=properties\n" //$NON-NLS-1$
+            + "org.eclipse.core.runtime.properties=properties\n" //$NON-NLS-1$
+            + "org.eclipse.core.runtime.xml=xml\n" //$NON-NLS-1$
+            + "org.eclipse.cdt.core.cSource=c\n" //$NON-NLS-1$
+            + "org.eclipse.cdt.core.cHeader=c\n" //$NON-NLS-1$
+            + "org.eclipse.cdt.core.cxxSource=cpp\n" //$NON-NLS-1$
+            + "org.eclipse.cdt.core.cxxHeader=cpp\n" //$NON-NLS-1$
+            + "org.eclipse.wst.html.core.htmlsource=html\n" //$NON-NLS-1$
+            + "org.eclipse.wst.css.core.csssource=css\n" //$NON-NLS-1$
+            + "org.eclipse.wst.jsdt.core.jsSource=javascript\n" //$NON-NLS-1$
+            + "org.eclipse.jst.jsp.core.jspsource=jsp\n" //$NON-NLS-1$
+            + "org.eclipse.php.core.phpsource=php\n" //$NON-NLS-1$
+            + "org.eclipse.jst.jsp.SCRIPT.JAVA=java\n" //$NON-NLS-1$
+            + "org.eclipse.wst.html.SCRIPT=javascript\n" //$NON-NLS-1$
+            + "org.eclipse.wst.css.STYLE=css\n" //$NON-NLS-1$
+            + "*.h=c\n" //$NON-NLS-1$
+            + "*.hpp=cpp\n" //$NON-NLS-1$
+            + "*.cc=cpp\n" //$NON-NLS-1$
+            + "*.js=javascript\n" //$NON-NLS-1$
+            + "*.py=python\n" //$NON-NLS-1$
+            + "*.rb=ruby\n" //$NON-NLS-1$
+            + "*.md=markdown\n" //$NON-NLS-1$
+            + "*.yml=yaml\n" //$NON-NLS-1$
+            + "*.txt=\n"; //$NON-NLS-1$
+
+    private static final String EXTENSION_PREFIX = "*."; //$NON-NLS-1$
+
+    private static final int CACHE_SIZE = 256;
+
+    private static final int DESCRIBE_LIMIT = 8 * 1024;
+
+    private static final String NONE = ""; //$NON-NLS-1$
+
+    private final Map<String, String> mappings;
+
+    private final Map<String, String> cache = newCache();
+
+    private final Map<String, IContentType> contentTypes = newCache();
+
+    private LanguageResolver(Map<String, String> mappings) {
+        this.mappings = mappings;
+    }
+
+    /**
+     * Creates a new instance.
+     * @param mappings the mapping definitions, which consist of {@code key=language} lines
+     * @return the created instance
+     * @throws ParseException if the mappings are not valid
+     */
+    public static LanguageResolver parse(String mappings) throws ParseException {
+        if (mappings == null) {
+            throw new IllegalArgumentException("mappings must not be null"); //$NON-NLS-1$
+        }
+        Map<String, String> results = new HashMap<String, String>();
+        int offset = 0;
+        for (String line : mappings.split("\r\n|\r|\n", -1)) { //$NON-NLS-1$
+            String trimmed = line.trim();
+            if (trimmed.length() > 0 && trimmed.startsWith("#") == false) { //$NON-NLS-1$
+                int separator = trimmed.indexOf('=');
+                if (separator <= 0) {
+                    throw new ParseException(MessageFormat.format(
+                            "Mapping must be in form of \"key=language\": {0}",
+                            trimmed), offset);
+                }
+                String key = trimmed.substring(0, separator).trim();
+                if (key.startsWith(EXTENSION_PREFIX)) {
+                    key = key.toLowerCase(Locale.ENGLISH);
+                }
+                results.put(key, trimmed.substring(separator + 1).trim());
+            }
+            offset += line.length() + 1;
+        }
+        return new LanguageResolver(results);
+    }
+
+    private static <V> Map<String, V> newCache() {
+        return new LinkedHashMap<String, V>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    }
+
+    /**
+     * Resolves the fence language name of the snippet.
+     * @param path the snippet source path, or {@code null} if it is unknown
+     * @param file the snippet source file, or {@code null} if it is not in the workspace
+     * @param document the snippet source document, or {@code null} if it is unknown
+     * @param region the snippet region, or {@code null} if it is unknown
+     * @return the language name, or {@code null} if it is not inferred
+     */
+    public synchronized String resolve(IPath path, IFile file, IDocument document, IRegion region) {
+        String partition = getPartitionType(document, region);
+        IContentType contentType = getContentType(path, file, document);
+        String extension = path == null ? null : path.getFileExtension();
+        if (extension != null) {
+            extension = extension.toLowerCase(Locale.ENGLISH);
+        }
+        String key = String.format("%s\n%s\n%s", //$NON-NLS-1$
+                partition,
+                contentType == null ? null : contentType.getId(),
+                extension);
+        String cached = cache.get(key);
+        if (cached == null) {
+            cached = compute(partition, contentType, extension);
+            cache.put(key, cached);
+        }
+        return cached.length() == 0 ? null : cached;
+    }
+
+    private String compute(String partition, IContentType contentType, String extension) {
+        if (partition != null && mappings.containsKey(partition)) {
+            return toResult(mappings.get(partition));
+        }
+        for (IContentType current = contentType; current != null; current = current.getBaseType()) {
+            if (mappings.containsKey(current.getId())) {
+                return toResult(mappings.get(current.getId()));
+            }
+        }
+        if (extension != null) {
+            String mapping = mappings.get(EXTENSION_PREFIX + extension);
+            return toResult(mapping == null ? extension : mapping);
+        }
+        return NONE;
+    }
+
+    private static String toResult(String language) {
+        return language.length() == 0 ? NONE : language;
+    }
+
+    private String getPartitionType(IDocument document, IRegion region) {
+        if (document == null || region == null || (document instanceof IDocumentExtension3) == false) {
+            return null;
+        }
+        for (String partitioning : ((IDocumentExtension3) document).getPartitionings()) {
+            try {
+                String type = TextUtilities.getContentType(document, partitioning, region.getOffset(), false);
+                if (type != null && mappings.containsKey(type)) {
+                    return type;
+                }
+            } catch (BadLocationException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private IContentType getContentType(IPath path, IFile file, IDocument document) {
+        if (file != null) {
+            // the workspace caches content descriptions of files
+            try {
+                IContentDescription description = file.getContentDescription();
+                if (description != null) {
+                    return description.getContentType();
+                }
+            } catch (CoreException e) {
+                LogUtil.log(IStatus.WARNING, e, MessageFormat.format(
+                        "Failed to obtain content type: {0}",
+                        file));
+            }
+        }
+        if (path == null || path.lastSegment() == null) {
+            return null;
+        }
+        String name = path.lastSegment();
+        if (contentTypes.containsKey(name)) {
+            return contentTypes.get(name);
+        }
+        IContentTypeManager manager = Platform.getContentTypeManager();
+        IContentType[] candidates = manager.findContentTypesFor(name);
+        if (candidates.length <= 1) {
+            IContentType result = candidates.length == 0 ? null : candidates[0];
+            contentTypes.put(name, result);
+            return result;
+        }
+        if (document == null) {
+            return candidates[0];
+        }
+        // only ambiguous file names require the content describers
+        String key = getSourceKey(path, document);
+        if (key != null && contentTypes.containsKey(key)) {
+            return contentTypes.get(key);
+        }
+        IContentType result = describe(manager, name, document, candidates[0]);
+        if (key != null) {
+            contentTypes.put(key, result);
+        }
+        return result;
+    }
+
+    private static String getSourceKey(IPath path, IDocument document) {
+        if ((document instanceof IDocumentExtension4) == false) {
+            return null;
+        }
+        long stamp = ((IDocumentExtension4) document).getModificationStamp();
+        if (stamp == IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP) {
+            return null;
+        }
+        // file names never contain line breaks, so that this never conflicts with them
+        return String.format("%s\n%d", path.toPortableString(), stamp); //$NON-NLS-1$
+    }
+
+    private static IContentType describe(
+            IContentTypeManager manager,
+            String name,
+            IDocument document,
+            IContentType defaultType) {
+        try {
+            String head = document.get(0, Math.min(document.getLength(), DESCRIBE_LIMIT));
+            IContentDescription description = manager.getDescriptionFor(
+                    new StringReader(head),
+                    name,
+                    new QualifiedName[0]);
+            return description == null ? defaultType : description.getContentType();
+        } catch (BadLocationException e) {
+            return defaultType;
+        } catch (IOException e) {
+            return defaultType;
+        }
+    }
+}
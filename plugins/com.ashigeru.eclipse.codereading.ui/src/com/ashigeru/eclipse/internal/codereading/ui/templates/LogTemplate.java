@@ -0,0 +1,476 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.templates;
+
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.ashigeru.eclipse.codereading.core.utils.TextLines;
+
+/**
+ * A compiled log entry template.
+ * Each template is parsed only once, and can be rendered many times.
+<pre>
+${path}         - the portable path of the snippet source
+${line}         - the line number of the snippet head (1-origin)
+${language}     - the programming language kind
+${location}     - ${path}:L${line}, or ${path} if the line number is unknown
+${selection}    - the snippet lines
+${date}         - the current date, or ${date:pattern} with a SimpleDateFormat pattern
+${if name} ... ${else} ... ${end}
+                - switches contents whether the variable is not empty,
+                  or whether there are any snippets for ${if snippet}
+${for snippet} ... ${end}
+                - repeats contents for each snippet
+$${             - a literal "${"
+</pre>
+ * Variables outside of <code>${for snippet}</code> refer to the first snippet.
+ */
+public final class LogTemplate {
+
+    /**
+     * The default template source.
+     */
+    public static final String DEFAULT_SOURCE = "\n" //$NON-NLS-1$
+            + "${for snippet}\n" //$NON-NLS-1$
+            + "```${language}\n" //$NON-NLS-1$
+            + "${if location}// ${location}\n${end}" //$NON-NLS-1$
+            + "${if selection}${selection}\n${end}" //$NON-NLS-1$
+            + "```\n" //$NON-NLS-1$
+            + "${end}" //$NON-NLS-1$
+            + "${if snippet}\n${end}" //$NON-NLS-1$
+            + "********"; //$NON-NLS-1$
+
+    private static final String DEFAULT_DATE_PATTERN = "yyyy-MM-dd HH:mm"; //$NON-NLS-1$
+
+    private static final LogTemplate DEFAULT;
+    static {
+        try {
+            DEFAULT = compile(DEFAULT_SOURCE);
+        } catch (ParseException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private final List<Node> nodes;
+
+    private LogTemplate(List<Node> nodes) {
+        this.nodes = nodes;
+    }
+
+    /**
+     * Returns the compiled default template.
+     * @return the default template
+     * @see #DEFAULT_SOURCE
+     */
+    public static LogTemplate getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Compiles a template.
+     * @param source the template source
+     * @return the compiled template
+     * @throws ParseException if the template is not valid
+     */
+    public static LogTemplate compile(String source) throws ParseException {
+        if (source == null) {
+            throw new IllegalArgumentException("source must not be null"); //$NON-NLS-1$
+        }
+        String text = source.replace("\r\n", "\n").replace('\r', '\n'); //$NON-NLS-1$ //$NON-NLS-2$
+        LinkedList<Block> stack = new LinkedList<Block>();
+        stack.addFirst(new Block(null, 0));
+        StringBuilder literal = new StringBuilder();
+        int offset = 0;
+        while (offset < text.length()) {
+            if (text.startsWith("$${", offset)) { //$NON-NLS-1$
+                literal.append("${"); //$NON-NLS-1$
+                offset += 3;
+            } else if (text.startsWith("${", offset)) { //$NON-NLS-1$
+                int end = text.indexOf('}', offset + 2);
+                if (end < 0) {
+                    throw new ParseException(MessageFormat.format(
+                            "Directive is not closed (at {0})",
+                            offset), offset);
+                }
+                if (literal.length() > 0) {
+                    stack.getFirst().add(new Literal(literal.toString()));
+                    literal.setLength(0);
+                }
+                parseDirective(text.substring(offset + 2, end).trim(), offset, stack);
+                offset = end + 1;
+            } else {
+                literal.append(text.charAt(offset++));
+            }
+        }
+        if (literal.length() > 0) {
+            stack.getFirst().add(new Literal(literal.toString()));
+        }
+        if (stack.size() != 1) {
+            throw new ParseException(MessageFormat.format(
+                    "\"$'{'end'}'\" is missing for the directive (at {0})",
+                    stack.getFirst().offset), stack.getFirst().offset);
+        }
+        return new LogTemplate(stack.getFirst().thenNodes);
+    }
+
+    private static void parseDirective(String directive, int offset, LinkedList<Block> stack) throws ParseException {
+        String[] words = directive.split("\\s+", 2); //$NON-NLS-1$
+        String keyword = words[0];
+        Block current = stack.getFirst();
+        if (keyword.equals("end") && words.length == 1) { //$NON-NLS-1$
+            if (stack.size() == 1) {
+                throw new ParseException(MessageFormat.format(
+                        "\"$'{'end'}'\" does not have the corresponding directive (at {0})",
+                        offset), offset);
+            }
+            stack.removeFirst();
+            stack.getFirst().add(current.toNode());
+        } else if (keyword.equals("else") && words.length == 1) { //$NON-NLS-1$
+            if (stack.size() == 1 || current.elseNodes != null) {
+                throw new ParseException(MessageFormat.format(
+                        "\"$'{'else'}'\" does not have the corresponding directive (at {0})",
+                        offset), offset);
+            }
+            current.elseNodes = new ArrayList<Node>();
+        } else if (keyword.equals("if") && words.length == 2) { //$NON-NLS-1$
+            Variable condition = Variable.find(words[1]);
+            if (condition == null) {
+                throw new ParseException(MessageFormat.format(
+                        "Unknown variable \"{0}\" (at {1})",
+                        words[1], offset), offset);
+            }
+            stack.addFirst(new Block(condition, offset));
+        } else if (keyword.equals("for") && words.length == 2) { //$NON-NLS-1$
+            if (words[1].equals("snippet") == false) { //$NON-NLS-1$
+                throw new ParseException(MessageFormat.format(
+                        "Only \"$'{'for snippet'}'\" is supported (at {0})",
+                        offset), offset);
+            }
+            for (Block block : stack) {
+                if (block.loop) {
+                    throw new ParseException(MessageFormat.format(
+                            "\"$'{'for snippet'}'\" must not be nested (at {0})",
+                            offset), offset);
+                }
+            }
+            Block block = new Block(null, offset);
+            block.loop = true;
+            stack.addFirst(block);
+        } else {
+            current.add(parseVariable(directive, offset));
+        }
+    }
+
+    private static Node parseVariable(String directive, int offset) throws ParseException {
+        int colon = directive.indexOf(':');
+        String name = colon < 0 ? directive : directive.substring(0, colon).trim();
+        Variable variable = Variable.find(name);
+        if (variable == null || variable == Variable.SNIPPET) {
+            throw new ParseException(MessageFormat.format(
+                    "Unknown variable \"{0}\" (at {1})",
+                    name, offset), offset);
+        }
+        String pattern = null;
+        if (colon >= 0) {
+            if (variable != Variable.DATE) {
+                throw new ParseException(MessageFormat.format(
+                        "Variable \"{0}\" does not accept any formats (at {1})",
+                        name, offset), offset);
+            }
+            pattern = directive.substring(colon + 1);
+            try {
+                new SimpleDateFormat(pattern);
+            } catch (IllegalArgumentException e) {
+                throw new ParseException(MessageFormat.format(
+                        "Invalid date pattern \"{0}\" (at {1})",
+                        pattern, offset), offset);
+            }
+        } else if (variable == Variable.DATE) {
+            pattern = DEFAULT_DATE_PATTERN;
+        }
+        return new Reference(variable, pattern);
+    }
+
+    /**
+     * Renders this template.
+     * @param snippets the target snippets, which may be empty
+     * @param date the current date
+     * @return the rendered lines
+     */
+    public TextLines render(List<SnippetValues> snippets, Date date) {
+        if (snippets == null) {
+            throw new IllegalArgumentException("snippets must not be null"); //$NON-NLS-1$
+        }
+        if (date == null) {
+            throw new IllegalArgumentException("date must not be null"); //$NON-NLS-1$
+        }
+        List<SnippetValues> targets = new ArrayList<SnippetValues>(snippets.size());
+        for (SnippetValues snippet : snippets) {
+            if (snippet.isEmpty() == false) {
+                targets.add(snippet);
+            }
+        }
+        Context context = new Context(targets, date);
+        context.current = targets.isEmpty() ? null : targets.get(0);
+        TextLines.Builder output = new TextLines.Builder();
+        render(nodes, context, output);
+        return output.build();
+    }
+
+    private static void render(List<Node> nodes, Context context, TextLines.Builder output) {
+        for (Node node : nodes) {
+            node.render(context, output);
+        }
+    }
+
+    private enum Variable {
+
+        PATH("path"), //$NON-NLS-1$
+
+        LINE("line"), //$NON-NLS-1$
+
+        LANGUAGE("language"), //$NON-NLS-1$
+
+        LOCATION("location"), //$NON-NLS-1$
+
+        SELECTION("selection"), //$NON-NLS-1$
+
+        DATE("date"), //$NON-NLS-1$
+
+        SNIPPET("snippet"), //$NON-NLS-1$
+        ;
+
+        final String symbol;
+
+        private Variable(String symbol) {
+            this.symbol = symbol;
+        }
+
+        static Variable find(String symbol) {
+            for (Variable variable : values()) {
+                if (variable.symbol.equals(symbol)) {
+                    return variable;
+                }
+            }
+            return null;
+        }
+
+        boolean test(Context context) {
+            SnippetValues current = context.current;
+            if (this == DATE) {
+                return true;
+            }
+            if (current == null) {
+                return false;
+            }
+            switch (this) {
+            case PATH:
+            case LOCATION:
+                return current.getPath() != null;
+            case LINE:
+                return current.getLineNumber() >= 0;
+            case LANGUAGE:
+                return current.getLanguage() != null && current.getLanguage().length() > 0;
+            case SELECTION:
+                return current.getSelection() != null && current.getSelection().isEmpty() == false;
+            case SNIPPET:
+                return true;
+            default:
+                throw new AssertionError(this);
+            }
+        }
+    }
+
+    private static final class Context {
+
+        final List<SnippetValues> snippets;
+
+        final Date date;
+
+        SnippetValues current;
+
+        Context(List<SnippetValues> snippets, Date date) {
+            this.snippets = snippets;
+            this.date = date;
+        }
+    }
+
+    private abstract static class Node {
+
+        Node() {
+            return;
+        }
+
+        abstract void render(Context context, TextLines.Builder output);
+    }
+
+    private static final class Literal extends Node {
+
+        private final String[] segments;
+
+        Literal(String text) {
+            this.segments = text.split("\n", -1); //$NON-NLS-1$
+        }
+
+        @Override
+        void render(Context context, TextLines.Builder output) {
+            output.append(segments[0]);
+            for (int i = 1; i < segments.length; i++) {
+                output.newLine().append(segments[i]);
+            }
+        }
+    }
+
+    private static final class Reference extends Node {
+
+        private final Variable variable;
+
+        private final String pattern;
+
+        Reference(Variable variable, String pattern) {
+            this.variable = variable;
+            this.pattern = pattern;
+        }
+
+        @Override
+        void render(Context context, TextLines.Builder output) {
+            if (variable.test(context) == false) {
+                return;
+            }
+            SnippetValues current = context.current;
+            switch (variable) {
+            case PATH:
+                output.append(current.getPath());
+                break;
+            case LINE:
+                output.append(current.getLineNumber() + 1);
+                break;
+            case LANGUAGE:
+                output.append(current.getLanguage());
+                break;
+            case LOCATION:
+                output.append(current.getPath());
+                if (current.getLineNumber() >= 0) {
+                    output.append(":L").append(current.getLineNumber() + 1); //$NON-NLS-1$
+                }
+                break;
+            case SELECTION:
+                TextLines lines = current.getSelection();
+                for (int i = 0, n = lines.size(); i < n; i++) {
+                    if (i > 0) {
+                        output.newLine();
+                    }
+                    output.append(lines, i);
+                }
+                break;
+            case DATE:
+                output.append(new SimpleDateFormat(pattern).format(context.date));
+                break;
+            default:
+                throw new AssertionError(variable);
+            }
+        }
+    }
+
+    private static final class Conditional extends Node {
+
+        private final Variable condition;
+
+        private final List<Node> thenNodes;
+
+        private final List<Node> elseNodes;
+
+        Conditional(Variable condition, List<Node> thenNodes, List<Node> elseNodes) {
+            this.condition = condition;
+            this.thenNodes = thenNodes;
+            this.elseNodes = elseNodes;
+        }
+
+        @Override
+        void render(Context context, TextLines.Builder output) {
+            LogTemplate.render(condition.test(context) ? thenNodes : elseNodes, context, output);
+        }
+    }
+
+    private static final class Loop extends Node {
+
+        private final List<Node> bodyNodes;
+
+        private final List<Node> emptyNodes;
+
+        Loop(List<Node> bodyNodes, List<Node> emptyNodes) {
+            this.bodyNodes = bodyNodes;
+            this.emptyNodes = emptyNodes;
+        }
+
+        @Override
+        void render(Context context, TextLines.Builder output) {
+            if (context.snippets.isEmpty()) {
+                LogTemplate.render(emptyNodes, context, output);
+                return;
+            }
+            SnippetValues saved = context.current;
+            try {
+                for (SnippetValues snippet : context.snippets) {
+                    context.current = snippet;
+                    LogTemplate.render(bodyNodes, context, output);
+                }
+            } finally {
+                context.current = saved;
+            }
+        }
+    }
+
+    private static final class Block {
+
+        final Variable condition;
+
+        final int offset;
+
+        final List<Node> thenNodes = new ArrayList<Node>();
+
+        List<Node> elseNodes;
+
+        boolean loop;
+
+        Block(Variable condition, int offset) {
+            this.condition = condition;
+            this.offset = offset;
+        }
+
+        void add(Node node) {
+            if (elseNodes != null) {
+                elseNodes.add(node);
+            } else {
+                thenNodes.add(node);
+            }
+        }
+
+        Node toNode() {
+            List<Node> otherwise = elseNodes == null ? new ArrayList<Node>() : elseNodes;
+            if (loop) {
+                return new Loop(thenNodes, otherwise);
+            }
+            return new Conditional(condition, thenNodes, otherwise);
+        }
+    }
+}
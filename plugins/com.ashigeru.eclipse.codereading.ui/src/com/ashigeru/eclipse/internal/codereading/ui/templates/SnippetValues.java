@@ -0,0 +1,82 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.templates;
+
+import com.ashigeru.eclipse.codereading.core.utils.TextLines;
+
+/**
+ * Values of a snippet which are referred from {@link LogTemplate}.
+ */
+public final class SnippetValues {
+
+    private final String path;
+
+    private final int lineNumber;
+
+    private final String language;
+
+    private final TextLines selection;
+
+    /**
+     * Creates a new instance.
+     * @param path the portable path of the snippet source, or {@code null} if it is unknown
+     * @param lineNumber the line number of the snippet head (0-origin), or {@code -1} if it is unknown
+     * @param language the programming language kind, or {@code null} if it is unknown
+     * @param selection the snippet lines, or {@code null} if they are unknown
+     */
+    public SnippetValues(String path, int lineNumber, String language, TextLines selection) {
+        this.path = path;
+        this.lineNumber = lineNumber;
+        this.language = language;
+        this.selection = selection;
+    }
+
+    /**
+     * Returns the portable path of the snippet source.
+     * @return the path, or {@code null} if it is unknown
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the line number of the snippet head.
+     * @return the line number (0-origin), or {@code -1} if it is unknown
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Returns the programming language kind.
+     * @return the language kind, or {@code null} if it is unknown
+     */
+    public String getLanguage() {
+        return language;
+    }
+
+    /**
+     * Returns the snippet lines.
+     * @return the snippet lines, or {@code null} if they are unknown
+     */
+    public TextLines getSelection() {
+        return selection;
+    }
+
+    boolean isEmpty() {
+        return path == null && selection == null;
+    }
+}
@@ -0,0 +1,375 @@
+/**
+ * Copyright 2014 ashigeru.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ashigeru.eclipse.internal.codereading.ui.views;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.layout.GridDataFactory;
+import org.eclipse.jface.viewers.ArrayContentProvider;
+import org.eclipse.jface.viewers.DoubleClickEvent;
+import org.eclipse.jface.viewers.IDoubleClickListener;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.jface.viewers.ITableLabelProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.FileDialog;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.swt.widgets.Text;
+import org.eclipse.ui.PartInitException;
+import org.eclipse.ui.part.ViewPart;
+
+import com.ashigeru.eclipse.internal.codereading.ui.Activator;
+import com.ashigeru.eclipse.internal.codereading.ui.LogUtil;
+import com.ashigeru.eclipse.internal.codereading.ui.handlers.LogSnippetHandler;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.LogIndex;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.LogIndexEntry;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.LogSegments;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.LogTermIndex;
+import com.ashigeru.eclipse.internal.codereading.ui.logs.SnippetSources;
+
+/**
+ * Searches log entries through the full-text index of the log file.
+ * The closed segments of the log file are also searched after the active segment, from the newest one.
+ * Each search runs in background, and its results are shown when it has been completed.
+ */
+public class LogSearchView extends ViewPart {
+
+    /**
+     * The view ID.
+     */
+    public static final String ID = Activator.EXTENSION_PREFIX + "searchView"; //$NON-NLS-1$
+
+    private static final int MAX_RESULTS = 500;
+
+    private Text fieldLogFile;
+
+    private Text fieldQuery;
+
+    private Label labelStatus;
+
+    private TableViewer viewer;
+
+    // accessed only from the UI thread
+    private SearchJob searchJob;
+
+    @Override
+    public void createPartControl(Composite parent) {
+        Composite pane = new Composite(parent, SWT.NONE);
+        pane.setLayout(new GridLayout(3, false));
+
+        Label logFileLabel = new Label(pane, SWT.NONE);
+        logFileLabel.setText("Log File:");
+        this.fieldLogFile = new Text(pane, SWT.SINGLE | SWT.BORDER);
+        String lastLogFile = Activator.getDialogSettings(LogSnippetHandler.class.getSimpleName())
+                .get(LogSnippetHandler.DIALOG_KEY_LOG_FILE);
+        if (lastLogFile != null) {
+            fieldLogFile.setText(lastLogFile);
+        }
+        GridDataFactory.swtDefaults()
+            .align(SWT.FILL, SWT.CENTER)
+            .grab(true, false)
+            .applyTo(fieldLogFile);
+        Button browse = new Button(pane, SWT.PUSH);
+        browse.setText("Browse");
+
+        Label queryLabel = new Label(pane, SWT.NONE);
+        queryLabel.setText("Search:");
+        this.fieldQuery = new Text(pane, SWT.SINGLE | SWT.BORDER | SWT.SEARCH);
+        fieldQuery.setMessage("identifiers, file names, or words");
+        GridDataFactory.swtDefaults()
+            .align(SWT.FILL, SWT.CENTER)
+            .span(2, 1)
+            .grab(true, false)
+            .applyTo(fieldQuery);
+
+        this.labelStatus = new Label(pane, SWT.NONE);
+        GridDataFactory.swtDefaults()
+            .align(SWT.FILL, SWT.CENTER)
+            .span(3, 1)
+            .grab(true, false)
+            .applyTo(labelStatus);
+
+        this.viewer = new TableViewer(pane, SWT.SINGLE | SWT.FULL_SELECTION | SWT.BORDER | SWT.V_SCROLL);
+        Table table = viewer.getTable();
+        table.setHeaderVisible(true);
+        createColumn(table, "Date", 160);
+        createColumn(table, "Source", 320);
+        createColumn(table, "Line", 60);
+        createColumn(table, "Segment", 160);
+        viewer.setContentProvider(ArrayContentProvider.getInstance());
+        viewer.setLabelProvider(new EntryLabelProvider());
+        GridDataFactory.swtDefaults()
+            .align(SWT.FILL, SWT.FILL)
+            .span(3, 1)
+            .grab(true, true)
+            .applyTo(table);
+
+        browse.addListener(SWT.Selection, new Listener() {
+            @Override
+            public void handleEvent(Event event) {
+                onSelectLogFile();
+            }
+        });
+        fieldQuery.addListener(SWT.DefaultSelection, new Listener() {
+            @Override
+            public void handleEvent(Event event) {
+                onSearch();
+            }
+        });
+        viewer.addDoubleClickListener(new IDoubleClickListener() {
+            @Override
+            public void doubleClick(DoubleClickEvent event) {
+                onOpen((IStructuredSelection) event.getSelection());
+            }
+        });
+    }
+
+    private void createColumn(Table table, String title, int width) {
+        TableColumn column = new TableColumn(table, SWT.LEFT);
+        column.setText(title);
+        column.setWidth(width);
+    }
+
+    @Override
+    public void setFocus() {
+        fieldQuery.setFocus();
+    }
+
+    void onSelectLogFile() {
+        FileDialog dialog = new FileDialog(getSite().getShell(), SWT.OPEN);
+        dialog.setText("Log File");
+        String last = fieldLogFile.getText();
+        if (last.isEmpty() == false) {
+            File file = new File(last);
+            dialog.setFilterPath(file.getParent());
+            dialog.setFileName(file.getName());
+        }
+        String result = dialog.open();
+        if (result != null) {
+            fieldLogFile.setText(result);
+        }
+    }
+
+    void onSearch() {
+        File logFile = getLogFile();
+        String query = fieldQuery.getText();
+        if (logFile == null || query.trim().isEmpty()) {
+            return;
+        }
+        if (searchJob != null) {
+            searchJob.cancel();
+        }
+        labelStatus.setText("Searching...");
+        searchJob = new SearchJob(logFile, query);
+        searchJob.schedule();
+    }
+
+    void onSearched(SearchJob job, String status, List<SearchHit> results) {
+        if (job != searchJob || viewer.getControl().isDisposed()) {
+            return;
+        }
+        searchJob = null;
+        labelStatus.setText(status);
+        viewer.setInput(results);
+    }
+
+    private static int search(File segment, String query, List<SearchHit> results) throws IOException {
+        LogIndex index = LogIndex.open(segment);
+        int[] ids = LogTermIndex.open(segment).search(query);
+        for (int i = 0; i < ids.length && results.size() < MAX_RESULTS; i++) {
+            if (ids[i] < index.size()) {
+                results.add(new SearchHit(segment, index.get(ids[i])));
+            }
+        }
+        return ids.length;
+    }
+
+    void onOpen(IStructuredSelection selection) {
+        Object element = selection.getFirstElement();
+        if ((element instanceof SearchHit) == false) {
+            return;
+        }
+        SearchHit hit = (SearchHit) element;
+        LogIndexEntry entry = hit.entry;
+        IFile source = entry.getSource() == null ? null : SnippetSources.getSourceFile(entry.getSource());
+        if (source == null) {
+            MessageDialog.openInformation(getSite().getShell(), "Open Snippet Source", MessageFormat.format(
+                    "The snippet source does not exist in the workspace: {0}",
+                    entry.getSource()));
+            return;
+        }
+        try {
+            List<String> snippet = SnippetSources.getSnippet(SnippetSources.readContents(hit.segment, entry));
+            SnippetSources.open(getSite().getPage(), source, snippet, entry.getLineNumber());
+        } catch (IOException e) {
+            LogUtil.log(IStatus.ERROR, e, MessageFormat.format(
+                    "Failed to read log entry: {0}",
+                    entry));
+        } catch (PartInitException e) {
+            LogUtil.log(IStatus.ERROR, e, MessageFormat.format(
+                    "Failed to open the snippet source: {0}",
+                    source));
+        }
+    }
+
+    @Override
+    public void dispose() {
+        if (searchJob != null) {
+            searchJob.cancel();
+            searchJob = null;
+        }
+        super.dispose();
+    }
+
+    private File getLogFile() {
+        String text = fieldLogFile.getText().trim();
+        if (text.isEmpty()) {
+            return null;
+        }
+        return new File(text);
+    }
+
+    /**
+     * Searches the log file and its closed segments in background, and then shows the results in the view.
+     */
+    private final class SearchJob extends Job {
+
+        private final File logFile;
+
+        private final String query;
+
+        SearchJob(File logFile, String query) {
+            super("Searching Code Reading Log");
+            this.logFile = logFile;
+            this.query = query;
+            setSystem(true);
+        }
+
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            List<SearchHit> results = new ArrayList<SearchHit>();
+            int found = 0;
+            int unindexed = 0;
+            String status;
+            try {
+                List<File> segments = new ArrayList<File>(LogSegments.getClosedSegments(logFile));
+                segments.add(logFile);
+                Collections.reverse(segments);
+                for (File segment : segments) {
+                    if (monitor.isCanceled()) {
+                        return Status.CANCEL_STATUS;
+                    }
+                    if (segment != logFile && LogIndex.getIndexFile(segment).isFile() == false) {
+                        unindexed++;
+                        continue;
+                    }
+                    found += search(segment, query, results);
+                }
+                if (unindexed == 0) {
+                    status = MessageFormat.format("{0} entries found.", found);
+                } else {
+                    status = MessageFormat.format(
+                            "{0} entries found ({1} closed segments are not indexed, and they were not searched).",
+                            found,
+                            unindexed);
+                }
+            } catch (IOException e) {
+                LogUtil.log(IStatus.ERROR, e, MessageFormat.format(
+                        "Failed to search log file: {0}",
+                        logFile));
+                status = MessageFormat.format("Failed to search: {0}", e.getMessage());
+                results.clear();
+            }
+            show(status, results);
+            return Status.OK_STATUS;
+        }
+
+        private void show(final String status, final List<SearchHit> results) {
+            Activator.getDisplay().asyncExec(new Runnable() {
+                @Override
+                public void run() {
+                    onSearched(SearchJob.this, status, results);
+                }
+            });
+        }
+    }
+
+    private static final class SearchHit {
+
+        final File segment;
+
+        final LogIndexEntry entry;
+
+        SearchHit(File segment, LogIndexEntry entry) {
+            this.segment = segment;
+            this.entry = entry;
+        }
+    }
+
+    private static final class EntryLabelProvider extends LabelProvider implements ITableLabelProvider {
+
+        private final DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
+
+        EntryLabelProvider() {
+            return;
+        }
+
+        @Override
+        public Image getColumnImage(Object element, int columnIndex) {
+            return null;
+        }
+
+        @Override
+        public String getColumnText(Object element, int columnIndex) {
+            SearchHit hit = (SearchHit) element;
+            LogIndexEntry entry = hit.entry;
+            switch (columnIndex) {
+            case 0:
+                return entry.getTimestamp() == 0 ? "" : dateFormat.format(new Date(entry.getTimestamp())); //$NON-NLS-1$
+            case 1:
+                return entry.getSource() == null ? "" : entry.getSource(); //$NON-NLS-1$
+            case 2:
+                return entry.getLineNumber() < 0 ? "" : String.valueOf(entry.getLineNumber() + 1); //$NON-NLS-1$
+            case 3:
+                return hit.segment.getName();
+            default:
+                return ""; //$NON-NLS-1$
+            }
+        }
+    }
+}